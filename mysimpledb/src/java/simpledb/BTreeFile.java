@@ -0,0 +1,345 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a secondary index on one field of a table: a disk-based B+
+ * tree that maps each tuple's key to its RecordId.  Its pages are
+ * BTreePages, read and locked through the BufferPool like any other
+ * DbFile's, so index changes are logged and recovered with the table's.
+ * <p/>
+ * The root is always page 0; when it fills up, its contents move to a new
+ * page and the root becomes their parent.  Leaves are linked left to
+ * right, so a range lookup descends once and then follows the links.
+ * Deletes do not merge or rebalance pages; an emptied leaf stays in the
+ * chain until entries are inserted into it again.
+ * <p/>
+ * An index is registered with Catalog#addIndex, after which
+ * BufferPool#insertTuple and BufferPool#deleteTuple keep it up to date.
+ * Its tuples are those of the indexed table, returned in key order.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ */
+public class BTreeFile extends PageFile<BTreePage> implements IndexFile {
+
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc td;
+
+    /**
+     * Constructs a B+ tree index backed by the specified file.
+     *
+     * @param f        the file that stores the index's pages
+     * @param table    the indexed table
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     */
+    public BTreeFile(File f, DbFile table, int keyField) {
+        super(f);
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        this.td = table.getTupleDesc();
+    }
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the index of the indexed field in the table's TupleDesc
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return td.getFieldType(keyField);
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table, whose tuples this index
+     * returns.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    protected BTreePage makePage(FilePageId pid, byte[] data) throws IOException {
+        return new BTreePage(pid, data);
+    }
+
+    /**
+     * Compare two keys.
+     *
+     * @return a negative number, zero, or a positive number as a is less
+     * than, equal to, or greater than b
+     */
+    static int compareKeys(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return 1;
+    }
+
+    /**
+     * Compare two entries by key, then by RecordId.
+     */
+    static int compareEntries(BTreePage.Entry a, BTreePage.Entry b) {
+        int c = compareKeys(a.key, b.key);
+        if (c != 0)
+            return c;
+        c = a.rid.getPageId().pageNumber() - b.rid.getPageId().pageNumber();
+        if (c != 0)
+            return c;
+        return a.rid.tupleno() - b.rid.tupleno();
+    }
+
+    private BTreePage.Entry entryFor(Tuple t) {
+        if (t.getRecordId() == null)
+            throw new IllegalArgumentException("Tuple is not stored in a table");
+        return new BTreePage.Entry(t.getField(keyField), t.getRecordId());
+    }
+
+    /**
+     * @return the number of entries on page that come before e (or are
+     * equal to it, if inclusive)
+     */
+    private static int position(BTreePage page, BTreePage.Entry e, boolean inclusive) {
+        int lo = 0, hi = page.getNumEntries();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareEntries(page.getEntry(mid), e);
+            if (c < 0 || (inclusive && c == 0))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the number of separators on an internal page whose key is
+     * less than key, which is the child where entries with that key start
+     */
+    private static int keyPosition(BTreePage page, Field key) {
+        int lo = 0, hi = page.getNumEntries();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKeys(page.getEntry(mid).key, key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Descend from the root to the leaf where e belongs, locking it for
+     * writing.  Internal pages are only locked for reading, so writers to
+     * different leaves do not wait for each other; a split upgrades the
+     * locks on the parents it changes.  Fills path with the pages passed
+     * and childIndexes with the child taken at each internal page.
+     */
+    private BTreePage findLeafForUpdate(TransactionId tid, BTreePage.Entry e,
+                                        List<BTreePage> path, List<Integer> childIndexes)
+            throws TransactionAbortedException, DbException {
+        BTreePage page = getPage(tid, 0, Permissions.READ_ONLY);
+        if (page.isLeaf())
+            return getPage(tid, 0, Permissions.READ_WRITE);
+        while (!page.isLeaf()) {
+            path.add(page);
+            int child = position(page, e, true);
+            childIndexes.add(child);
+            Permissions perm = page.getLevel() == 1 ? Permissions.READ_WRITE : Permissions.READ_ONLY;
+            page = getPage(tid, page.getChild(child), perm);
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null)
+            throw new NullPointerException();
+
+        BTreePage.Entry e = entryFor(t);
+        ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+        ArrayList<Integer> childIndexes = new ArrayList<Integer>();
+        BTreePage page = findLeafForUpdate(tid, e, path, childIndexes);
+
+        ArrayList<Page> rv = new ArrayList<Page>();
+        page.insertEntry(position(page, e, false), e);
+        rv.add(page);
+
+        //split full pages on the way back up
+        while (page.getNumEntries() > page.getMaxEntries()) {
+            BTreePage parent;
+            int child;
+            if (path.isEmpty()) {
+                //the root: move its contents down a level
+                BTreePage below = newPage(tid);
+                page.pushDownInto(below);
+                rv.add(below);
+                parent = page;
+                child = 0;
+                page = below;
+            } else {
+                //upgrade the read lock taken on the way down
+                parent = getPage(tid, path.remove(path.size() - 1).getId().pageNumber(), Permissions.READ_WRITE);
+                child = childIndexes.remove(childIndexes.size() - 1);
+            }
+            BTreePage right = newPage(tid);
+            parent.insertSeparator(child, page.splitInto(right), right.getId().pageNumber());
+            rv.add(right);
+            rv.add(parent);
+            page = parent;
+        }
+        return rv;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null)
+            throw new NullPointerException();
+
+        BTreePage.Entry e = entryFor(t);
+        BTreePage page = findLeafForUpdate(tid, e, new ArrayList<BTreePage>(), new ArrayList<Integer>());
+        int i = position(page, e, false);
+        if (i == page.getNumEntries() || compareEntries(page.getEntry(i), e) != 0)
+            throw new DbException("Tuple is not in this index");
+        page.deleteEntry(i);
+
+        ArrayList<Page> rv = new ArrayList<Page>();
+        rv.add(page);
+        return rv;
+    }
+
+    /**
+     * Returns an iterator over all the tuples of the indexed table, in key
+     * order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the indexed table whose key
+     * satisfies (key op operand), in key order.  EQUALS, GREATER_THAN and
+     * GREATER_THAN_OR_EQ descend straight to the first candidate; EQUALS,
+     * LESS_THAN and LESS_THAN_OR_EQ stop at the first key past the range.
+     *
+     * @param tid     the transaction reading the index
+     * @param op      the comparison, or null for every tuple
+     * @param operand the value keys are compared to
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        return new IndexIterator(tid, op, operand);
+    }
+
+    /**
+     * @return true if a lookup with op starts at the first key that is not
+     * less than the operand, rather than at the smallest key
+     */
+    static boolean seeks(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if no key from key on (in key order) can satisfy
+     * (key op operand)
+     */
+    static boolean pastRange(Predicate.Op op, Field key, Field operand) {
+        if (op == null)
+            return false;
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return compareKeys(key, operand) > 0;
+            case LESS_THAN:
+                return compareKeys(key, operand) >= 0;
+            default:
+                return false;
+        }
+    }
+
+    private class IndexIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field operand;
+        private BTreePage leaf;	//null when not open or exhausted
+        private int pos;
+        private Tuple next;
+
+        public IndexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            boolean seek = seeks(op);
+            BTreePage page = getPage(tid, 0, Permissions.READ_ONLY);
+            while (!page.isLeaf()) {
+                int child = seek ? keyPosition(page, operand) : 0;
+                page = getPage(tid, page.getChild(child), Permissions.READ_ONLY);
+            }
+            leaf = page;
+            pos = seek ? keyPosition(page, operand) : 0;
+            next = null;
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            while (leaf != null) {
+                while (pos < leaf.getNumEntries()) {
+                    BTreePage.Entry e = leaf.getEntry(pos++);
+                    if (pastRange(op, e.key, operand)) {
+                        leaf = null;
+                        return null;
+                    }
+                    if (op == null || e.key.compare(op, operand)) {
+                        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, e.rid.getPageId(), Permissions.READ_ONLY);
+                        Tuple t = page.getTuple(e.rid.tupleno());
+                        if (t != null)
+                            return t;
+                    }
+                }
+                int sibling = leaf.getRightSibling();
+                leaf = sibling == 0 ? null : getPage(tid, sibling, Permissions.READ_ONLY);
+                pos = 0;
+            }
+            return null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next == null)
+                next = readNext();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            leaf = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BTreePage is a node of a BTreeFile.  A leaf holds (key, RecordId)
+ * entries; an internal page holds separators, which are also (key,
+ * RecordId) pairs, and the page numbers of its children.  Entries are
+ * ordered by key and then by RecordId, so every entry is distinct even
+ * when keys repeat.
+ * <p/>
+ * The page starts with a header: a type byte (0 for a leaf, 1 for an
+ * internal page), an integer entry count, and, for a leaf, the page
+ * number of its right sibling (0 for none, since the root is page 0) or,
+ * for an internal page, its level (1 if its children are leaves).  An
+ * all-zero page is therefore an empty leaf.  An internal page then
+ * stores its first child, and every entry is followed by the child to
+ * its right.  A key takes the fixed length of its type; a RecordId is its
+ * page number and slot.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+    static final byte LEAF = 0;
+    static final byte INTERNAL = 1;
+    static final int HEADER_SIZE = 9;
+    static final int RID_SIZE = 8;
+
+    /**
+     * A key and the RecordId of the tuple it came from: a leaf entry, or a
+     * separator in an internal page.
+     */
+    static class Entry {
+        final Field key;
+        final RecordId rid;
+
+        Entry(Field key, RecordId rid) {
+            this.key = key;
+            this.rid = rid;
+        }
+    }
+
+    final FilePageId pid;
+    private final Type keyType;
+    private final int tableId;  // the indexed table, which RecordIds point into
+
+    private boolean leaf;
+    private int rightSibling;
+    private int level;  // internal pages only: the number of levels below
+    private final ArrayList<Entry> entries = new ArrayList<Entry>();
+    // internal pages only: entries.size() + 1 children
+    private final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    byte[] oldData;     // the before image; null while it is the page as it is now
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a BTreePage from a set of bytes of data read from disk, in the
+     * format described above.
+     */
+    public BTreePage(FilePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.keyType = file.getKeyType();
+        this.tableId = file.getTableId();
+
+        ByteBuffer page = ByteBuffer.wrap(data);
+        byte type = page.get();
+        if (type != LEAF && type != INTERNAL)
+            throw new IOException("bad page type " + type + " on " + id);
+        leaf = type == LEAF;
+        int n = page.getInt();
+        if (leaf)
+            rightSibling = page.getInt();
+        else
+            level = page.getInt();
+        if (n < 0 || n > getMaxEntries())
+            throw new IOException("bad entry count " + n + " on " + id);
+
+        if (!leaf)
+            children.add(page.getInt());
+        for (int i = 0; i < n; i++) {
+            int offset = page.position();
+            Field key = keyType.parse(data, offset);
+            page.position(offset + keyType.getLen());
+            int pageNo = page.getInt();
+            int slot = page.getInt();
+            entries.add(new Entry(key, new RecordId(new HeapPageId(tableId, pageNo), slot)));
+            if (!leaf)
+                children.add(page.getInt());
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the most entries a page of this index can hold
+     */
+    public int getMaxEntries() {
+        int entrySize = keyType.getLen() + RID_SIZE;
+        if (leaf)
+            return (BufferPool.getPageSize() - HEADER_SIZE) / entrySize;
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4) / (entrySize + 4);
+    }
+
+    public FilePageId getId() {
+        return pid;
+    }
+
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    public Entry getEntry(int i) {
+        return entries.get(i);
+    }
+
+    /**
+     * @return the page number of child i of an internal page; child i holds
+     * the entries between separators i - 1 and i
+     */
+    public int getChild(int i) {
+        return children.get(i);
+    }
+
+    /**
+     * @return the number of levels of the tree below an internal page, so
+     * 1 if its children are leaves
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the page number of the next leaf, or 0 if this is the last
+     */
+    public int getRightSibling() {
+        return rightSibling;
+    }
+
+    /**
+     * Insert an entry into a leaf at position i.
+     */
+    void insertEntry(int i, Entry e) {
+        captureBeforeImage();
+        entries.add(i, e);
+    }
+
+    /**
+     * Insert a separator into an internal page at position i, with the
+     * page number of the child to its right.
+     */
+    void insertSeparator(int i, Entry e, int rightChild) {
+        captureBeforeImage();
+        entries.add(i, e);
+        children.add(i + 1, rightChild);
+    }
+
+    /**
+     * Remove the entry at position i of a leaf.
+     */
+    void deleteEntry(int i) {
+        captureBeforeImage();
+        entries.remove(i);
+    }
+
+    /**
+     * Move the upper half of this page to right, an empty page that becomes
+     * its right neighbour, and return the separator for the parent.  A leaf
+     * keeps its separator (it is the first entry of right); an internal page
+     * gives its middle separator up to the parent.
+     */
+    Entry splitInto(BTreePage right) {
+        captureBeforeImage();
+        right.captureBeforeImage();
+        right.leaf = leaf;
+        right.level = level;
+        int mid = entries.size() / 2;
+        Entry separator = entries.get(mid);
+        if (leaf) {
+            moveTail(entries, mid, right.entries);
+            right.rightSibling = rightSibling;
+            rightSibling = right.pid.pageNumber();
+        } else {
+            moveTail(entries, mid + 1, right.entries);
+            moveTail(children, mid + 1, right.children);
+            entries.remove(mid);
+        }
+        return separator;
+    }
+
+    /**
+     * Move everything on this page (the root) to child, an empty page, and
+     * make this an internal page whose only child is child.  Used to grow
+     * the tree by a level, so the root stays at page 0.
+     */
+    void pushDownInto(BTreePage child) {
+        captureBeforeImage();
+        child.captureBeforeImage();
+        child.leaf = leaf;
+        child.rightSibling = rightSibling;
+        child.level = level;
+        moveTail(entries, 0, child.entries);
+        moveTail(children, 0, child.children);
+        level = leaf ? 1 : level + 1;
+        leaf = false;
+        rightSibling = 0;
+        children.add(child.pid.pageNumber());
+    }
+
+    private static <T> void moveTail(List<T> from, int start, List<T> to) {
+        List<T> tail = from.subList(start, from.size());
+        to.addAll(tail);
+        tail.clear();
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public BTreePage getBeforeImage() {
+        try {
+            return new BTreePage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData != null ? oldData : getPageData();
+        }
+    }
+
+    /**
+     * The page as it is now becomes the before image.  It is only saved
+     * when the page next changes; see captureBeforeImage.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format described above.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        page.put(leaf ? LEAF : INTERNAL);
+        page.putInt(entries.size());
+        page.putInt(leaf ? rightSibling : level);
+        if (!leaf)
+            page.putInt(children.get(0));
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            int offset = page.position();
+            e.key.serialize(page);
+            page.position(offset + keyType.getLen());
+            page.putInt(e.rid.getPageId().pageNumber());
+            page.putInt(e.rid.tupleno());
+            if (!leaf)
+                page.putInt(children.get(i + 1));
+        }
+        return data;
+    }
+
+    public ByteBuffer getPageDataBuffer() {
+        return ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the bytes of an empty leaf
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+}
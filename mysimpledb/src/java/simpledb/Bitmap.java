@@ -0,0 +1,252 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Bitmap is a compressed set of non-negative ints, the positions of the
+ * tuples a BitmapFile finds, organized like a roaring bitmap: positions are
+ * split by their high 16 bits into chunks, and only chunks with a position
+ * in them are kept.  A chunk holds a sorted array of the low 16 bits of
+ * its positions while it has at most ARRAY_MAX of them, and a 2^16-bit
+ * bitmap once it has more, so sparse and dense sets both stay small.
+ * <p/>
+ * and and or work a chunk at a time, skipping the chunks only one side
+ * has for and, and picking the cheaper method for each pair of chunks.
+ *
+ * @see BitmapFile#lookup
+ * @see BitmapScan
+ */
+public class Bitmap {
+
+    private static final int CHUNK = 1 << 16;
+    private static final int ARRAY_MAX = 4096;  //an array this long is as big as a bitmap
+
+    private final TreeMap<Integer, Container> chunks = new TreeMap<Integer, Container>();
+
+    /**
+     * The positions of one chunk: their low 16 bits, in a sorted array or
+     * a bitmap.
+     */
+    private static final class Container {
+        char[] array = new char[4];   //the sorted values while sparse, else null
+        long[] words;                 //the bitmap of the values once dense, else null
+        int size;
+
+        boolean contains(int low) {
+            if (words != null)
+                return (words[low >>> 6] & (1L << low)) != 0;
+            return Arrays.binarySearch(array, 0, size, (char) low) >= 0;
+        }
+
+        void add(int low) {
+            if (words != null) {
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) == 0) {
+                    words[low >>> 6] |= bit;
+                    size++;
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, size, (char) low);
+            if (i >= 0)
+                return;
+            if (size == ARRAY_MAX) {
+                words = toWords();
+                array = null;
+                add(low);
+                return;
+            }
+            i = -i - 1;
+            if (size == array.length)
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, size * 2));
+            System.arraycopy(array, i, array, i + 1, size - i);
+            array[i] = (char) low;
+            size++;
+        }
+
+        /**
+         * @return the smallest value at or after from, or -1 if there is
+         * none
+         */
+        int next(int from) {
+            if (words != null) {
+                int w = from >>> 6;
+                if (w >= words.length)
+                    return -1;
+                long word = words[w] & (-1L << from);
+                while (word == 0) {
+                    if (++w == words.length)
+                        return -1;
+                    word = words[w];
+                }
+                return w * 64 + Long.numberOfTrailingZeros(word);
+            }
+            int i = Arrays.binarySearch(array, 0, size, (char) from);
+            if (i < 0)
+                i = -i - 1;
+            return i < size ? array[i] : -1;
+        }
+
+        long[] toWords() {
+            if (words != null)
+                return words.clone();
+            long[] rv = new long[CHUNK / 64];
+            for (int i = 0; i < size; i++)
+                rv[array[i] >>> 6] |= 1L << array[i];
+            return rv;
+        }
+
+        // a container of the bits of rv, as an array if they are few enough
+        static Container fromWords(long[] rv) {
+            Container c = new Container();
+            for (long w : rv)
+                c.size += Long.bitCount(w);
+            if (c.size > ARRAY_MAX) {
+                c.words = rv;
+                c.array = null;
+                return c;
+            }
+            c.array = new char[Math.max(4, c.size)];
+            int n = 0;
+            for (int w = 0; w < rv.length; w++) {
+                long word = rv[w];
+                while (word != 0) {
+                    c.array[n++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return c;
+        }
+
+        static Container and(Container a, Container b) {
+            if (a.words != null && b.words != null) {
+                long[] rv = new long[CHUNK / 64];
+                for (int i = 0; i < rv.length; i++)
+                    rv[i] = a.words[i] & b.words[i];
+                return fromWords(rv);
+            }
+            if (a.words != null) {
+                Container t = a;
+                a = b;
+                b = t;
+            }
+            //a is an array: keep those of its values b has
+            Container rv = new Container();
+            rv.array = new char[Math.max(4, a.size)];
+            for (int i = 0; i < a.size; i++) {
+                if (b.contains(a.array[i]))
+                    rv.array[rv.size++] = a.array[i];
+            }
+            return rv;
+        }
+
+        static Container or(Container a, Container b) {
+            if (a.words == null && b.words == null && a.size + b.size <= ARRAY_MAX) {
+                //merge the sorted arrays
+                Container rv = new Container();
+                rv.array = new char[Math.max(4, a.size + b.size)];
+                int i = 0, j = 0;
+                while (i < a.size || j < b.size) {
+                    char v;
+                    if (j == b.size || (i < a.size && a.array[i] < b.array[j]))
+                        v = a.array[i++];
+                    else if (i == a.size || b.array[j] < a.array[i])
+                        v = b.array[j++];
+                    else {
+                        v = a.array[i++];
+                        j++;
+                    }
+                    rv.array[rv.size++] = v;
+                }
+                return rv;
+            }
+            long[] rv = a.toWords();
+            if (b.words != null) {
+                for (int i = 0; i < rv.length; i++)
+                    rv[i] |= b.words[i];
+            } else {
+                for (int i = 0; i < b.size; i++)
+                    rv[b.array[i] >>> 6] |= 1L << b.array[i];
+            }
+            return fromWords(rv);
+        }
+    }
+
+    public void add(int pos) {
+        if (pos < 0)
+            throw new IllegalArgumentException("negative position " + pos);
+        Container c = chunks.get(pos >>> 16);
+        if (c == null) {
+            c = new Container();
+            chunks.put(pos >>> 16, c);
+        }
+        c.add(pos & (CHUNK - 1));
+    }
+
+    public boolean contains(int pos) {
+        Container c = chunks.get(pos >>> 16);
+        return c != null && c.contains(pos & (CHUNK - 1));
+    }
+
+    /**
+     * @return the number of positions in the set
+     */
+    public int cardinality() {
+        int n = 0;
+        for (Container c : chunks.values())
+            n += c.size;
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    /**
+     * @return the smallest position at or after from, or -1 if there is
+     * none
+     */
+    public int nextSetBit(int from) {
+        for (Map.Entry<Integer, Container> e : chunks.tailMap(from >>> 16).entrySet()) {
+            int high = e.getKey();
+            int low = high == from >>> 16 ? from & (CHUNK - 1) : 0;
+            int next = e.getValue().next(low);
+            if (next >= 0)
+                return high * CHUNK + next;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the positions in both this set and other
+     */
+    public Bitmap and(Bitmap other) {
+        Bitmap rv = new Bitmap();
+        for (Map.Entry<Integer, Container> e : chunks.entrySet()) {
+            Container c = other.chunks.get(e.getKey());
+            if (c == null)
+                continue;
+            Container both = Container.and(e.getValue(), c);
+            if (both.size > 0)
+                rv.chunks.put(e.getKey(), both);
+        }
+        return rv;
+    }
+
+    /**
+     * @return the positions in either this set or other
+     */
+    public Bitmap or(Bitmap other) {
+        Bitmap rv = new Bitmap();
+        Container empty = new Container();
+        TreeSet<Integer> keys = new TreeSet<Integer>(chunks.keySet());
+        keys.addAll(other.chunks.keySet());
+        for (Integer k : keys) {
+            Container a = chunks.get(k);
+            Container b = other.chunks.get(k);
+            //or always builds a new container, so rv shares none with the inputs
+            rv.chunks.put(k, Container.or(a == null ? empty : a, b == null ? empty : b));
+        }
+        return rv;
+    }
+}
@@ -0,0 +1,304 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapFile is a secondary index on one field of a table with few
+ * distinct values: for each value, it keeps a bitmap with a bit for every
+ * slot of the table, set where the slot holds a tuple with that value.  A
+ * tuple's position in the bitmaps is its page number times the number of
+ * slots a page of the table has, plus its slot, so only tables of
+ * fixed-length tuples (HeapFiles without VARCHAR fields) can be indexed.
+ * <p/>
+ * Each bitmap is split into chunks of BitmapPage#chunkBits positions.  A
+ * chunk with no position set has no page, and a sparse one lists its
+ * positions instead of storing every bit, much as a roaring bitmap does.
+ * See BitmapPage for the layout.  Like HashFile, the index's pages are read
+ * and locked through the BufferPool, and it is kept up to date by the
+ * BufferPool once registered with Catalog#addIndex.  Containers emptied by
+ * deletes keep their pages.
+ * <p/>
+ * lookup returns the positions matching a predicate as a Bitmap, so
+ * several lookups, on this and other bitmap indexes of the table, can be
+ * combined with Bitmap#and and Bitmap#or before any tuple is read;
+ * iterator(TransactionId, Bitmap) then reads just the slots left.
+ *
+ * @see BitmapScan
+ * @see IndexScan
+ */
+public class BitmapFile extends PageFile<BitmapPage> implements IndexFile {
+
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc td;
+    private final int slotsPerPage;   //the number of slots on a page of the table
+
+    /**
+     * Constructs a bitmap index backed by the specified file.
+     *
+     * @param f        the file that stores the index's pages
+     * @param table    the indexed table, a HeapFile of fixed-length tuples
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     * @throws IllegalArgumentException if the table is not a HeapFile or
+     *                                  has a VARCHAR field
+     */
+    public BitmapFile(File f, DbFile table, int keyField) {
+        super(f);
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("Only heap files can have bitmap indexes");
+        for (int i = 0; i < table.getTupleDesc().numFields(); i++) {
+            if (table.getTupleDesc().getFieldType(i) == Type.VARCHAR_TYPE)
+                throw new IllegalArgumentException("Bitmap indexes need fixed-length tuples");
+        }
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        this.td = table.getTupleDesc();
+        this.slotsPerPage = ((HeapFile) table).tuplesPerPage();
+    }
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the index of the indexed field in the table's TupleDesc
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return td.getFieldType(keyField);
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table, whose tuples this index
+     * returns.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    protected BitmapPage makePage(FilePageId pid, byte[] data) throws IOException {
+        return new BitmapPage(pid, data);
+    }
+
+    /**
+     * @return the position of a tuple of the table in the bitmaps
+     */
+    private int positionOf(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new IllegalArgumentException("Tuple is not stored in a table");
+        long pos = (long) rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno();
+        if (pos / BitmapPage.chunkBits() >= BitmapPage.maxChunks())
+            throw new DbException("table too large for a bitmap index");
+        return (int) pos;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null)
+            throw new NullPointerException();
+
+        int pos = positionOf(t);
+        Field key = t.getField(keyField);
+        LinkedHashSet<Page> dirtied = new LinkedHashSet<Page>();
+        //the directory and chunk table are only locked for writing when
+        //they change, so that writers to existing chunks share them
+        BitmapPage directory = getPage(tid, 0, Permissions.READ_ONLY);
+        BitmapPage table;
+        int k = directory.indexOf(key);
+        if (k < 0) {
+            if (directory.getNumKeys() == directory.getMaxKeys())
+                throw new DbException("too many distinct values for a bitmap index");
+            directory = getPage(tid, 0, Permissions.READ_WRITE);
+            table = newPage(tid);
+            table.makeTable();
+            directory.addKey(key, table.getId().pageNumber());
+            dirtied.add(directory);
+            dirtied.add(table);
+        } else {
+            table = getPage(tid, directory.getTable(k), Permissions.READ_ONLY);
+        }
+
+        int c = pos / BitmapPage.chunkBits();
+        BitmapPage container;
+        if (table.getChunk(c) == 0) {
+            table = getPage(tid, table.getId().pageNumber(), Permissions.READ_WRITE);
+            container = newPage(tid);
+            table.setChunk(c, container.getId().pageNumber());
+            dirtied.add(table);
+        } else {
+            container = getPage(tid, table.getChunk(c), Permissions.READ_WRITE);
+        }
+        container.set(pos % BitmapPage.chunkBits());
+        dirtied.add(container);
+        return new ArrayList<Page>(dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null)
+            throw new NullPointerException();
+
+        int pos = positionOf(t);
+        BitmapPage directory = getPage(tid, 0, Permissions.READ_ONLY);
+        int k = directory.indexOf(t.getField(keyField));
+        if (k >= 0) {
+            BitmapPage table = getPage(tid, directory.getTable(k), Permissions.READ_ONLY);
+            int pageNo = table.getChunk(pos / BitmapPage.chunkBits());
+            if (pageNo != 0) {
+                BitmapPage container = getPage(tid, pageNo, Permissions.READ_WRITE);
+                if (container.clear(pos % BitmapPage.chunkBits())) {
+                    ArrayList<Page> rv = new ArrayList<Page>();
+                    rv.add(container);
+                    return rv;
+                }
+            }
+        }
+        throw new DbException("Tuple is not in this index");
+    }
+
+    /**
+     * Add the positions in the bitmap whose chunk table is on page pageNo
+     * to rows.
+     */
+    private void readBitmap(TransactionId tid, int pageNo, Bitmap rows)
+            throws DbException, TransactionAbortedException {
+        BitmapPage table = getPage(tid, pageNo, Permissions.READ_ONLY);
+        int chunkBits = BitmapPage.chunkBits();
+        for (int c = 0; c < BitmapPage.maxChunks(); c++) {
+            if (table.getChunk(c) == 0)
+                continue;
+            BitmapPage container = getPage(tid, table.getChunk(c), Permissions.READ_ONLY);
+            for (int i = container.nextSetBit(0); i >= 0; i = container.nextSetBit(i + 1))
+                rows.add(c * chunkBits + i);
+        }
+    }
+
+    /**
+     * Returns the positions of the tuples of the indexed table whose key
+     * satisfies (key op operand).  EQUALS reads only the bitmap of operand;
+     * any other op reads the bitmap of every key that satisfies it.
+     *
+     * @param tid     the transaction reading the index
+     * @param op      the comparison, or null for every tuple
+     * @param operand the value keys are compared to
+     */
+    public Bitmap lookup(TransactionId tid, Predicate.Op op, Field operand)
+            throws DbException, TransactionAbortedException {
+        Bitmap rows = new Bitmap();
+        BitmapPage directory = getPage(tid, 0, Permissions.READ_ONLY);
+        if (op == Predicate.Op.EQUALS) {
+            int k = directory.indexOf(operand);
+            if (k >= 0)
+                readBitmap(tid, directory.getTable(k), rows);
+            return rows;
+        }
+        for (int k = 0; k < directory.getNumKeys(); k++) {
+            if (op == null || directory.getKey(k).compare(op, operand))
+                readBitmap(tid, directory.getTable(k), rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns an iterator over all the tuples of the indexed table.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the indexed table whose key
+     * satisfies (key op operand), in the order they are stored in.
+     *
+     * @see #lookup
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        return new BitmapIterator(tid, op, operand, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the indexed table at the given
+     * positions, in the order they are stored in, reading only the pages
+     * that hold them.  Positions are the same in every bitmap index of a
+     * table, so rows can come from lookups on any of them.
+     */
+    public DbFileIterator iterator(TransactionId tid, Bitmap rows) {
+        return new BitmapIterator(tid, null, null, rows);
+    }
+
+    /**
+     * Reads the tuples at the positions in a Bitmap, found when the
+     * iterator is opened unless it was given one.  Since the positions are
+     * fixed then, deleting the tuples returned does not disturb it.
+     */
+    private class BitmapIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field operand;
+        private final Bitmap given;
+        private Bitmap rows;    //null when not open
+        private int pos;        //the next position to read, or -1
+        private Tuple next;
+
+        public BitmapIterator(TransactionId tid, Predicate.Op op, Field operand, Bitmap rows) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+            this.given = rows;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            rows = given != null ? given : lookup(tid, op, operand);
+            pos = rows.nextSetBit(0);
+            next = null;
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            while (rows != null && pos >= 0) {
+                HeapPageId pid = new HeapPageId(tableId, pos / slotsPerPage);
+                int slot = pos % slotsPerPage;
+                pos = rows.nextSetBit(pos + 1);
+                TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                Tuple t = page.getTuple(slot);
+                if (t != null)
+                    return t;
+            }
+            return null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next == null)
+                next = readNext();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            rows = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * BitmapPage is a page of a BitmapFile: its directory, which is always page
+ * 0, a chunk table, or a container holding one chunk of the bitmap of one
+ * key.
+ * <p/>
+ * The directory starts with a type byte (2) and the number of keys, then
+ * lists each key with the page number of its chunk table.  An all-zero
+ * page 0 is the directory of an empty index.
+ * <p/>
+ * A chunk table starts with a type byte (3), followed by the page number
+ * of the container of each chunk of its key's bitmap in turn, 0 for a
+ * chunk with no position set.
+ * <p/>
+ * A container holds the positions [c * chunkBits(), (c + 1) * chunkBits())
+ * of chunk c.  It starts with a type byte and the number of positions
+ * set.  A sparse container (type 0) then lists the offsets of the set
+ * positions within the chunk, as sorted 2-byte chars; a dense one (type 1)
+ * has a bitmap of the chunk, as longs.  An all-zero page is therefore an
+ * empty container.
+ *
+ * @see BitmapFile
+ */
+public class BitmapPage implements Page {
+
+    static final byte ARRAY = 0;
+    static final byte BITMAP = 1;
+    static final byte DIRECTORY = 2;
+    static final byte TABLE = 3;
+    static final int HEADER_SIZE = 5;
+
+    final FilePageId pid;
+    private final Type keyType;
+
+    private byte type;  //DIRECTORY, TABLE, or ARRAY for any container
+    // the directory only
+    private final ArrayList<Field> keys = new ArrayList<Field>();
+    private final ArrayList<Integer> tables = new ArrayList<Integer>();
+    // chunk tables only
+    private int[] chunks;
+    // containers only
+    private BitSet bits;
+    private int count;
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    byte[] oldData;     // the before image; null while it is the page as it is now
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a BitmapPage from a set of bytes of data read from disk, in the
+     * format described above.
+     */
+    public BitmapPage(FilePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        BitmapFile file = (BitmapFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.keyType = file.getKeyType();
+
+        ByteBuffer page = ByteBuffer.wrap(data);
+        byte t = page.get();
+        if (id.pageNumber() == 0) {
+            if (t != DIRECTORY && t != 0)
+                throw new IOException("bad page type " + t + " on " + id);
+            type = DIRECTORY;
+            int n = page.getInt();
+            if (n < 0 || n > getMaxKeys())
+                throw new IOException("bad key count " + n + " on " + id);
+            for (int i = 0; i < n; i++) {
+                int offset = page.position();
+                keys.add(keyType.parse(data, offset));
+                page.position(offset + keyType.getLen());
+                tables.add(page.getInt());
+            }
+        } else if (t == TABLE) {
+            type = TABLE;
+            chunks = new int[maxChunks()];
+            for (int i = 0; i < chunks.length; i++)
+                chunks[i] = page.getInt();
+        } else if (t == ARRAY || t == BITMAP) {
+            type = ARRAY;
+            bits = new BitSet(chunkBits());
+            count = page.getInt();
+            if (count < 0 || count > (t == ARRAY ? maxArray() : chunkBits()))
+                throw new IOException("bad position count " + count + " on " + id);
+            if (t == ARRAY) {
+                for (int i = 0; i < count; i++)
+                    bits.set(page.getChar());
+            } else {
+                for (int w = 0; w < chunkBits() / 64; w++) {
+                    long word = page.getLong();
+                    while (word != 0) {
+                        bits.set(w * 64 + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            }
+        } else {
+            throw new IOException("bad page type " + t + " on " + id);
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of positions in a chunk: as many as a dense
+     * container has room for, but no more than a 2-byte offset can address
+     */
+    static int chunkBits() {
+        return Math.min(1 << 16, (BufferPool.getPageSize() - HEADER_SIZE) / 8 * 64);
+    }
+
+    /**
+     * @return the most positions a sparse container can list
+     */
+    static int maxArray() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 2;
+    }
+
+    /**
+     * @return the most chunks a chunk table can list
+     */
+    static int maxChunks() {
+        return (BufferPool.getPageSize() - 1) / 4;
+    }
+
+    /**
+     * @return the most keys the directory can list
+     */
+    public int getMaxKeys() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 4);
+    }
+
+    public FilePageId getId() {
+        return pid;
+    }
+
+    public boolean isDirectory() {
+        return type == DIRECTORY;
+    }
+
+    public int getNumKeys() {
+        return keys.size();
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    /**
+     * @return the page number of the chunk table of the i-th key
+     */
+    public int getTable(int i) {
+        return tables.get(i);
+    }
+
+    /**
+     * @return the position of key in the directory, or -1 if it is not
+     * there
+     */
+    public int indexOf(Field key) {
+        return keys.indexOf(key);
+    }
+
+    void addKey(Field key, int table) {
+        captureBeforeImage();
+        keys.add(key);
+        tables.add(table);
+    }
+
+    /**
+     * Turn a new, empty page into a chunk table with no chunks.
+     */
+    void makeTable() {
+        captureBeforeImage();
+        type = TABLE;
+        chunks = new int[maxChunks()];
+        bits = null;
+    }
+
+    /**
+     * @return the page number of the container of chunk c, or 0 if no
+     * position in it is set
+     */
+    public int getChunk(int c) {
+        return chunks[c];
+    }
+
+    void setChunk(int c, int pageNo) {
+        captureBeforeImage();
+        chunks[c] = pageNo;
+    }
+
+    /**
+     * @return the number of positions set in this container
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the first offset at or after from set in this container, or
+     * -1 if there is none
+     */
+    public int nextSetBit(int from) {
+        return bits.nextSetBit(from);
+    }
+
+    /**
+     * Set an offset in this container.
+     *
+     * @return false if it was already set
+     */
+    boolean set(int offset) {
+        if (bits.get(offset))
+            return false;
+        captureBeforeImage();
+        bits.set(offset);
+        count++;
+        return true;
+    }
+
+    /**
+     * Clear an offset in this container.
+     *
+     * @return false if it was not set
+     */
+    boolean clear(int offset) {
+        if (!bits.get(offset))
+            return false;
+        captureBeforeImage();
+        bits.clear(offset);
+        count--;
+        return true;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public BitmapPage getBeforeImage() {
+        try {
+            return new BitmapPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData != null ? oldData : getPageData();
+        }
+    }
+
+    /**
+     * The page as it is now becomes the before image.  It is only saved
+     * when the page next changes; see captureBeforeImage.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format described above.  A container is written sparse while its
+     * positions fit in the page as a list.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        if (type == DIRECTORY) {
+            page.put(DIRECTORY);
+            page.putInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                int offset = page.position();
+                keys.get(i).serialize(page);
+                page.position(offset + keyType.getLen());
+                page.putInt(tables.get(i));
+            }
+        } else if (type == TABLE) {
+            page.put(TABLE);
+            for (int c : chunks)
+                page.putInt(c);
+        } else if (count <= maxArray()) {
+            page.put(ARRAY);
+            page.putInt(count);
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+                page.putChar((char) i);
+        } else {
+            page.put(BITMAP);
+            page.putInt(count);
+            long[] words = new long[chunkBits() / 64];
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+                words[i >>> 6] |= 1L << i;
+            for (long w : words)
+                page.putLong(w);
+        }
+        return data;
+    }
+
+    public ByteBuffer getPageDataBuffer() {
+        return ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan is an access method that reads the tuples of a table
+ * satisfying every one (or any one) of several predicates, each on a field
+ * with a BitmapFile index.  It looks each predicate up in its index,
+ * combines the Bitmaps found with and (or), and only then reads the
+ * tuples, so pages with no qualifying tuple are never read.
+ *
+ * @see BitmapFile#lookup
+ */
+public class BitmapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableid;
+    private String ta;
+    private Predicate[] predicates;
+    private BitmapFile[] indexes;   //the index of the field of each predicate
+    private boolean any;
+    private DbFileIterator dbi;
+
+    /**
+     * Creates a bitmap scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan
+     * @param tableAlias the alias of this table (see SeqScan)
+     * @param predicates the predicates to satisfy, each on a field of the
+     *                   table with a BitmapFile index
+     * @param any        true to return the tuples satisfying any predicate
+     *                   rather than all of them
+     * @throws IllegalArgumentException if a predicate's field has no
+     *                                  bitmap index
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias,
+                      Predicate[] predicates, boolean any) {
+        if (predicates.length == 0)
+            throw new IllegalArgumentException("BitmapScan needs a predicate");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.ta = tableAlias;
+        this.predicates = predicates;
+        this.any = any;
+        this.indexes = new BitmapFile[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            for (IndexFile index : Database.getCatalog().getIndexes(tableid)) {
+                if (index instanceof BitmapFile && index.getKeyField() == predicates[i].getField())
+                    indexes[i] = (BitmapFile) index;
+            }
+            if (indexes[i] == null)
+                throw new IllegalArgumentException("no bitmap index on field " + predicates[i].getField());
+        }
+    }
+
+    public BitmapScan(TransactionId tid, int tableid, Predicate[] predicates, boolean any) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid), predicates, any);
+    }
+
+    /**
+     * @return the name of the scanned table in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return Return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return ta;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        Bitmap rows = null;
+        for (int i = 0; i < predicates.length; i++) {
+            Bitmap r = indexes[i].lookup(tid, predicates[i].getOp(), predicates[i].getOperand());
+            if (rows == null)
+                rows = r;
+            else
+                rows = any ? rows.or(r) : rows.and(r);
+        }
+        dbi = indexes[0].iterator(tid, rows);
+        dbi.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the scanned table, with field names prefixed
+     * with the tableAlias string from the constructor, as SeqScan does.
+     */
+    public TupleDesc getTupleDesc() {
+        return new SeqScan(tid, tableid, ta).getTupleDesc();
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (dbi == null)	//not opened
+            return false;
+
+        return dbi.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (dbi == null)
+            throw new NoSuchElementException("dbi not opened for next");
+
+        return dbi.next();
+    }
+
+    public void close() {
+        if (dbi != null)
+            dbi.close();
+        dbi = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
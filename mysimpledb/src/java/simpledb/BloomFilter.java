@@ -0,0 +1,78 @@
+package simpledb;
+
+/**
+ * BloomFilter is a compact summary of a set of Fields that can answer
+ * "might this field be in the set?" with no false negatives and a small
+ * rate of false positives.  HashEquiJoin builds one on its build-side keys
+ * and hands it to the scans on its probe side (see SeqScan#addBloomFilter),
+ * so probe tuples that cannot join are dropped as soon as they are read.
+ * <p/>
+ * The filter has BITS_PER_KEY bits for each key it is sized for, and sets
+ * HASHES of them for each key it holds, the positions coming from two
+ * hashes of the field's hashCode combined as h1 + i*h2.
+ */
+public class BloomFilter {
+
+    /**
+     * Bits per key; with HASHES hashes this gives about 1% false positives.
+     */
+    public static final int BITS_PER_KEY = 10;
+    public static final int HASHES = 7;
+
+    private final long[] bits;
+    private final int nbits;
+
+    /**
+     * Create an empty filter sized for the given number of keys.
+     */
+    public BloomFilter(int keys) {
+        nbits = Math.max(64, keys * BITS_PER_KEY);
+        bits = new long[(nbits + 63) / 64];
+    }
+
+    /**
+     * @return the expected rate of false positives of a filter holding as
+     * many keys as it was sized for
+     */
+    public static double falsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) HASHES / BITS_PER_KEY), HASHES);
+    }
+
+    // a second, independent hash of h; the final step of MurmurHash3
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private int position(int h1, int h2, int i) {
+        int h = h1 + i * h2;
+        return (h & Integer.MAX_VALUE) % nbits;
+    }
+
+    public void add(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int b = position(h1, h2, i);
+            bits[b >>> 6] |= 1L << b;
+        }
+    }
+
+    /**
+     * @return false if f was certainly never added, true if it may have been
+     */
+    public boolean mightContain(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int b = position(h1, h2, i);
+            if ((bits[b >>> 6] & (1L << b)) == 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -2,13 +2,18 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Set;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -18,6 +23,16 @@ import java.util.Queue;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p/>
+ * Pages are managed with a STEAL / NO-FORCE policy.  At commit only log
+ * records are written (see flushPages); the pages stay dirty in the pool
+ * until they are evicted or flushed.  When every page is dirty, eviction
+ * steals one: its changes are logged and the log is forced before the
+ * page is written, so an abort can still undo it from the log.
+ * <p/>
+ * Behind the pool there can be a second, compressed tier (see
+ * setCompressedTierSize) that holds clean pages evicted from the pool in
+ * compressed form, so more of the working set stays in memory.
  *
  * @Threadsafe, all fields are final
  */
@@ -40,6 +55,36 @@ public class BufferPool {
     private HashMap<PageId, Long> times;	//use a HashMap to keep track of access times	
     private int numPages;	//cache's size
     
+    // dirty page table: pid -> recLSN, the end of the log when the page
+    // became dirty.  No log record at or after the recLSN for that page
+    // has reached the page's file yet; used for fuzzy checkpoints.
+    private HashMap<PageId, Long> dirtyPages;
+    
+    /**
+     * Default fraction of the pool the background writer keeps clean.
+     */
+    public static final double DEFAULT_CLEAN_RATIO = 0.25;
+    
+    private BackgroundWriter writer;
+    // the error that stopped the background writer, until a flush reports it
+    private IOException writerFailure;
+    private double targetCleanRatio = DEFAULT_CLEAN_RATIO;
+    // lock owner used by the writer while it writes a page
+    private final TransactionId writerTid = new TransactionId();
+    
+    // number of pages written back so far; lets read-ahead detect that a
+    // page it read may have been overwritten (see installPrefetchedPage)
+    private long pageWrites;
+    
+    // compressed tier: deflated images of clean pages evicted from the
+    // pool, least recently used first, while they fit in compressedTierSize
+    // bytes.  A page is in the pool or in the tier, never in both.
+    private final LinkedHashMap<PageId, CompressedPage> compressedTier =
+    		new LinkedHashMap<PageId, CompressedPage>(16, 0.75f, true);
+    private long compressedTierSize;	//0 when the tier is off
+    private long compressedTierBytes;
+    private long compressedTierHits;
+    
     private LockManager lm;
 
     /**
@@ -50,6 +95,7 @@ public class BufferPool {
     public BufferPool(int numPages) {
     	cache = new HashMap<PageId, Page>();
     	times = new HashMap<PageId, Long>();
+    	dirtyPages = new HashMap<PageId, Long>();
     	this.numPages = numPages;
     	
     	lm = new LockManager();
@@ -100,11 +146,14 @@ public class BufferPool {
     	lm.acquireLock(pid, tid, perm);
     	
     	// if the requested page is already cached
-    	if (cache.containsKey(pid)){
-    		synchronized (this.times){
-    			updateTime(pid);
+    	synchronized (this.cache){
+    		Page cached = cache.get(pid);
+    		if (cached != null){
+    			synchronized (this.times){
+    				updateTime(pid);
+    			}
+    			return cached;
     		}
-    		return cache.get(pid);
     	}
     	
     	// if the cache is full, evictPage
@@ -114,9 +163,12 @@ public class BufferPool {
     		//}
     	}
     	
-    	// read the page, and put it in the cache
+    	// read the page, from the compressed tier if it is there, and put it
+    	// in the cache
     	int tableId = pid.getTableId();
-    	Page toReturn = Database.getCatalog().getDatabaseFile(tableId).readPage(pid);
+    	Page toReturn = takeFromCompressedTier(pid);
+    	if (toReturn == null)
+    		toReturn = Database.getCatalog().getDatabaseFile(tableId).readPage(pid);
     	synchronized (this.cache){
     		cache.put(pid, toReturn);
     		synchronized (this.times){
@@ -128,6 +180,23 @@ public class BufferPool {
     }
     
 
+    /**
+     * Like getPage, but returns null rather than wait if the lock cannot be
+     * granted at once.  For a change that can be put off, such as a
+     * HashFile split, so that two transactions upgrading the same shared
+     * lock do not wait on each other.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page tryGetPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException{
+    	if (!lm.tryAcquireLock(pid, tid, perm))
+    		return null;
+    	return getPage(tid, pid, perm);
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -160,32 +229,74 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p/>
+     * On commit no pages are written (NO-FORCE): any changes the
+     * transaction has not logged yet are logged and the log is forced.
+     * On abort each page the transaction dirtied is put back as it was
+     * before the transaction changed it, from its before image.  The page
+     * stays in the pool and in the dirty page table, since it may still
+     * hold committed changes that are not on disk yet.  Pages it had stolen
+     * to disk are restored by the log's rollback.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
-    	//HashSet<PageId> completed = new HashSet<PageId>();
-    	for (PageId pid: cache.keySet()){
-    		Page p = cache.get(pid);
-    		
-    		if (commit && holdsLock(tid, pid)){
-    			p.setBeforeImage();
+    	synchronized (this){
+    		if (commit){
+    			// a no-op after Transaction.commit, which logged its pages already
+    			flushPages(tid);
+    			Database.getLogFile().force();
     		}
-    		
-    		TransactionId dirtier = p.isDirty();
-    		if (dirtier != null && dirtier.equals(tid)){
+    		//a tid that never logged BEGIN has no COMMIT or ABORT record to
+    		//end it; on abort this also rolls back the pages it had stolen
+    		Database.getLogFile().bareTransactionComplete(tid, commit);
+
+    		for (PageId pid: new ArrayList<PageId>(cache.keySet())){
+    			Page p = cache.get(pid);
+    			
     			if (commit){
-        			flushPage(pid);
-        		} else {
-        			discardPage(pid);
-        		}
+    				if (holdsLock(tid, pid)){
+    					p.setBeforeImage();
+    				}
+    			} else {
+    				TransactionId dirtier = p.isDirty();
+    				if (dirtier != null && dirtier.equals(tid)){
+    					restorePage(p);
+    				}
+    			}
     		}
     	}
+    	
+    	//hash indexes count their entries in memory, and keep only the
+    	//changes of transactions that commit
+    	for (int tableId: lm.getLockedTables(tid)){
+    		DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+    		if (file instanceof HashFile)
+    			((HashFile) file).transactionComplete(tid, commit);
+    	}
     	lm.releaseAllLocks(tid);
     }
 
+    /**
+     * Undo an aborted transaction's changes to a cached page by replacing it
+     * with its before image, the page as the transaction found it.  The
+     * page's recLSN is kept: the before image can hold committed changes
+     * that have not reached the page's file.
+     */
+    private synchronized void restorePage(Page p) throws IOException {
+    	Page restored = p.getBeforeImage();
+    	synchronized (this.cache){
+    		cache.put(p.getId(), restored);
+    	}
+    	
+    	//an aborted insert may have left the page marked full
+    	DbFile file = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
+    	if (file instanceof HeapFile)
+    		((HeapFile) file).pageRestored(restored);
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other
@@ -208,11 +319,22 @@ public class BufferPool {
         DbFile table = Database.getCatalog().getDatabaseFile(tableId);
                 
         //HeapFile.insertTuple calls getPage, which updates the access time
-        ArrayList<Page> pages = table.insertTuple(tid, t);
+        cacheDirtyPages(tid, table.insertTuple(tid, t));
         
+        //t now has its RecordId, so the table's indexes can point at it
+        for (IndexFile index: Database.getCatalog().getIndexes(tableId)){
+        	cacheDirtyPages(tid, index.insertTuple(tid, t));
+        }
+    }
+
+    /**
+     * Mark the pages an insert or delete changed as dirty, and keep them in
+     * the cache so that future requests see up-to-date pages.
+     */
+    private void cacheDirtyPages(TransactionId tid, ArrayList<Page> pages) throws IOException {
         for (Page pg: pages){
 	        //markDirty that page
-	        pg.markDirty(true, tid);
+	        markDirty(pg, tid);
 	        
 	        //update cache
 	        synchronized (this.cache){
@@ -242,25 +364,41 @@ public class BufferPool {
     	PageId pid = t.getRecordId().getPageId();
     	DbFile table =  Database.getCatalog().getDatabaseFile(pid.getTableId());
     	
-    	//there should only be one page in the ArrayList
-    	//HeapFile.deleteTuple calls getPage, which updates the access time
-    	Page pg = table.deleteTuple(tid, t).get(0);
+    	//remove the index entries first, while t still has its RecordId
+    	for (IndexFile index: Database.getCatalog().getIndexes(pid.getTableId())){
+    		cacheDirtyPages(tid, index.deleteTuple(tid, t));
+    	}
     	
-    	//markDirty that page
+    	//HeapFile.deleteTuple calls getPage, which updates the access time
+    	cacheDirtyPages(tid, table.deleteTuple(tid, t));
+    }
+
+    /**
+     * Mark a page dirty on behalf of tid.  If the page was clean, the
+     * current end of the log becomes its recLSN in the dirty page table.
+     */
+    private synchronized void markDirty(Page pg, TransactionId tid) throws IOException {
     	pg.markDirty(true, tid);
-    	
-    	//update the cache
-    	synchronized (this.cache){
-    		cache.put(pid, pg);
+    	if (!dirtyPages.containsKey(pg.getId())){
+    		dirtyPages.put(pg.getId(), Database.getLogFile().getCurrentOffset());
     	}
     }
 
+    /**
+     * Return a copy of the dirty page table, mapping each dirty page to its
+     * recLSN.  Recorded by LogFile.logCheckpoint.
+     */
+    public synchronized Map<PageId, Long> getDirtyPageTable() {
+    	return new HashMap<PageId, Long>(dirtyPages);
+    }
+
     /**
      * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     * break simpledb if running in NO STEAL mode.
+     * Uncommitted changes are logged first, so they can still be rolled
+     * back (see flushPage).
      */
     public synchronized void flushAllPages() throws IOException {
+    	checkWriterFailure();
     	//pass every pid into flushPage
     	//check dirty done in flushPage
     	for (PageId pid: cache.keySet()){
@@ -277,6 +415,24 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
     	cache.remove(pid);
     	times.remove(pid);
+    	dirtyPages.remove(pid);
+    	removeFromCompressedTier(pid);
+    }
+
+    /**
+     * Write a page straight to its file in place of whatever copy the pool
+     * has, which is discarded.  Used by rollback and recovery to restore
+     * pages on disk.  Counts as a page write, so that a read-ahead that
+     * read the old image from disk cannot install it afterwards (see
+     * installPrefetchedPage).
+     *
+     * @param page the page to write
+     */
+    public synchronized void replacePageOnDisk(Page page) throws IOException {
+    	PageId pid = page.getId();
+    	discardPage(pid);
+    	Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+    	pageWrites++;
     }
 
     /**
@@ -294,27 +450,291 @@ public class BufferPool {
         
         TransactionId dirtier = pageToFlush.isDirty();
         
-        //check if dirty
+        //log changes that are not in the log yet
         if (dirtier != null){
+            Database.getLogFile().logWrite(dirtier, pageToFlush.getBeforeImageData(), pageToFlush);
+        }
+        
+        //check if dirty, either uncommitted or committed but not yet on disk
+        if (dirtier != null || dirtyPages.containsKey(pid)){
             DbFile table = Database.getCatalog().getDatabaseFile(pid.getTableId());
             
-            Database.getLogFile().logWrite(dirtier, pageToFlush.getBeforeImage(), pageToFlush);
+            //write-ahead logging: the page's log records go to disk first
             Database.getLogFile().force();
             
             //flush the page to disk
             table.writePage(pageToFlush);
+            pageWrites++;
             
           //mark the page as not dirty
             pageToFlush.markDirty(false, null);
         }
+        dirtyPages.remove(pid);
+    }
+
+    /**
+     * @return the number of pages this pool has written back so far
+     */
+    public synchronized long getPageWriteCount() {
+    	return pageWrites;
+    }
+    
+    /**
+     * Add a page read ahead of time to the pool, without taking any lock.
+     * The page is only added if it is not cached already, and if no page
+     * has been written back or restored since pageWrites was read (the copy
+     * read from disk could be older than one just evicted, or than the
+     * image a rollback wrote in its place).  When the pool is full
+     * the least recently used clean page is evicted to make room; dirty
+     * pages are never written to make room for read-ahead.
+     *
+     * @param page       the page, freshly read from disk
+     * @param pageWrites getPageWriteCount() from before the page was read
+     * @return true if the page was added
+     */
+    public synchronized boolean installPrefetchedPage(Page page, long pageWrites) {
+    	if (pageWrites != this.pageWrites)
+    		return false;
+    	synchronized (this.cache){
+    		if (cache.containsKey(page.getId()))
+    			return false;
+    		if (cache.size() >= numPages && !evictCleanPage())
+    			return false;
+    		removeFromCompressedTier(page.getId());
+    		cache.put(page.getId(), page);
+    		synchronized (this.times){
+    			times.put(page.getId(), System.currentTimeMillis());
+    		}
+    	}
+    	return true;
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * Write log records for all pages dirtied by the specified transaction.
+     * Called just before the transaction's COMMIT record, which forces them.
+     * The pages themselves are not written (NO-FORCE): they are no longer
+     * dirty on behalf of tid, but stay in the dirty page table until they
+     * are flushed or evicted.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
-    	// some code goes here
-    	// not necessary for lab1|lab2|lab3|lab4 
+    	checkWriterFailure();
+    	for (PageId pid: cache.keySet()){
+    		Page p = cache.get(pid);
+    		TransactionId dirtier = p.isDirty();
+    		if (dirtier != null && dirtier.equals(tid)){
+    			if (!dirtyPages.containsKey(pid)){	//page marked dirty directly
+    				dirtyPages.put(pid, Database.getLogFile().getCurrentOffset());
+    			}
+    			Database.getLogFile().logWrite(tid, p.getBeforeImageData(), p);
+    			p.markDirty(false, null);
+    		}
+    	}
+    }
+    
+    /**
+     * Flush a dirty page unless a transaction holds a write lock on it.
+     * The writer takes a shared lock on the page for the duration of the
+     * write, so no transaction can modify it while it is being written.
+     *
+     * @return true if the page was written
+     */
+    private synchronized boolean flushIfUnpinned(PageId pid) throws IOException {
+    	// the page may have been flushed, discarded or evicted meanwhile
+    	if (!dirtyPages.containsKey(pid) || !cache.containsKey(pid))
+    		return false;
+    	if (!lm.tryAcquireLock(pid, writerTid, Permissions.READ_ONLY))
+    		return false;
+    	try {
+    		flushPage(pid);
+    	} finally {
+    		lm.releaseLock(pid, writerTid);
+    	}
+    	return true;
+    }
+
+    /**
+     * Flush up to maxPages dirty pages, oldest recLSN first, so that the
+     * redo point recorded by the next checkpoint moves forward.  Pages
+     * write-locked by a transaction are skipped.
+     *
+     * The BufferPool lock is taken once per page rather than for the whole
+     * batch, so foreground work waits for at most one page write.
+     *
+     * @return the number of pages written
+     */
+    public int flushOldestDirtyPages(int maxPages) throws IOException {
+    	ArrayList<Map.Entry<PageId, Long>> victims =
+    			new ArrayList<Map.Entry<PageId, Long>>(getDirtyPageTable().entrySet());
+    	Collections.sort(victims, new Comparator<Map.Entry<PageId, Long>>() {
+    		public int compare(Map.Entry<PageId, Long> a, Map.Entry<PageId, Long> b) {
+    			return a.getValue().compareTo(b.getValue());
+    		}
+    	});
+    	
+    	int written = 0;
+    	for (Map.Entry<PageId, Long> victim : victims){
+    		if (written >= maxPages)
+    			break;
+    		if (flushIfUnpinned(victim.getKey()))
+    			written++;
+    	}
+    	return written;
+    }
+
+    /**
+     * Write dirty pages that no transaction has write-locked until at least
+     * the target clean ratio of the pool is clean, or maxPages pages have
+     * been written.  Pages are written in page-number order within each
+     * file, so the writes are mostly sequential.
+     *
+     * @return the number of pages written
+     * @see #setTargetCleanRatio
+     */
+    public int cleanPages(int maxPages) throws IOException {
+    	ArrayList<PageId> candidates;
+    	synchronized (this){
+    		int allowedDirty = (int) Math.floor((1 - targetCleanRatio) * numPages);
+    		maxPages = Math.min(maxPages, dirtyPages.size() - allowedDirty);
+    		if (maxPages <= 0)
+    			return 0;
+    		candidates = new ArrayList<PageId>(dirtyPages.keySet());
+    	}
+    	Collections.sort(candidates, new Comparator<PageId>() {
+    		public int compare(PageId a, PageId b) {
+    			if (a.getTableId() != b.getTableId())
+    				return a.getTableId() < b.getTableId() ? -1 : 1;
+    			return a.pageNumber() - b.pageNumber();
+    		}
+    	});
+    	
+    	int written = 0;
+    	for (PageId pid : candidates){
+    		if (written >= maxPages)
+    			break;
+    		if (flushIfUnpinned(pid))
+    			written++;
+    	}
+    	return written;
+    }
+
+    /**
+     * Set the fraction of the pool the background writer tries to keep
+     * clean, so that eviction rarely has to write a page itself.
+     *
+     * @param ratio a value between 0 and 1
+     */
+    public synchronized void setTargetCleanRatio(double ratio) {
+    	if (ratio < 0 || ratio > 1)
+    		throw new IllegalArgumentException("clean ratio must be between 0 and 1");
+    	this.targetCleanRatio = ratio;
+    }
+
+    public synchronized double getTargetCleanRatio() {
+    	return targetCleanRatio;
+    }
+
+    /**
+     * @return the fraction of the pool's capacity that is not taken up by
+     * dirty pages
+     */
+    public synchronized double getCleanRatio() {
+    	return 1 - (double) dirtyPages.size() / numPages;
+    }
+
+    /**
+     * Start a background thread that, every intervalMillis milliseconds,
+     * cleans pages until the target clean ratio is met (see cleanPages) and
+     * otherwise trickles out the pages with the oldest recLSN (see
+     * flushOldestDirtyPages).  The writer is off by default; at most one
+     * writer runs per BufferPool.
+     *
+     * @param intervalMillis time to sleep between rounds
+     * @param pagesPerRound  maximum number of pages written per round
+     */
+    public synchronized void startBackgroundWriter(long intervalMillis, int pagesPerRound) {
+    	stopBackgroundWriter();
+    	writer = new BackgroundWriter(intervalMillis, pagesPerRound);
+    	writer.start();
+    }
+
+    /**
+     * Throw the error that stopped the background writer, if it has not been
+     * reported yet.  Called by the flushes, so that a failed write is
+     * surfaced to a caller instead of being lost in the writer's thread.
+     */
+    private synchronized void checkWriterFailure() throws IOException {
+    	if (writerFailure != null){
+    		IOException e = new IOException("background writer stopped: " + writerFailure.getMessage());
+    		e.initCause(writerFailure);
+    		writerFailure = null;
+    		throw e;
+    	}
+    }
+
+    /**
+     * Stop the background writer, if one is running.
+     */
+    public synchronized void stopBackgroundWriter() {
+    	if (writer != null){
+    		writer.shutdown();
+    		writer = null;
+    	}
+    }
+
+    /**
+     * Daemon thread that keeps part of the pool clean for eviction and
+     * trickles dirty pages out to disk between checkpoints.  It exits once
+     * its BufferPool is no longer the one installed in Database (e.g. after
+     * Database.reset()), or after a write fails; the next flushAllPages or
+     * flushPages then throws the error.
+     *
+     * It is woken with notify rather than interrupt, since interrupting a
+     * thread in the middle of channel I/O closes the channel.
+     */
+    private class BackgroundWriter extends Thread {
+    	private final long intervalMillis;
+    	private final int pagesPerRound;
+    	private final Object wakeup = new Object();
+    	private volatile boolean running = true;
+    	
+    	BackgroundWriter(long intervalMillis, int pagesPerRound){
+    		super("BufferPool-writer");
+    		setDaemon(true);
+    		this.intervalMillis = intervalMillis;
+    		this.pagesPerRound = pagesPerRound;
+    	}
+    	
+    	void wake(){
+    		synchronized (wakeup){
+    			wakeup.notifyAll();
+    		}
+    	}
+    	
+    	void shutdown(){
+    		running = false;
+    		wake();
+    	}
+    	
+    	public void run(){
+    		while (running && Database.getBufferPool() == BufferPool.this){
+    			try {
+    				if (cleanPages(pagesPerRound) == 0)
+    					flushOldestDirtyPages(pagesPerRound);
+    			} catch (IOException e){
+    				synchronized (BufferPool.this){
+    					writerFailure = e;
+    					if (writer == this)
+    						writer = null;
+    				}
+    				return;
+    			}
+    			synchronized (wakeup){
+    				try {
+    					wakeup.wait(intervalMillis);
+    				} catch (InterruptedException ignored) {}
+    			}
+    		}
+    	}
     }
     
     /**
@@ -341,35 +761,167 @@ public class BufferPool {
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool, least recently used first.
+     * Clean pages are preferred.  If every page is dirty, the least recently
+     * used one is stolen: flushPage logs its changes and forces the log
+     * before writing it to disk.
      */
     private synchronized void evictPage() throws DbException {	
+    	if (evictCleanPage())
+    		return;
+    	
+    	TimedPage dirtyVictim = null;
+    	for (PageId pid: times.keySet()){
+    		TimedPage p = new TimedPage(pid, times.get(pid));
+    		if (dirtyVictim == null || p.compareTo(dirtyVictim) < 0){
+    			dirtyVictim = p;
+    		}
+    	}
+    	
+    	if (dirtyVictim == null)
+    		throw new DbException("no page in the bufferpool to evict!");
+    	
+    	//every page is dirty, steal the least recently used one, and let
+    	//the background writer know it is falling behind
+    	if (writer != null)
+    		writer.wake();
+    	try{
+    		flushPage(dirtyVictim.pid);
+    	}
+    	catch (IOException e){
+    		throw new DbException("could not write page " + dirtyVictim.pid + " for eviction: " + e.getMessage());
+    	}
+    	addToCompressedTier(cache.remove(dirtyVictim.pid));
+    	times.remove(dirtyVictim.pid);
+    }
+    
+    /**
+     * Discard the least recently used clean page, if there is one.
+     *
+     * @return true if a page was discarded
+     */
+    private synchronized boolean evictCleanPage() {
     	PriorityQueue<TimedPage> pq = new PriorityQueue<TimedPage>();
     	for (PageId pid: times.keySet()){
     		TimedPage tp = new TimedPage(pid, times.get(pid));
     		pq.offer(tp);
     	}
-    	    	
+    	
     	while (pq.size() > 0){
     		TimedPage p = pq.poll();
-    		if (cache.get(p.pid).isDirty() == null){	//clean page
-    			//flush the page
-    	    	try{
-    	    		flushPage(p.pid);
-    	    	}
-    	    	catch (IOException e){
-    	    		e.printStackTrace();
-    	    	}
-    	    	 	
+    		if (cache.get(p.pid).isDirty() == null && !dirtyPages.containsKey(p.pid)){	//clean page
     	    	//remove from cache
-    	    	cache.remove(p.pid);
-    	    	times.remove(p.pid);
-    	    	return;
+    			synchronized (this.cache){
+    				addToCompressedTier(cache.remove(p.pid));
+    				times.remove(p.pid);
+    			}
+    	    	return true;
     		}
     	}
+    	return false;
+    }
+    
+    /**
+     * A page in the compressed tier: its class, to rebuild it with, and the
+     * deflated image of its data.
+     */
+    private static class CompressedPage {
+    	final String pageClass;
+    	final byte[] image;
     	
-    	throw new DbException("all pages in the bufferpool are dirty!");
+    	CompressedPage(String pageClass, byte[] image){
+    		this.pageClass = pageClass;
+    		this.image = image;
+    	}
+    }
+    
+    /**
+     * Sets the number of bytes of compressed pages the compressed tier may
+     * hold, evicting the least recently used ones if it holds more.  0, the
+     * default, turns the tier off.
+     * <p/>
+     * Pages evicted clean from the pool are compressed (see PageCompressor)
+     * into the tier, and a miss in the pool that finds its page there
+     * inflates it rather than reading it from disk.  Since the tier only
+     * holds clean pages it never writes anything back; pages are simply
+     * dropped when it is full.  Pages that compress poorly take tier space
+     * but still save a read.
+     */
+    public synchronized void setCompressedTierSize(long bytes) {
+    	if (bytes < 0)
+    		throw new IllegalArgumentException("compressed tier size must not be negative");
+    	compressedTierSize = bytes;
+    	trimCompressedTier();
+    }
+    
+    public synchronized long getCompressedTierSize() {
+    	return compressedTierSize;
+    }
+    
+    /**
+     * @return the number of bytes of compressed pages in the tier now
+     */
+    public synchronized long getCompressedTierBytes() {
+    	return compressedTierBytes;
+    }
+    
+    /**
+     * @return the number of pool misses served from the compressed tier
+     */
+    public synchronized long getCompressedTierHits() {
+    	return compressedTierHits;
+    }
+    
+    /**
+     * Keep a clean page just evicted from the pool in the compressed tier,
+     * if the tier is on.
+     */
+    private synchronized void addToCompressedTier(Page page) {
+    	if (compressedTierSize == 0 || page == null)
+    		return;
+    	byte[] image = PageCompressor.compress(page.getPageDataBuffer());
+    	removeFromCompressedTier(page.getId());
+    	compressedTier.put(page.getId(), new CompressedPage(page.getClass().getName(), image));
+    	compressedTierBytes += image.length;
+    	trimCompressedTier();
+    }
+    
+    private synchronized void removeFromCompressedTier(PageId pid) {
+    	CompressedPage cp = compressedTier.remove(pid);
+    	if (cp != null)
+    		compressedTierBytes -= cp.image.length;
+    }
+    
+    // drop the least recently used pages until the tier fits its size
+    private synchronized void trimCompressedTier() {
+    	Iterator<CompressedPage> it = compressedTier.values().iterator();
+    	while (compressedTierBytes > compressedTierSize && it.hasNext()){
+    		compressedTierBytes -= it.next().image.length;
+    		it.remove();
+    	}
+    }
+    
+    /**
+     * Take a page out of the compressed tier and rebuild it.
+     *
+     * @return the page, or null if it is not in the tier
+     */
+    private synchronized Page takeFromCompressedTier(PageId pid) {
+    	CompressedPage cp = compressedTier.get(pid);
+    	if (cp == null)
+    		return null;
+    	removeFromCompressedTier(pid);
+    	try{
+    		byte[] data = new byte[getPageSize()];
+    		PageCompressor.decompress(cp.image, 0, cp.image.length, data);
+    		Page page = LogFile.newPage(cp.pageClass, pid, data);
+    		compressedTierHits++;
+    		return page;
+    	}
+    	catch (IOException e){
+    		//read it from disk instead
+    		return null;
+    	}
     }
     
     static class LockManager{
@@ -548,6 +1100,23 @@ public class BufferPool {
     		}
     	}
     	
+    	/**
+    	 * @return the ids of the tables (and indexes) whose pages the specified
+    	 * transaction holds a lock on
+    	 */
+    	public synchronized Set<Integer> getLockedTables(TransactionId tid){
+    		HashSet<Integer> rv = new HashSet<Integer>();
+    		for (Map.Entry<PageId, TransactionId> e: xlocks.entrySet()){
+    			if (e.getValue().equals(tid))
+    				rv.add(e.getKey().getTableId());
+    		}
+    		for (Map.Entry<PageId, HashSet<TransactionId>> e: slocks.entrySet()){
+    			if (e.getValue().contains(tid))
+    				rv.add(e.getKey().getTableId());
+    		}
+    		return rv;
+    	}
+    	
     	/**
     	 * A transaction specified by its tid tries to unlock a page specified by its pid.
     	 * @param pid
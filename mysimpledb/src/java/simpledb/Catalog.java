@@ -43,6 +43,8 @@ public class Catalog {
 	}
 	
 	private HashMap<Integer, Table> hm;
+	private HashMap<Integer, IndexFile> indexes;	//index id -> index
+	private HashMap<Integer, HeapFile> dictionaries;	//id -> the values of a StringDictionary
 	
 	/**
      * Constructor.
@@ -50,6 +52,8 @@ public class Catalog {
      */
     public Catalog() {
     	hm = new HashMap<Integer, Table>();
+    	indexes = new HashMap<Integer, IndexFile>();
+    	dictionaries = new HashMap<Integer, HeapFile>();
     }
 
     /**
@@ -80,6 +84,12 @@ public class Catalog {
         
         hm.put(key, value);
         
+        //the pages of the table's dictionaries are found through getDatabaseFile too
+        if (file instanceof HeapFile){
+        	for (StringDictionary d: ((HeapFile) file).getDictionaries())
+        		dictionaries.put(d.getFile().getId(), d.getFile());
+        }
+        
         
         
     }
@@ -100,6 +110,61 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add an index (a BTreeFile or a HashFile) on a table already in the
+     * catalog.  From now on the BufferPool keeps it up to date as tuples
+     * are inserted into and deleted from the table.  Its pages are found
+     * through getDatabaseFile like a table's, but it is not listed by
+     * tableIdIterator.
+     *
+     * @param index the index to add; index.getTableId() names its table
+     * @throws NoSuchElementException if the indexed table doesn't exist
+     * @throws IllegalArgumentException if the table is not a HeapFile,
+     *         whose RecordIds do not change
+     */
+    public void addIndex(IndexFile index) {
+    	if (index == null)
+    		throw new NullPointerException();
+    	if (!hm.containsKey(index.getTableId()))
+    		throw new NoSuchElementException("No table to index");
+    	if (!(hm.get(index.getTableId()).file instanceof HeapFile))
+    		throw new IllegalArgumentException("Only heap files can have secondary indexes");
+    	
+    	indexes.put(index.getId(), index);
+    }
+
+    /**
+     * Returns the indexes on the specified table, possibly none.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+    	ArrayList<IndexFile> rv = new ArrayList<IndexFile>();
+    	for (IndexFile index: indexes.values()){
+    		if (index.getTableId() == tableid)
+    			rv.add(index);
+    	}
+    	return rv;
+    }
+
+    /**
+     * Returns the index on the specified field of a table, or null if
+     * there is none.  A clustered table is its own index on its key.
+     */
+    public IndexFile getIndex(int tableid, int field) {
+    	if (hm.containsKey(tableid) && hm.get(tableid).file instanceof ClusteredFile){
+    		ClusteredFile table = (ClusteredFile) hm.get(tableid).file;
+    		if (table.getKeyField() == field)
+    			return table;
+    	}
+    	for (IndexFile index: indexes.values()){
+    		if (index.getTableId() == tableid && index.getKeyField() == field)
+    			return index;
+    	}
+    	return null;
+    }
+
     /**
      * Return the id of the table with a specified name,
      *
@@ -125,6 +190,12 @@ public class Catalog {
         if (hm.containsKey(tableid)){
         	return hm.get(tableid).file.getTupleDesc();
         }
+        if (indexes.containsKey(tableid)){
+        	return indexes.get(tableid).getTupleDesc();
+        }
+        if (dictionaries.containsKey(tableid)){
+        	return dictionaries.get(tableid).getTupleDesc();
+        }
         
         throw new NoSuchElementException();
     }
@@ -140,6 +211,12 @@ public class Catalog {
     	if (hm.containsKey(tableid)){
     		return hm.get(tableid).file;
     	}
+    	if (indexes.containsKey(tableid)){
+    		return indexes.get(tableid);
+    	}
+    	if (dictionaries.containsKey(tableid)){
+    		return dictionaries.get(tableid);
+    	}
         throw new NoSuchElementException();
     }
 
@@ -171,10 +248,17 @@ public class Catalog {
      */
     public void clear() {
     	hm.clear();
+    	indexes.clear();
+    	dictionaries.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A table is a HeapFile, or a ClusteredFile on its primary key if the word
+     * "clustered" follows its field list, or a ColumnFile if "columnar" does,
+     * or a HeapFile with compressed pages if "compressed" does.
+     * A string field followed by "dict" is dictionary-encoded (see
+     * HeapFile#HeapFile(File, TupleDesc, int[])).
      *
      * @param catalogFile
      */
@@ -185,14 +269,16 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [clustered|columnar|compressed]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String organization = line.substring(line.indexOf(")") + 1).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> dictionaryFields = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -200,15 +286,19 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("dict"))
+                            dictionaryFields.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -216,7 +306,27 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                File tableFile = new File(baseFolder + "/" + name + ".dat");
+                DbFile tabHf;
+                if (organization.equals("clustered")) {
+                    //stored as a B+ tree on the primary key
+                    if (primaryKey.equals("")) {
+                        System.out.println("Clustered table " + name + " has no primary key");
+                        System.exit(0);
+                    }
+                    tabHf = new ClusteredFile(tableFile, t, names.indexOf(primaryKey));
+                } else if (organization.equals("columnar")) {
+                    tabHf = new ColumnFile(tableFile, t);
+                } else if (organization.equals("") || organization.equals("compressed")) {
+                    int[] encoded = new int[dictionaryFields.size()];
+                    for (int i = 0; i < encoded.length; i++)
+                        encoded[i] = dictionaryFields.get(i);
+                    tabHf = new HeapFile(tableFile, t, encoded, organization.equals("compressed"));
+                } else {
+                    System.out.println("Unknown table organization " + organization);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t + (primaryKey.equals("")? "":(" key is " + primaryKey)));
             }
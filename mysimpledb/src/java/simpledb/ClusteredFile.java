@@ -0,0 +1,397 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ClusteredFile stores a table as a B+ tree on one of its fields, the key:
+ * the leaves hold the tuples themselves, in key order, rather than
+ * pointers to them.  A range lookup on the key reads only the leaves that
+ * hold the range, one after another along the sibling links, and a scan of
+ * the whole table returns its tuples sorted by key.
+ * <p/>
+ * Pages are ClusteredPages, read and locked through the BufferPool like a
+ * HeapFile's.  As in BTreeFile, the root is always page 0 and deletes do
+ * not merge pages.  Only tables of fixed-length fields can be clustered.
+ * <p/>
+ * A table is clustered by adding the word "clustered" after its field list
+ * in the catalog file; it is clustered on its primary key.  A table that
+ * is loaded all at once should be built with build(), which packs sorted
+ * tuples into full leaves and writes the tree bottom up, rather than
+ * inserting them one at a time.
+ *
+ * @see ClusteredPage
+ * @see HeapFile
+ */
+public class ClusteredFile extends PageFile<ClusteredPage> implements IndexFile {
+
+    private final TupleDesc td;
+    private final int keyField;
+
+    /**
+     * Constructs a clustered table backed by the specified file.
+     *
+     * @param f        the file that stores the table's pages
+     * @param td       the table's TupleDesc; all of its fields must have a
+     *                 fixed length
+     * @param keyField the index of the field the tuples are ordered by
+     * @throws IllegalArgumentException if td has a VARCHAR_TYPE field
+     */
+    public ClusteredFile(File f, TupleDesc td, int keyField) {
+        super(f);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.VARCHAR_TYPE)
+                throw new IllegalArgumentException("a clustered table cannot have VARCHAR_TYPE fields");
+        }
+        this.td = td;
+        this.keyField = keyField;
+    }
+
+    /**
+     * @return the id of this table, which is its own index
+     */
+    public int getTableId() {
+        return getId();
+    }
+
+    /**
+     * @return the index of the key field in the table's TupleDesc
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    protected ClusteredPage makePage(FilePageId pid, byte[] data) throws IOException {
+        return new ClusteredPage(pid, data, this);
+    }
+
+    /**
+     * @return the number of keys on page that are less than key (or equal
+     * to it, if inclusive)
+     */
+    private static int keyPosition(ClusteredPage page, Field key, boolean inclusive) {
+        int lo = 0, hi = page.getNumEntries();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = BTreeFile.compareKeys(page.getKey(mid), key);
+            if (c < 0 || (inclusive && c == 0))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Descend from the root to a leaf that may hold key, following the
+     * child of each internal page where key goes last (if inclusive) or
+     * first.  Internal pages are locked for reading and the leaf with perm,
+     * so writers to different leaves do not wait for each other.  Fills
+     * path with the internal pages passed, if it is not null, and
+     * childIndexes with the child taken at each.
+     */
+    private ClusteredPage findLeaf(TransactionId tid, Field key, boolean inclusive, Permissions perm,
+                                   List<ClusteredPage> path, List<Integer> childIndexes)
+            throws TransactionAbortedException, DbException {
+        ClusteredPage page = getPage(tid, 0, Permissions.READ_ONLY);
+        if (page.isLeaf())
+            return getPage(tid, 0, perm);
+        while (!page.isLeaf()) {
+            int child = keyPosition(page, key, inclusive);
+            if (path != null) {
+                path.add(page);
+                childIndexes.add(child);
+            }
+            page = getPage(tid, page.getChild(child), page.getLevel() == 1 ? perm : Permissions.READ_ONLY);
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null)
+            throw new NullPointerException();
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc does not match this table");
+
+        Field key = t.getField(keyField);
+        ArrayList<ClusteredPage> path = new ArrayList<ClusteredPage>();
+        ArrayList<Integer> childIndexes = new ArrayList<Integer>();
+        ClusteredPage page = findLeaf(tid, key, true, Permissions.READ_WRITE, path, childIndexes);
+
+        ArrayList<Page> rv = new ArrayList<Page>();
+        page.insertTuple(keyPosition(page, key, true), t);
+        rv.add(page);
+
+        //split full pages on the way back up
+        while (page.getNumEntries() > page.getMaxEntries()) {
+            ClusteredPage parent;
+            int child;
+            if (path.isEmpty()) {
+                //the root: move its contents down a level
+                ClusteredPage below = newPage(tid);
+                page.pushDownInto(below);
+                rv.add(below);
+                parent = page;
+                child = 0;
+                page = below;
+            } else {
+                //upgrade the read lock taken on the way down
+                parent = getPage(tid, path.remove(path.size() - 1).getId().pageNumber(), Permissions.READ_WRITE);
+                child = childIndexes.remove(childIndexes.size() - 1);
+            }
+            ClusteredPage right = newPage(tid);
+            parent.insertSeparator(child, page.splitInto(right), right.getId().pageNumber());
+            rv.add(right);
+            rv.add(parent);
+            page = parent;
+        }
+        return rv;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a tuple with the same field values as t.  Since tuples move
+     * when pages split, t's RecordId may be out of date, so the tuple is
+     * found by its key.
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null)
+            throw new NullPointerException();
+
+        Field key = t.getField(keyField);
+        ClusteredPage page = findLeaf(tid, key, false, Permissions.READ_WRITE, null, null);
+        int i = keyPosition(page, key, false);
+        while (true) {
+            if (i == page.getNumEntries()) {
+                int sibling = page.getRightSibling();
+                if (sibling == 0)
+                    break;
+                page = getPage(tid, sibling, Permissions.READ_WRITE);
+                i = 0;
+                continue;
+            }
+            if (BTreeFile.compareKeys(page.getKey(i), key) != 0)
+                break;
+            if (sameFields(page.getTuple(i), t)) {
+                page.deleteTuple(i);
+                t.setRecordId(null);
+                ArrayList<Page> rv = new ArrayList<Page>();
+                rv.add(page);
+                return rv;
+            }
+            i++;
+        }
+        throw new DbException("Tuple is not in this table");
+    }
+
+    /**
+     * Returns an iterator over all the tuples of the table, in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies
+     * (key op operand), in key order.  See BTreeFile#indexIterator.
+     *
+     * @param tid     the transaction reading the table
+     * @param op      the comparison, or null for every tuple
+     * @param operand the value keys are compared to
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        return new ClusteredIterator(tid, op, operand);
+    }
+
+    /**
+     * Create a clustered table in f from tuples sorted by their key field,
+     * replacing whatever f held.  The leaves are filled completely, in
+     * order from page 1, and each level of internal pages is then written
+     * above the one below it; the top page is written as the root, page 0.
+     * The pages are written straight to f, not through the BufferPool or
+     * the log.
+     *
+     * @param f        the file to store the table in
+     * @param td       the table's TupleDesc
+     * @param keyField the index of the field the tuples are sorted by
+     * @param sorted   the tuples, in nondecreasing key order
+     * @return the new table, which is not added to the catalog
+     * @throws IllegalArgumentException if the tuples are not sorted
+     */
+    public static ClusteredFile build(File f, TupleDesc td, int keyField, Iterator<Tuple> sorted)
+            throws IOException {
+        ClusteredFile file = new ClusteredFile(f, td, keyField);
+        file.getChannel().truncate(0);
+        byte[] empty = BTreePage.createEmptyPageData();
+
+        //the first key and page number of every page on the level being written
+        ArrayList<Field> firstKeys = new ArrayList<Field>();
+        ArrayList<Integer> pageNos = new ArrayList<Integer>();
+
+        ClusteredPage leaf = new ClusteredPage(new FilePageId(file.getId(), 1), empty, file);
+        Field last = null;
+        while (sorted.hasNext()) {
+            Tuple t = sorted.next();
+            Field key = t.getField(keyField);
+            if (last != null && BTreeFile.compareKeys(key, last) < 0)
+                throw new IllegalArgumentException("tuples are not sorted on field " + keyField);
+            last = key;
+
+            if (leaf.getNumEntries() == leaf.getMaxEntries()) {
+                int next = leaf.getId().pageNumber() + 1;
+                leaf.setRightSibling(next);
+                file.writePage(leaf);
+                firstKeys.add(leaf.getKey(0));
+                pageNos.add(leaf.getId().pageNumber());
+                leaf = new ClusteredPage(new FilePageId(file.getId(), next), empty, file);
+            }
+            //copy, rather than take over the caller's tuple and its RecordId
+            Tuple copy = new Tuple(td);
+            for (int i = 0; i < td.numFields(); i++)
+                copy.setField(i, t.getField(i));
+            leaf.appendTuple(copy);
+        }
+
+        if (pageNos.isEmpty()) {
+            //a single leaf is the root
+            ClusteredPage root = new ClusteredPage(new FilePageId(file.getId(), 0), empty, file);
+            for (int i = 0; i < leaf.getNumEntries(); i++)
+                root.appendTuple(leaf.getTuple(i));
+            file.writePage(root);
+            return file;
+        }
+        file.writePage(leaf);
+        firstKeys.add(leaf.getKey(0));
+        pageNos.add(leaf.getId().pageNumber());
+
+        ClusteredPage sizing = new ClusteredPage(new FilePageId(file.getId(), 0), empty, file);
+        sizing.makeInternal(1, 0);
+        int fanout = sizing.getMaxEntries() + 1;
+        int nextPageNo = leaf.getId().pageNumber() + 1;
+        int level = 1;
+        while (true) {
+            boolean top = pageNos.size() <= fanout;
+            ArrayList<Field> upperKeys = new ArrayList<Field>();
+            ArrayList<Integer> upperPageNos = new ArrayList<Integer>();
+            for (int start = 0; start < pageNos.size(); start += fanout) {
+                int pageNo = top ? 0 : nextPageNo++;
+                ClusteredPage page = new ClusteredPage(new FilePageId(file.getId(), pageNo), empty, file);
+                page.makeInternal(level, pageNos.get(start));
+                int end = Math.min(start + fanout, pageNos.size());
+                for (int i = start + 1; i < end; i++)
+                    page.insertSeparator(i - start - 1, firstKeys.get(i), pageNos.get(i));
+                file.writePage(page);
+                upperKeys.add(firstKeys.get(start));
+                upperPageNos.add(pageNo);
+            }
+            if (top)
+                return file;
+            firstKeys = upperKeys;
+            pageNos = upperPageNos;
+            level++;
+        }
+    }
+
+    /**
+     * Reads a leaf at a time: the tuples of a leaf and its right sibling are
+     * copied when the iterator reaches it, so that deleting the tuples it
+     * returns (as Delete does) does not shift the rest under it.
+     */
+    private class ClusteredIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field operand;
+        private ArrayList<Tuple> leaf;	//null when not open or exhausted
+        private int sibling;
+        private int pos;
+        private Tuple next;
+
+        public ClusteredIterator(TransactionId tid, Predicate.Op op, Field operand) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        private void readLeaf(ClusteredPage page) {
+            leaf = new ArrayList<Tuple>(page.getNumEntries());
+            for (int i = 0; i < page.getNumEntries(); i++)
+                leaf.add(page.getTuple(i));
+            sibling = page.getRightSibling();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            ClusteredPage page;
+            if (BTreeFile.seeks(op)) {
+                page = findLeaf(tid, operand, false, Permissions.READ_ONLY, null, null);
+                pos = keyPosition(page, operand, false);
+            } else {
+                page = getPage(tid, 0, Permissions.READ_ONLY);
+                while (!page.isLeaf())
+                    page = getPage(tid, page.getChild(0), Permissions.READ_ONLY);
+                pos = 0;
+            }
+            readLeaf(page);
+            next = null;
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            while (leaf != null) {
+                while (pos < leaf.size()) {
+                    Tuple t = leaf.get(pos++);
+                    Field key = t.getField(keyField);
+                    if (BTreeFile.pastRange(op, key, operand)) {
+                        leaf = null;
+                        return null;
+                    }
+                    if (op == null || key.compare(op, operand))
+                        return t;
+                }
+                if (sibling == 0)
+                    leaf = null;
+                else
+                    readLeaf(getPage(tid, sibling, Permissions.READ_ONLY));
+                pos = 0;
+            }
+            return null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next == null)
+                next = readNext();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            leaf = null;
+            next = null;
+        }
+    }
+}
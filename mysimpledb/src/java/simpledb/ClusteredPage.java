@@ -0,0 +1,347 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ClusteredPage is a node of a ClusteredFile.  A leaf holds whole tuples,
+ * ordered by key; an internal page holds separator keys and the page
+ * numbers of its children.
+ * <p/>
+ * The page header is the same as a BTreePage's: a type byte (0 for a
+ * leaf, 1 for an internal page), an integer entry count, and, for a leaf,
+ * the page number of its right sibling (0 for none) or, for an internal
+ * page, its level.  An all-zero page is an empty leaf.  A leaf then stores its tuples, serialized back to back.
+ * An internal page stores its first child, and every separator key is
+ * followed by the child to its right.  The keys in child i lie between
+ * separators i - 1 and i, inclusive, since equal keys may straddle a
+ * split.
+ * <p/>
+ * A tuple's RecordId is its position on its leaf.  Tuples move when pages
+ * split, so RecordIds are only good until the page next changes.
+ *
+ * @see ClusteredFile
+ * @see BTreePage
+ */
+public class ClusteredPage implements Page {
+
+    final FilePageId pid;
+    private final TupleDesc td;
+    private final int keyField;
+
+    private boolean leaf;
+    private int rightSibling;
+    private int level;  // internal pages only: the number of levels below
+    // leaf pages only
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    // internal pages only: keys.size() + 1 children
+    private final ArrayList<Field> keys = new ArrayList<Field>();
+    private final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    byte[] oldData;     // the before image; null while it is the page as it is now
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ClusteredPage from a set of bytes of data read from disk, in
+     * the format described above.  Tuples are decoded lazily, from data.
+     */
+    public ClusteredPage(FilePageId id, byte[] data) throws IOException {
+        this(id, data, (ClusteredFile) Database.getCatalog().getDatabaseFile(id.getTableId()));
+    }
+
+    /**
+     * Create a page of file, which need not be in the catalog yet; used to
+     * build a file from sorted tuples.
+     */
+    ClusteredPage(FilePageId id, byte[] data, ClusteredFile file) throws IOException {
+        this.pid = id;
+        this.td = file.getTupleDesc();
+        this.keyField = file.getKeyField();
+
+        ByteBuffer page = ByteBuffer.wrap(data);
+        byte type = page.get();
+        if (type != BTreePage.LEAF && type != BTreePage.INTERNAL)
+            throw new IOException("bad page type " + type + " on " + id);
+        leaf = type == BTreePage.LEAF;
+        int n = page.getInt();
+        if (leaf)
+            rightSibling = page.getInt();
+        else
+            level = page.getInt();
+        if (n < 0 || n > getMaxEntries())
+            throw new IOException("bad entry count " + n + " on " + id);
+
+        int offset = BTreePage.HEADER_SIZE;
+        if (leaf) {
+            for (int i = 0; i < n; i++) {
+                tuples.add(new Tuple(td, new RecordId(pid, i), page, offset));
+                offset += td.getSize();
+            }
+        } else {
+            Type keyType = td.getFieldType(keyField);
+            children.add(page.getInt(offset));
+            offset += 4;
+            for (int i = 0; i < n; i++) {
+                keys.add(keyType.parse(data, offset));
+                offset += keyType.getLen();
+                children.add(page.getInt(offset));
+                offset += 4;
+            }
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the most tuples a leaf, or separators an internal page, can
+     * hold
+     */
+    public int getMaxEntries() {
+        if (leaf)
+            return (BufferPool.getPageSize() - BTreePage.HEADER_SIZE) / td.getSize();
+        int keyLen = td.getFieldType(keyField).getLen();
+        return (BufferPool.getPageSize() - BTreePage.HEADER_SIZE - 4) / (keyLen + 4);
+    }
+
+    public FilePageId getId() {
+        return pid;
+    }
+
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    public int getNumEntries() {
+        return leaf ? tuples.size() : keys.size();
+    }
+
+    /**
+     * @return the key of tuple i of a leaf, or separator i of an internal
+     * page
+     */
+    public Field getKey(int i) {
+        return leaf ? tuples.get(i).getField(keyField) : keys.get(i);
+    }
+
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    public int getChild(int i) {
+        return children.get(i);
+    }
+
+    /**
+     * @return the number of levels of the tree below an internal page, so
+     * 1 if its children are leaves
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the page number of the next leaf, or 0 if this is the last
+     */
+    public int getRightSibling() {
+        return rightSibling;
+    }
+
+    // give the tuples on a leaf from position start on their new RecordIds
+    private void renumber(int start) {
+        for (int i = start; i < tuples.size(); i++)
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Insert a tuple into a leaf at position i.
+     */
+    void insertTuple(int i, Tuple t) {
+        captureBeforeImage();
+        tuples.add(i, t);
+        renumber(i);
+    }
+
+    /**
+     * Remove the tuple at position i of a leaf.
+     */
+    void deleteTuple(int i) {
+        captureBeforeImage();
+        tuples.remove(i).setRecordId(null);
+        renumber(i);
+    }
+
+    /**
+     * Add a tuple at the end of a leaf; used to build a file from sorted
+     * tuples.
+     */
+    void appendTuple(Tuple t) {
+        insertTuple(tuples.size(), t);
+    }
+
+    /**
+     * Insert a separator into an internal page at position i, with the
+     * page number of the child to its right.
+     */
+    void insertSeparator(int i, Field key, int rightChild) {
+        captureBeforeImage();
+        keys.add(i, key);
+        children.add(i + 1, rightChild);
+    }
+
+    /**
+     * Make this an internal page at the given level with a single child;
+     * used to build a file from sorted tuples.
+     */
+    void makeInternal(int level, int firstChild) {
+        captureBeforeImage();
+        leaf = false;
+        rightSibling = 0;
+        this.level = level;
+        tuples.clear();
+        keys.clear();
+        children.clear();
+        children.add(firstChild);
+    }
+
+    void setRightSibling(int pageNo) {
+        captureBeforeImage();
+        rightSibling = pageNo;
+    }
+
+    /**
+     * Move the upper half of this page to right, an empty page that becomes
+     * its right neighbour, and return the separator key for the parent.  A
+     * leaf's separator is the key of the first tuple moved; an internal
+     * page gives its middle separator up to the parent.
+     */
+    Field splitInto(ClusteredPage right) {
+        captureBeforeImage();
+        right.captureBeforeImage();
+        right.leaf = leaf;
+        right.level = level;
+        if (leaf) {
+            int mid = tuples.size() / 2;
+            moveTail(tuples, mid, right.tuples);
+            right.renumber(0);
+            right.rightSibling = rightSibling;
+            rightSibling = right.pid.pageNumber();
+            return right.getKey(0);
+        }
+        int mid = keys.size() / 2;
+        Field separator = keys.get(mid);
+        moveTail(keys, mid + 1, right.keys);
+        moveTail(children, mid + 1, right.children);
+        keys.remove(mid);
+        return separator;
+    }
+
+    /**
+     * Move everything on this page (the root) to child, an empty page, and
+     * make this an internal page whose only child is child.
+     */
+    void pushDownInto(ClusteredPage child) {
+        captureBeforeImage();
+        child.captureBeforeImage();
+        child.leaf = leaf;
+        child.rightSibling = rightSibling;
+        child.level = level;
+        moveTail(tuples, 0, child.tuples);
+        child.renumber(0);
+        moveTail(keys, 0, child.keys);
+        moveTail(children, 0, child.children);
+        level = leaf ? 1 : level + 1;
+        leaf = false;
+        rightSibling = 0;
+        children.add(child.pid.pageNumber());
+    }
+
+    private static <T> void moveTail(List<T> from, int start, List<T> to) {
+        List<T> tail = from.subList(start, from.size());
+        to.addAll(tail);
+        tail.clear();
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public ClusteredPage getBeforeImage() {
+        try {
+            return new ClusteredPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData != null ? oldData : getPageData();
+        }
+    }
+
+    /**
+     * The page as it is now becomes the before image.  It is only saved
+     * when the page next changes; see captureBeforeImage.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format described above.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        page.put(leaf ? BTreePage.LEAF : BTreePage.INTERNAL);
+        page.putInt(getNumEntries());
+        page.putInt(leaf ? rightSibling : level);
+        if (leaf) {
+            for (Tuple t : tuples) {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(page);
+            }
+        } else {
+            int keyLen = td.getFieldType(keyField).getLen();
+            page.putInt(children.get(0));
+            for (int i = 0; i < keys.size(); i++) {
+                int offset = page.position();
+                keys.get(i).serialize(page);
+                page.position(offset + keyLen);
+                page.putInt(children.get(i + 1));
+            }
+        }
+        return data;
+    }
+
+    public ByteBuffer getPageDataBuffer() {
+        return ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+}
@@ -0,0 +1,275 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ColumnFile stores a table column by column, for analytic queries that
+ * read a few fields of many tuples: each column is a chain of ColumnPages
+ * holding only its values, so a scan that needs some of the columns reads
+ * only their pages, and skips the bytes of the others altogether.  Each
+ * page is written in whichever of a plain, run-length, frame-of-reference
+ * or dictionary encoding makes it smallest (see ColumnPage), so repetitive
+ * or narrow columns take few pages.
+ * <p/>
+ * Tuples are appended at the end of every column's chain, and are
+ * identified by their row number: a tuple's RecordId is the directory
+ * page's id and its row.  Deleting a tuple sets its row's bit in a chain of
+ * deleted-row pages, which scans read too; rows are never reused.  Pages
+ * are read and locked through the BufferPool like a HeapFile's.
+ * <p/>
+ * A table is stored by column by adding the word "columnar" after its
+ * field list in the catalog file.  LogicalPlan then has its scans read only
+ * the fields a query refers to (see SeqScan#projectFields).
+ *
+ * @see ColumnPage
+ * @see HeapFile
+ */
+public class ColumnFile extends PageFile<ColumnPage> {
+
+    private final TupleDesc td;
+    private final AtomicLong pagesRead = new AtomicLong();
+
+    /**
+     * Constructs a column-oriented table backed by the specified file.
+     *
+     * @param f  the file that stores the table's pages
+     * @param td the table's TupleDesc
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        super(f);
+        this.td = td;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of pages read from disk so far, for measuring how
+     * much of the table scans touch
+     */
+    public long getPagesRead() {
+        return pagesRead.get();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        Page page = super.readPage(pid);
+        pagesRead.incrementAndGet();
+        return page;
+    }
+
+    protected ColumnPage makePage(FilePageId pid, byte[] data) throws IOException {
+        return new ColumnPage(pid, data);
+    }
+
+    /**
+     * @return the number of rows appended to the table, deleted or not: the
+     * row after the last value of column 0
+     */
+    private int numRows(TransactionId tid, ColumnPage directory, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        if (directory.getLast(0) == 0)
+            return 0;
+        ColumnPage last = getPage(tid, directory.getLast(0), perm);
+        return last.getFirstRow() + last.getNumValues();
+    }
+
+    /**
+     * Add a new last page to chain c and return it.  This is the only change
+     * an insert makes to the directory, so only here is it locked for
+     * writing.
+     */
+    private ColumnPage extendChain(TransactionId tid, int c, Set<Page> dirtied)
+            throws IOException, TransactionAbortedException, DbException {
+        ColumnPage directory = getPage(tid, 0, Permissions.READ_WRITE);
+        dirtied.add(directory);
+        ColumnPage page = newPage(tid);
+        int pageNo = page.getId().pageNumber();
+        if (directory.getLast(c) == 0) {
+            directory.setChain(c, pageNo, pageNo);
+        } else {
+            ColumnPage last = getPage(tid, directory.getLast(c), Permissions.READ_WRITE);
+            last.setNext(pageNo);
+            dirtied.add(last);
+            directory.setChain(c, directory.getFirst(c), pageNo);
+        }
+        dirtied.add(page);
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null)
+            throw new NullPointerException();
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc does not match");
+
+        LinkedHashSet<Page> dirtied = new LinkedHashSet<Page>();
+        //inserters take turns on the last page of column 0, which numRows
+        //locks for writing; the directory is upgraded only to add a page
+        ColumnPage directory = getPage(tid, 0, Permissions.READ_ONLY);
+        int row = numRows(tid, directory, Permissions.READ_WRITE);
+        for (int c = 0; c < td.numFields(); c++) {
+            Field value = t.getField(c);
+            if (value == null)
+                throw new DbException("Tuple has no value for field " + c);
+            ColumnPage page = null;
+            if (directory.getLast(c) != 0)
+                page = getPage(tid, directory.getLast(c), Permissions.READ_WRITE);
+            if (page == null || !page.append(value)) {
+                page = extendChain(tid, c, dirtied);
+                page.setColumn(c, row);
+                if (!page.append(value))
+                    throw new DbException("value too large for a page: " + value);
+            }
+            dirtied.add(page);
+        }
+
+        //a new deleted-row page every deletedPerPage() rows
+        if (row % ColumnPage.deletedPerPage() == 0)
+            extendChain(tid, td.numFields(), dirtied).makeDeleted();
+
+        t.setRecordId(new RecordId(directory.getId(), row));
+        return new ArrayList<Page>(dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(new FilePageId(getId(), 0)))
+            throw new DbException("Tuple is not in this table");
+
+        int row = rid.tupleno();
+        ColumnPage directory = getPage(tid, 0, Permissions.READ_ONLY);
+        if (row < 0 || row >= numRows(tid, directory, Permissions.READ_ONLY))
+            throw new DbException("Tuple is not in this table");
+
+        //walk the deleted-row chain to the page that covers the row
+        int pageNo = directory.getFirst(td.numFields());
+        for (int k = row / ColumnPage.deletedPerPage(); k > 0; k--)
+            pageNo = getPage(tid, pageNo, Permissions.READ_ONLY).getNext();
+        ColumnPage page = getPage(tid, pageNo, Permissions.READ_WRITE);
+        int i = row % ColumnPage.deletedPerPage();
+        if (page.isDeleted(i))
+            throw new DbException("Tuple is already deleted");
+        page.setDeleted(i);
+
+        ArrayList<Page> rv = new ArrayList<Page>();
+        rv.add(page);
+        return rv;
+    }
+
+    /**
+     * Returns an iterator over all the tuples of this table.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        List<Integer> fields = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++)
+            fields.add(i);
+        return iterator(tid, fields);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this table that reads only the
+     * chains of the given fields; the other fields of the tuples it returns
+     * are left unset (null).
+     *
+     * @param fields the fields to read, by their index in the TupleDesc
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Integer> fields) {
+        return new ColumnIterator(tid, fields);
+    }
+
+    /**
+     * Reads the chains of the projected columns side by side, a row at a
+     * time, with the deleted-row chain.  The number of rows is fixed when the
+     * iterator is opened, so tuples appended during a scan are not seen.
+     */
+    private class ColumnIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final int[] fields;
+        private ColumnPage[] pages;     //the page of each field being read; null when not open
+        private int[] positions;        //the position of the next value on each page
+        private ColumnPage deleted;     //the deleted-row page covering row
+        private int numRows;
+        private int row;                //the next row to read
+        private Tuple next;
+
+        public ColumnIterator(TransactionId tid, List<Integer> fields) {
+            this.tid = tid;
+            this.fields = new int[fields.size()];
+            for (int i = 0; i < this.fields.length; i++)
+                this.fields[i] = fields.get(i);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            ColumnPage directory = getPage(tid, 0, Permissions.READ_ONLY);
+            numRows = numRows(tid, directory, Permissions.READ_ONLY);
+            row = 0;
+            next = null;
+            pages = new ColumnPage[fields.length];
+            positions = new int[fields.length];
+            if (numRows == 0)
+                return;
+            for (int i = 0; i < fields.length; i++)
+                pages[i] = getPage(tid, directory.getFirst(fields[i]), Permissions.READ_ONLY);
+            deleted = getPage(tid, directory.getFirst(td.numFields()), Permissions.READ_ONLY);
+        }
+
+        /**
+         * Read the next row, deleted or not, into a tuple.
+         */
+        private Tuple readRow() throws DbException, TransactionAbortedException {
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < fields.length; i++) {
+                while (positions[i] == pages[i].getNumValues()) {
+                    pages[i] = getPage(tid, pages[i].getNext(), Permissions.READ_ONLY);
+                    positions[i] = 0;
+                }
+                t.setField(fields[i], pages[i].getValue(positions[i]++));
+            }
+            t.setRecordId(new RecordId(new FilePageId(getId(), 0), row));
+            if (row > 0 && row % ColumnPage.deletedPerPage() == 0)
+                deleted = getPage(tid, deleted.getNext(), Permissions.READ_ONLY);
+            row++;
+            return t;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (pages == null)
+                return false;
+            while (next == null && row < numRows) {
+                int r = row;
+                Tuple t = readRow();
+                if (!deleted.isDeleted(r % ColumnPage.deletedPerPage()))
+                    next = t;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            pages = null;
+            deleted = null;
+            next = null;
+        }
+    }
+}
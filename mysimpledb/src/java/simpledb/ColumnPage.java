@@ -0,0 +1,545 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnPage is a page of a ColumnFile: its directory, which is always page
+ * 0, a page of the values of one column, or a page of the bitmap of
+ * deleted rows.
+ * <p/>
+ * The directory starts with a type byte (2), then lists the first and last
+ * pages of the chain of each column in turn, and of the chain of
+ * deleted-row pages; 0 means the chain is empty.  An all-zero page 0 is the
+ * directory of an empty table.
+ * <p/>
+ * A column page starts with a type byte (0), its encoding, the column it
+ * belongs to as a 2-byte char, the next page of the chain (0 at its end),
+ * the row of its first value and the number of values it holds, followed
+ * by the values in row order in one of four encodings, whichever is
+ * smallest:
+ * <ul>
+ * <li>PLAIN: each value, strings as a length and their bytes;</li>
+ * <li>RLE: the number of runs, then each run's value and its length as a
+ * char;</li>
+ * <li>FOR (frame of reference, ints only): the smallest value, a bit
+ * width w, and each value minus the smallest in w bits;</li>
+ * <li>DICTIONARY: the number of distinct values, each of them, a bit width
+ * w, and each value as its position in that list, in w bits.</li>
+ * </ul>
+ * A page takes values until none of the encodings fits any more, so the
+ * more repetitive or narrow a column, the fewer pages it needs.  An
+ * all-zero page is an empty column page of column 0.
+ * <p/>
+ * A deleted-row page starts with a type byte (1) and the next page of the
+ * chain, followed by a bit for each of deletedPerPage() rows, set for a
+ * deleted row; the k-th page of the chain covers the k-th run of rows.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    static final byte COLUMN = 0;
+    static final byte DELETED = 1;
+    static final byte DIRECTORY = 2;
+
+    public static final byte PLAIN = 0;
+    public static final byte RLE = 1;
+    public static final byte FOR = 2;
+    public static final byte DICTIONARY = 3;
+
+    static final int COLUMN_HEADER_SIZE = 16;
+    static final int DELETED_HEADER_SIZE = 5;
+    static final int MAX_VALUES = 65535;    //so that a run length fits in a char
+
+    final FilePageId pid;
+    private final TupleDesc td;
+
+    private byte type;
+    // the directory only; the deleted-row chain is the last entry
+    private int[] first;
+    private int[] last;
+    // column and deleted-row pages
+    private int next;
+    // column pages only
+    private int column;
+    private int firstRow;
+    private Type valueType;
+    private final ArrayList<Field> values = new ArrayList<Field>();
+    // the sizes of the encodings of values, kept up to date as values are
+    // appended (see append)
+    private int plainBytes;
+    private int rleBytes;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private final HashMap<Field, Integer> dictionary = new HashMap<Field, Integer>();
+    private final ArrayList<Field> dictionaryValues = new ArrayList<Field>();
+    private int dictionaryBytes;
+    // deleted-row pages only
+    private BitSet deleted;
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    byte[] oldData;     // the before image; null while it is the page as it is now
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk, in the
+     * format described above.
+     */
+    public ColumnPage(FilePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getDatabaseFile(id.getTableId()).getTupleDesc();
+
+        ByteBuffer page = ByteBuffer.wrap(data);
+        byte t = page.get();
+        if (id.pageNumber() == 0) {
+            if (t != DIRECTORY && t != 0)
+                throw new IOException("bad page type " + t + " on " + id);
+            type = DIRECTORY;
+            first = new int[td.numFields() + 1];
+            last = new int[td.numFields() + 1];
+            for (int i = 0; i < first.length; i++) {
+                first[i] = page.getInt();
+                last[i] = page.getInt();
+            }
+        } else if (t == COLUMN) {
+            type = COLUMN;
+            byte encoding = page.get();
+            column = page.getChar();
+            if (column >= td.numFields())
+                throw new IOException("bad column " + column + " on " + id);
+            valueType = td.getFieldType(column);
+            next = page.getInt();
+            firstRow = page.getInt();
+            int n = page.getInt();
+            if (n < 0 || n > MAX_VALUES)
+                throw new IOException("bad value count " + n + " on " + id);
+            for (Field f : decode(encoding, n, page))
+                add(f);
+        } else if (t == DELETED) {
+            type = DELETED;
+            next = page.getInt();
+            deleted = new BitSet();
+            for (int i = 0; i < deletedPerPage(); i++) {
+                if ((data[DELETED_HEADER_SIZE + (i >>> 3)] & (1 << (i & 7))) != 0)
+                    deleted.set(i);
+            }
+        } else {
+            throw new IOException("bad page type " + t + " on " + id);
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of rows a deleted-row page covers
+     */
+    static int deletedPerPage() {
+        return (BufferPool.getPageSize() - DELETED_HEADER_SIZE) * 8;
+    }
+
+    public FilePageId getId() {
+        return pid;
+    }
+
+    public boolean isDirectory() {
+        return type == DIRECTORY;
+    }
+
+    // the directory
+
+    /**
+     * @return the first page of the chain of column c, or of the
+     * deleted-row chain if c is the number of columns; 0 if it is empty
+     */
+    public int getFirst(int c) {
+        return first[c];
+    }
+
+    public int getLast(int c) {
+        return last[c];
+    }
+
+    void setChain(int c, int firstPage, int lastPage) {
+        captureBeforeImage();
+        first[c] = firstPage;
+        last[c] = lastPage;
+    }
+
+    // column and deleted-row pages
+
+    /**
+     * @return the next page of this page's chain, or 0 if it is the last
+     */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int pageNo) {
+        captureBeforeImage();
+        next = pageNo;
+    }
+
+    // column pages
+
+    /**
+     * Turn a new, empty page into an empty page of column c, whose first
+     * value will be that of the given row.
+     */
+    void setColumn(int c, int row) {
+        captureBeforeImage();
+        type = COLUMN;
+        column = c;
+        firstRow = row;
+        valueType = td.getFieldType(c);
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the row of the first value on this column page
+     */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getNumValues() {
+        return values.size();
+    }
+
+    public Field getValue(int i) {
+        return values.get(i);
+    }
+
+    private static int bitWidth(long x) {
+        return 64 - Long.numberOfLeadingZeros(x);
+    }
+
+    private static int packedBytes(int n, int width) {
+        return (int) (((long) n * width + 7) / 8);
+    }
+
+    private int sizeOf(Field f) {
+        if (valueType == Type.INT_TYPE)
+            return 4;
+        return 4 + ((StringField) f).getValue().getBytes().length;
+    }
+
+    /**
+     * @return the size of the values in each encoding, indexed by encoding;
+     * Integer.MAX_VALUE where an encoding does not apply
+     */
+    private static int[] encodedSizes(Type valueType, int n, int plain, int rle, long min, long max,
+                                      int distinct, int dictionaryBytes) {
+        int[] rv = new int[4];
+        rv[PLAIN] = plain;
+        rv[RLE] = 4 + rle;
+        rv[FOR] = valueType != Type.INT_TYPE ? Integer.MAX_VALUE
+                : 5 + packedBytes(n, n == 0 ? 0 : bitWidth(max - min));
+        rv[DICTIONARY] = 4 + dictionaryBytes + 1 + packedBytes(n, bitWidth(Math.max(0, distinct - 1)));
+        return rv;
+    }
+
+    private int[] encodedSizes() {
+        return encodedSizes(valueType, values.size(), plainBytes, rleBytes, min, max,
+                dictionaryValues.size(), dictionaryBytes);
+    }
+
+    private static int smallest(int[] sizes) {
+        int rv = PLAIN;
+        for (int e = 1; e < sizes.length; e++) {
+            if (sizes[e] < sizes[rv])
+                rv = e;
+        }
+        return rv;
+    }
+
+    /**
+     * @return the encoding the values of this column page are written in:
+     * the one that takes the fewest bytes
+     */
+    public byte getEncoding() {
+        return (byte) smallest(encodedSizes());
+    }
+
+    /**
+     * Add a value at the end of this column page, if it still fits in some
+     * encoding.
+     *
+     * @return false if the page is full
+     */
+    boolean append(Field f) {
+        int sz = sizeOf(f);
+        int n = values.size() + 1;
+        boolean newRun = values.isEmpty() || !values.get(values.size() - 1).equals(f);
+        long v = valueType == Type.INT_TYPE ? ((IntField) f).getValue() : 0;
+        boolean newValue = !dictionary.containsKey(f);
+        int[] sizes = encodedSizes(valueType, n, plainBytes + sz, rleBytes + (newRun ? sz + 2 : 0),
+                Math.min(min, v), Math.max(max, v),
+                dictionaryValues.size() + (newValue ? 1 : 0), dictionaryBytes + (newValue ? sz : 0));
+        if (n > MAX_VALUES || sizes[smallest(sizes)] > BufferPool.getPageSize() - COLUMN_HEADER_SIZE)
+            return false;
+
+        captureBeforeImage();
+        add(f);
+        return true;
+    }
+
+    /**
+     * Add a value at the end of this column page, and account for it in
+     * the sizes of the encodings.
+     */
+    private void add(Field f) {
+        int sz = sizeOf(f);
+        if (values.isEmpty() || !values.get(values.size() - 1).equals(f))
+            rleBytes += sz + 2;
+        values.add(f);
+        plainBytes += sz;
+        if (valueType == Type.INT_TYPE) {
+            min = Math.min(min, ((IntField) f).getValue());
+            max = Math.max(max, ((IntField) f).getValue());
+        }
+        if (!dictionary.containsKey(f)) {
+            dictionary.put(f, dictionaryValues.size());
+            dictionaryValues.add(f);
+            dictionaryBytes += sz;
+        }
+    }
+
+    private void putValue(ByteBuffer page, Field f) {
+        if (valueType == Type.INT_TYPE) {
+            page.putInt(((IntField) f).getValue());
+        } else {
+            byte[] s = ((StringField) f).getValue().getBytes();
+            page.putInt(s.length);
+            page.put(s);
+        }
+    }
+
+    private Field getValue(ByteBuffer page) {
+        if (valueType == Type.INT_TYPE)
+            return new IntField(page.getInt());
+        byte[] s = new byte[page.getInt()];
+        page.get(s);
+        return new StringField(new String(s), Type.STRING_LEN, valueType);
+    }
+
+    /**
+     * Write n values of width bits each, packed, starting at the page's
+     * position.
+     */
+    private static void putPacked(ByteBuffer page, long[] packed, int width) {
+        byte[] bytes = new byte[packedBytes(packed.length, width)];
+        long bit = 0;
+        for (long v : packed) {
+            for (int b = 0; b < width; b++, bit++) {
+                if ((v & (1L << b)) != 0)
+                    bytes[(int) (bit >>> 3)] |= 1 << (bit & 7);
+            }
+        }
+        page.put(bytes);
+    }
+
+    private static long[] getPacked(ByteBuffer page, int n, int width) {
+        byte[] bytes = new byte[packedBytes(n, width)];
+        page.get(bytes);
+        long[] rv = new long[n];
+        long bit = 0;
+        for (int i = 0; i < n; i++) {
+            for (int b = 0; b < width; b++, bit++) {
+                if ((bytes[(int) (bit >>> 3)] & (1 << (bit & 7))) != 0)
+                    rv[i] |= 1L << b;
+            }
+        }
+        return rv;
+    }
+
+    private void encode(ByteBuffer page, byte encoding) {
+        int n = values.size();
+        switch (encoding) {
+            case PLAIN:
+                for (Field f : values)
+                    putValue(page, f);
+                break;
+            case RLE:
+                int runsAt = page.position();
+                int runs = 0;
+                page.putInt(0);
+                for (int i = 0; i < n; ) {
+                    int j = i + 1;
+                    while (j < n && values.get(j).equals(values.get(i)))
+                        j++;
+                    putValue(page, values.get(i));
+                    page.putChar((char) (j - i));
+                    runs++;
+                    i = j;
+                }
+                page.putInt(runsAt, runs);
+                break;
+            case FOR:
+                page.putInt((int) min);
+                page.put((byte) bitWidth(max - min));
+                long[] offsets = new long[n];
+                for (int i = 0; i < n; i++)
+                    offsets[i] = ((IntField) values.get(i)).getValue() - min;
+                putPacked(page, offsets, bitWidth(max - min));
+                break;
+            case DICTIONARY:
+                page.putInt(dictionaryValues.size());
+                for (Field f : dictionaryValues)
+                    putValue(page, f);
+                int width = bitWidth(Math.max(0, dictionaryValues.size() - 1));
+                page.put((byte) width);
+                long[] codes = new long[n];
+                for (int i = 0; i < n; i++)
+                    codes[i] = dictionary.get(values.get(i));
+                putPacked(page, codes, width);
+                break;
+        }
+    }
+
+    private List<Field> decode(byte encoding, int n, ByteBuffer page) throws IOException {
+        ArrayList<Field> rv = new ArrayList<Field>(n);
+        switch (encoding) {
+            case PLAIN:
+                for (int i = 0; i < n; i++)
+                    rv.add(getValue(page));
+                break;
+            case RLE:
+                int runs = page.getInt();
+                for (int r = 0; r < runs; r++) {
+                    Field f = getValue(page);
+                    for (int i = page.getChar(); i > 0; i--)
+                        rv.add(f);
+                }
+                break;
+            case FOR:
+                int base = page.getInt();
+                for (long offset : getPacked(page, n, page.get()))
+                    rv.add(new IntField((int) (base + offset)));
+                break;
+            case DICTIONARY:
+                Field[] dict = new Field[page.getInt()];
+                for (int i = 0; i < dict.length; i++)
+                    dict[i] = getValue(page);
+                for (long code : getPacked(page, n, page.get()))
+                    rv.add(dict[(int) code]);
+                break;
+            default:
+                throw new IOException("bad encoding " + encoding + " on " + pid);
+        }
+        if (rv.size() != n)
+            throw new IOException("bad value count " + n + " on " + pid);
+        return rv;
+    }
+
+    // deleted-row pages
+
+    /**
+     * Turn a new, empty page into a deleted-row page with no row deleted.
+     */
+    void makeDeleted() {
+        captureBeforeImage();
+        type = DELETED;
+        deleted = new BitSet();
+    }
+
+    /**
+     * @return true if the i-th row this deleted-row page covers is deleted
+     */
+    public boolean isDeleted(int i) {
+        return deleted.get(i);
+    }
+
+    void setDeleted(int i) {
+        captureBeforeImage();
+        deleted.set(i);
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public ColumnPage getBeforeImage() {
+        try {
+            return new ColumnPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData != null ? oldData : getPageData();
+        }
+    }
+
+    /**
+     * The page as it is now becomes the before image.  It is only saved
+     * when the page next changes; see captureBeforeImage.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format described above.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        if (type == DIRECTORY) {
+            page.put(DIRECTORY);
+            for (int i = 0; i < first.length; i++) {
+                page.putInt(first[i]);
+                page.putInt(last[i]);
+            }
+        } else if (type == COLUMN) {
+            byte encoding = getEncoding();
+            page.put(COLUMN);
+            page.put(encoding);
+            page.putChar((char) column);
+            page.putInt(next);
+            page.putInt(firstRow);
+            page.putInt(values.size());
+            encode(page, encoding);
+        } else {
+            page.put(DELETED);
+            page.putInt(next);
+            for (int i = deleted.nextSetBit(0); i >= 0; i = deleted.nextSetBit(i + 1))
+                data[DELETED_HEADER_SIZE + (i >>> 3)] |= 1 << (i & 7);
+        }
+        return data;
+    }
+
+    public ByteBuffer getPageDataBuffer() {
+        return ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a PageFile: BTreePage, ClusteredPage,
+ * HashPage, BitmapPage and ColumnPage objects.
+ */
+public class FilePageId implements PageId {
+	private int tableId;
+	private int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific index or table.
+     *
+     * @param tableId The index or table that is being referenced
+     * @param pgNo    The page number in that file.
+     */
+    public FilePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /**
+     * @return the index or table associated with this PageId
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the page number in the file getTableId() associated with
+     * this PageId
+     */
+    public int pageNumber() {
+        return this.pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, represented by the concatenation of
+     * the file number and the page number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return (String.valueOf(tableId) + String.valueOf(pgNo)).hashCode();
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and file
+     * ids are the same)
+     */
+    public boolean equals(Object o) {
+    	if (o == null || !o.getClass().equals(this.getClass()))
+    		return false;
+        FilePageId other = (FilePageId) o;
+        return other.tableId == this.tableId && other.pgNo == this.pgNo;
+    }
+
+    public String toString() {
+        return "FilePageId(" + tableId + ", " + pgNo + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of
+     * integers, for writing to disk.  Size of returned array must contain
+     * number of integers that corresponds to number of args to one of the
+     * constructors.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+        data[0] = getTableId();
+        data[1] = pageNumber();
+        return data;
+    }
+}
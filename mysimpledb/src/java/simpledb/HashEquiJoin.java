@@ -3,65 +3,186 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator joins its children on the equality of a field
+ * of each.  It reads the right(inner) child into a hash table on its join
+ * field, then streams the left(outer) child past it.  The inner child
+ * must therefore fit in memory.
+ * <p/>
+ * While it builds the hash table, the join also builds a BloomFilter of
+ * the inner keys, and pushes it down the outer child to the SeqScan the
+ * outer join field comes from -- through Filters and other joins -- so
+ * outer tuples without a match are dropped as soon as they are read,
+ * rather than passing through every operator on the way up.  The filter
+ * is withdrawn when the join is closed.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+
+    // built by open
+    private transient HashMap<Field, ArrayList<Tuple>> table = null;
+    private transient BloomFilter bloom = null;
+    private transient SeqScan bloomScan = null;   //the scan the filter was pushed to, if any
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
      *
-     * @param p      The predicate to use to join the children
+     * @param p      The predicate to use to join the children; its operator
+     *               must be EQUALS
      * @param child1 Iterator for the left(outer) relation to join
-     * @param child2 Iterator for the right(inner) relation to join
+     * @param child2 Iterator for the right(inner) relation to join, which
+     *               is read into memory
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
-        // some code goes here
-    	throw new UnsupportedOperationException();
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HashEquiJoin needs an EQUALS predicate, not " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
     }
 
     public JoinPredicate getJoinPredicate() {
-        // some code goes here
-        return null;
+        return p;
     }
 
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * @return the field name of join field1. Should be quantified by
+     * alias or table name.
+     */
     public String getJoinField1Name() {
-        // some code goes here
-        return null;
+        return child1.getTupleDesc().getFieldName(p.getField1());
     }
 
+    /**
+     * @return the field name of join field2. Should be quantified by
+     * alias or table name.
+     */
     public String getJoinField2Name() {
-        // some code goes here
-        return null;
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /**
+     * @return the SeqScan the BloomFilter of the inner keys was pushed down
+     * to, or null if the join is not open or the outer join field does not
+     * come from a SeqScan
+     */
+    public SeqScan getBloomFilterScan() {
+        return bloomScan;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
+        super.open();
+        build();
+        child1.open();
+    }
+
+    /**
+     * Read the inner child into the hash table and the BloomFilter, and push
+     * the filter down the outer child.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        child2.open();
+        while (child2.hasNext())
+            tuples.add(child2.next());
+        child2.close();
+
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        bloom = new BloomFilter(tuples.size());
+        for (Tuple t : tuples) {
+            Field key = t.getField(p.getField2());
+            ArrayList<Tuple> matches = table.get(key);
+            if (matches == null) {
+                matches = new ArrayList<Tuple>(1);
+                table.put(key, matches);
+                bloom.add(key);
+            }
+            matches.add(t);
+        }
+
+        bloomScan = pushDown(child1, p.getField1(), bloom);
+    }
+
+    /**
+     * Add filter to the SeqScan that field f of its tuples is read from,
+     * following the field down through Filters and into the child of a
+     * join it comes from.  Filtering that scan on the field only drops
+     * tuples that could not have produced a joined tuple.
+     *
+     * @param filter the filter to add, or null to only find the scan
+     * @return the scan, or null if the field comes from anything else
+     */
+    static SeqScan pushDown(DbIterator it, int f, BloomFilter filter) {
+        while (true) {
+            if (it instanceof SeqScan) {
+                if (filter != null)
+                    ((SeqScan) it).addBloomFilter(f, filter);
+                return (SeqScan) it;
+            } else if (it instanceof Filter) {
+                it = ((Filter) it).getChildren()[0];
+            } else if (it instanceof Join || it instanceof HashEquiJoin) {
+                DbIterator[] children = ((Operator) it).getChildren();
+                int n1 = children[0].getTupleDesc().numFields();
+                if (f < n1) {
+                    it = children[0];
+                } else {
+                    it = children[1];
+                    f -= n1;
+                }
+            } else {
+                return null;
+            }
+        }
     }
 
     public void close() {
-        // some code goes here
+        super.close();
+        child1.close();
+        child2.close();
+        if (bloomScan != null)
+            bloomScan.removeBloomFilter(bloom);
+        bloomScan = null;
+        bloom = null;
+        table = null;
+        matches = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
+        child1.rewind();
+        matches = null;
     }
 
-    transient Iterator<Tuple> listIt = null;
+    private transient Tuple t1 = null;              //the outer tuple being joined
+    private transient Iterator<Tuple> matches = null; //its inner matches not yet returned
+
+    private Tuple joinTuples(Tuple t1, Tuple t2) {
+        TupleDesc joinedTD = getTupleDesc();
+        Tuple joinedTuple = new Tuple(joinedTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < joinedTD.numFields(); i++) {
+            if (i < n1)
+                joinedTuple.setField(i, t1.getField(i));
+            else
+                joinedTuple.setField(i, t2.getField(i - n1));
+        }
+        return joinedTuple;
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
-     * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * more tuples: the next inner tuple with the current outer tuple's key,
+     * or, once those run out, the first match of the next outer tuple with
+     * any.
      * <p/>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -76,19 +197,27 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        while (matches == null || !matches.hasNext()) {
+            if (!child1.hasNext())
+                return null;
+            t1 = child1.next();
+            ArrayList<Tuple> m = table.get(t1.getField(p.getField1()));
+            matches = m == null ? null : m.iterator();
+        }
+        return joinTuples(t1, matches.next());
     }
 
     @Override
     public DbIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new DbIterator[]{child1, child2};
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-        // some code goes here
+        if (children == null)
+            throw new NullPointerException();
+        child1 = children[0];
+        child2 = children[1];
     }
 
 }
@@ -0,0 +1,363 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is a secondary index on one field of a table, organized by
+ * linear hashing: an equality lookup reads the directory and then the one
+ * bucket its key hashes to, however large the index grows.  Like
+ * BTreeFile, its pages are read and locked through the BufferPool, and it
+ * is kept up to date by the BufferPool once registered with
+ * Catalog#addIndex.
+ * <p/>
+ * The index grows a bucket at a time.  Whenever the index is more than
+ * three quarters full, the bucket at the split pointer is split: its
+ * entries are divided between it and a new bucket at the end, by one more
+ * bit of their hash, and the pointer moves on.  Once every bucket of a
+ * level has been split, the number of bits goes up by one and the pointer
+ * starts again from bucket 0.  A bucket that overflows its page before its
+ * turn to split gets overflow pages, chained from its first page.
+ * <p/>
+ * Writers lock the directory only for reading, and the bucket pages they
+ * change for writing, so writers to different buckets do not wait for
+ * each other; only adding a bucket upgrades the directory lock.  A split
+ * is put off, rather than wait for that upgrade, while another
+ * transaction shares the directory: two writers upgrading at once would
+ * each wait for the other.  The next insert over the limit tries again.
+ * <p/>
+ * The number of entries that decides when to split is therefore kept in
+ * memory rather than in the directory, which just saves it whenever a
+ * bucket is added.  Each transaction's own changes to it are kept apart
+ * until the BufferPool reports that the transaction committed, and are
+ * dropped if it aborts (see transactionComplete), so a transaction sees
+ * the committed entries plus its own.
+ * <p/>
+ * Pages emptied by a split or by deletes stay in their bucket's chain and
+ * are filled again by later inserts.  The number of buckets is limited by
+ * what the directory page can list; past that, chains just grow longer.
+ * <p/>
+ * Only EQUALS lookups use the hash; other comparisons read every bucket.
+ * Tuples come out in no particular order.
+ *
+ * @see HashPage
+ * @see IndexScan
+ */
+public class HashFile extends PageFile<HashPage> implements IndexFile {
+
+    // split a bucket when the index is this full
+    private static final double MAX_LOAD = 0.75;
+
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc td;
+    private int count = -1;	//committed entries; -1 until read from the directory
+    private final HashMap<TransactionId, Integer> pending = new HashMap<TransactionId, Integer>();	//changes to count not committed yet
+
+    /**
+     * Constructs a hash index backed by the specified file.
+     *
+     * @param f        the file that stores the index's pages
+     * @param table    the indexed table
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     */
+    public HashFile(File f, DbFile table, int keyField) {
+        super(f);
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        this.td = table.getTupleDesc();
+    }
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the index of the indexed field in the table's TupleDesc
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return td.getFieldType(keyField);
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table, whose tuples this index
+     * returns.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    protected HashPage makePage(FilePageId pid, byte[] data) throws IOException {
+        return new HashPage(pid, data);
+    }
+
+    /**
+     * @return the bucket that key belongs to, given the directory's level
+     * and split pointer: the low level bits of its hash, or one more bit
+     * if that bucket has been split already
+     */
+    private static int bucketOf(HashPage directory, Field key) {
+        int h = key.hashCode();
+        //spread the high bits down, since only the low bits are used
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        int b = h & ((1 << directory.getLevel()) - 1);
+        if (b < directory.getNext())
+            b = h & ((1 << (directory.getLevel() + 1)) - 1);
+        return b;
+    }
+
+    private BTreePage.Entry entryFor(Tuple t) {
+        if (t.getRecordId() == null)
+            throw new IllegalArgumentException("Tuple is not stored in a table");
+        return new BTreePage.Entry(t.getField(keyField), t.getRecordId());
+    }
+
+    /**
+     * Add e to the first page of its bucket with room for it, chaining a
+     * new page to the bucket if they are all full.
+     */
+    private void addEntry(TransactionId tid, HashPage directory, BTreePage.Entry e, Set<Page> dirtied)
+            throws IOException, TransactionAbortedException, DbException {
+        HashPage page = getPage(tid, directory.getBucket(bucketOf(directory, e.key)), Permissions.READ_WRITE);
+        while (page.getNumEntries() == page.getMaxEntries()) {
+            if (page.getOverflow() == 0) {
+                HashPage overflow = newPage(tid);
+                page.setOverflow(overflow.getId().pageNumber());
+                dirtied.add(page);
+            }
+            page = getPage(tid, page.getOverflow(), Permissions.READ_WRITE);
+        }
+        page.addEntry(e);
+        dirtied.add(page);
+    }
+
+    /**
+     * Split the bucket at the split pointer into itself and a new bucket.
+     * The directory must be locked for writing.
+     */
+    private void split(TransactionId tid, HashPage directory, Set<Page> dirtied)
+            throws IOException, TransactionAbortedException, DbException {
+        ArrayList<BTreePage.Entry> moved = new ArrayList<BTreePage.Entry>();
+        int pageNo = directory.getBucket(directory.getNext());
+        while (pageNo != 0) {
+            HashPage page = getPage(tid, pageNo, Permissions.READ_WRITE);
+            moved.addAll(page.removeEntries());
+            dirtied.add(page);
+            pageNo = page.getOverflow();
+        }
+        directory.addBucket(newPage(tid).getId().pageNumber());
+        for (BTreePage.Entry e : moved)
+            addEntry(tid, directory, e, dirtied);
+    }
+
+    /**
+     * Note that tid added (delta 1) or removed (delta -1) an entry.
+     *
+     * @return the number of entries tid sees: the committed ones and its own
+     */
+    private synchronized int addToCount(TransactionId tid, HashPage directory, int delta) {
+        if (count < 0)
+            count = directory.getCount();
+        Integer mine = pending.get(tid);
+        int n = (mine == null ? 0 : mine) + delta;
+        pending.put(tid, n);
+        return count + n;
+    }
+
+    /**
+     * Called by the BufferPool when a transaction that locked pages of
+     * this index commits or aborts: its changes to the number of entries
+     * are kept or dropped.
+     */
+    synchronized void transactionComplete(TransactionId tid, boolean commit) {
+        Integer mine = pending.remove(tid);
+        if (mine != null && commit)
+            count += mine;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null)
+            throw new NullPointerException();
+
+        BTreePage.Entry e = entryFor(t);
+        //an empty index needs its first bucket; lock the directory for
+        //writing from the start rather than upgrade
+        HashPage directory = getPage(tid, 0, numPages() == 0 ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+        LinkedHashSet<Page> dirtied = new LinkedHashSet<Page>();
+        if (directory.getNumBuckets() == 0) {
+            directory = getPage(tid, 0, Permissions.READ_WRITE);
+            directory.addBucket(newPage(tid).getId().pageNumber());
+            dirtied.add(directory);
+        }
+
+        addEntry(tid, directory, e, dirtied);
+        int n = addToCount(tid, directory, 1);
+
+        int capacity = directory.getNumBuckets() * HashPage.maxEntries(getKeyType());
+        if (n > MAX_LOAD * capacity
+                && directory.getNumBuckets() < directory.getMaxBuckets()) {
+            //put the split off if another transaction shares the directory
+            HashPage locked = (HashPage) Database.getBufferPool().tryGetPage(tid,
+                    directory.getId(), Permissions.READ_WRITE);
+            if (locked != null) {
+                split(tid, locked, dirtied);
+                locked.setCount(n);
+                dirtied.add(locked);
+            }
+        }
+        return new ArrayList<Page>(dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null)
+            throw new NullPointerException();
+
+        BTreePage.Entry e = entryFor(t);
+        HashPage directory = getPage(tid, 0, Permissions.READ_ONLY);
+        if (directory.getNumBuckets() > 0) {
+            int pageNo = directory.getBucket(bucketOf(directory, e.key));
+            while (pageNo != 0) {
+                HashPage page = getPage(tid, pageNo, Permissions.READ_WRITE);
+                for (int i = 0; i < page.getNumEntries(); i++) {
+                    if (BTreeFile.compareEntries(page.getEntry(i), e) == 0) {
+                        page.deleteEntry(i);
+                        addToCount(tid, directory, -1);
+                        ArrayList<Page> rv = new ArrayList<Page>();
+                        rv.add(page);
+                        return rv;
+                    }
+                }
+                pageNo = page.getOverflow();
+            }
+        }
+        throw new DbException("Tuple is not in this index");
+    }
+
+    /**
+     * Returns an iterator over all the tuples of the indexed table.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the indexed table whose key
+     * satisfies (key op operand).  EQUALS reads only the bucket operand
+     * hashes to; any other op reads every bucket.
+     *
+     * @param tid     the transaction reading the index
+     * @param op      the comparison, or null for every tuple
+     * @param operand the value keys are compared to
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        return new HashIterator(tid, op, operand);
+    }
+
+    /**
+     * Reads a page at a time: the entries of a page are copied when the
+     * iterator reaches it, so that deleting the tuples it returns does not
+     * shift the rest under it.
+     */
+    private class HashIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field operand;
+        private ArrayList<Integer> buckets;	//the first page of each bucket to read
+        private int bucket;	//the next bucket to read
+        private ArrayList<BTreePage.Entry> entries;	//null when not open or exhausted
+        private int overflow;
+        private int pos;
+        private Tuple next;
+
+        public HashIterator(TransactionId tid, Predicate.Op op, Field operand) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            HashPage directory = getPage(tid, 0, Permissions.READ_ONLY);
+            buckets = new ArrayList<Integer>();
+            if (directory.getNumBuckets() > 0) {
+                if (op == Predicate.Op.EQUALS) {
+                    buckets.add(directory.getBucket(bucketOf(directory, operand)));
+                } else {
+                    for (int b = 0; b < directory.getNumBuckets(); b++)
+                        buckets.add(directory.getBucket(b));
+                }
+            }
+            bucket = 0;
+            entries = new ArrayList<BTreePage.Entry>();
+            overflow = 0;
+            pos = 0;
+            next = null;
+        }
+
+        private void readPage(int pageNo) throws DbException, TransactionAbortedException {
+            HashPage page = getPage(tid, pageNo, Permissions.READ_ONLY);
+            entries = new ArrayList<BTreePage.Entry>(page.getNumEntries());
+            for (int i = 0; i < page.getNumEntries(); i++)
+                entries.add(page.getEntry(i));
+            overflow = page.getOverflow();
+            pos = 0;
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            while (entries != null) {
+                while (pos < entries.size()) {
+                    BTreePage.Entry e = entries.get(pos++);
+                    if (op == null || e.key.compare(op, operand)) {
+                        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, e.rid.getPageId(), Permissions.READ_ONLY);
+                        Tuple t = page.getTuple(e.rid.tupleno());
+                        if (t != null)
+                            return t;
+                    }
+                }
+                if (overflow != 0)
+                    readPage(overflow);
+                else if (bucket < buckets.size())
+                    readPage(buckets.get(bucket++));
+                else
+                    entries = null;
+            }
+            return null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next == null)
+                next = readNext();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            entries = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * HashPage is a page of a HashFile: either its directory, which is always
+ * page 0, or a bucket page holding (key, RecordId) entries in no
+ * particular order.
+ * <p/>
+ * A bucket page starts with a header: a type byte (0), an integer entry
+ * count, and the page number of the next page of the same bucket (0 for
+ * none).  Entries follow, stored as in a BTreePage leaf.  An all-zero page
+ * is therefore an empty bucket page.
+ * <p/>
+ * The directory starts with a type byte (2), then the linear hashing state
+ * -- the level, the next bucket to split, and the number of entries in the
+ * index when a bucket was last added -- then the number of buckets and the page number of the first
+ * page of each.  An all-zero page 0 is the directory of an empty index,
+ * with no buckets yet.
+ *
+ * @see HashFile
+ */
+public class HashPage implements Page {
+
+    static final byte BUCKET = 0;
+    static final byte DIRECTORY = 2;
+    static final int HEADER_SIZE = 9;
+    static final int DIRECTORY_HEADER_SIZE = 17;
+
+    final FilePageId pid;
+    private final Type keyType;
+    private final int tableId;  // the indexed table, which RecordIds point into
+
+    private final boolean directory;
+    // bucket pages only
+    private int overflow;
+    private final ArrayList<BTreePage.Entry> entries = new ArrayList<BTreePage.Entry>();
+    // the directory only
+    private int level;
+    private int next;
+    private int count;
+    private final ArrayList<Integer> buckets = new ArrayList<Integer>();
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    byte[] oldData;     // the before image; null while it is the page as it is now
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashPage from a set of bytes of data read from disk, in the
+     * format described above.
+     */
+    public HashPage(FilePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        HashFile file = (HashFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.keyType = file.getKeyType();
+        this.tableId = file.getTableId();
+        this.directory = id.pageNumber() == 0;
+
+        ByteBuffer page = ByteBuffer.wrap(data);
+        byte type = page.get();
+        if (directory) {
+            if (type != DIRECTORY && type != 0)
+                throw new IOException("bad page type " + type + " on " + id);
+            level = page.getInt();
+            next = page.getInt();
+            count = page.getInt();
+            int n = page.getInt();
+            if (n < 0 || n > getMaxBuckets())
+                throw new IOException("bad bucket count " + n + " on " + id);
+            for (int i = 0; i < n; i++)
+                buckets.add(page.getInt());
+        } else {
+            if (type != BUCKET)
+                throw new IOException("bad page type " + type + " on " + id);
+            int n = page.getInt();
+            overflow = page.getInt();
+            if (n < 0 || n > getMaxEntries())
+                throw new IOException("bad entry count " + n + " on " + id);
+            for (int i = 0; i < n; i++) {
+                int offset = page.position();
+                Field key = keyType.parse(data, offset);
+                page.position(offset + keyType.getLen());
+                int pageNo = page.getInt();
+                int slot = page.getInt();
+                entries.add(new BTreePage.Entry(key, new RecordId(new HeapPageId(tableId, pageNo), slot)));
+            }
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the most entries a bucket page can hold
+     */
+    public int getMaxEntries() {
+        return maxEntries(keyType);
+    }
+
+    /**
+     * @return the most entries a bucket page with keys of type keyType can
+     * hold
+     */
+    static int maxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + BTreePage.RID_SIZE);
+    }
+
+    /**
+     * @return the most buckets the directory can list
+     */
+    public int getMaxBuckets() {
+        return (BufferPool.getPageSize() - DIRECTORY_HEADER_SIZE) / 4;
+    }
+
+    public FilePageId getId() {
+        return pid;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    public BTreePage.Entry getEntry(int i) {
+        return entries.get(i);
+    }
+
+    /**
+     * @return the page number of the next page of this bucket, or 0 if
+     * this is the last
+     */
+    public int getOverflow() {
+        return overflow;
+    }
+
+    void setOverflow(int pageNo) {
+        captureBeforeImage();
+        overflow = pageNo;
+    }
+
+    void addEntry(BTreePage.Entry e) {
+        captureBeforeImage();
+        entries.add(e);
+    }
+
+    void deleteEntry(int i) {
+        captureBeforeImage();
+        entries.remove(i);
+    }
+
+    /**
+     * Remove every entry from a bucket page, returning them.
+     */
+    ArrayList<BTreePage.Entry> removeEntries() {
+        captureBeforeImage();
+        ArrayList<BTreePage.Entry> rv = new ArrayList<BTreePage.Entry>(entries);
+        entries.clear();
+        return rv;
+    }
+
+    /**
+     * @return the number of times the initial bucket has been doubled
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the next bucket to split, below 2^level
+     */
+    public int getNext() {
+        return next;
+    }
+
+    /**
+     * @return the number of entries in the index when a bucket was last
+     * added
+     */
+    public int getCount() {
+        return count;
+    }
+
+    void setCount(int n) {
+        captureBeforeImage();
+        count = n;
+    }
+
+    public int getNumBuckets() {
+        return buckets.size();
+    }
+
+    /**
+     * @return the page number of the first page of bucket b
+     */
+    public int getBucket(int b) {
+        return buckets.get(b);
+    }
+
+    /**
+     * Add a bucket at the end of the directory, whose first page is
+     * pageNo, and move the split pointer past the bucket it was split
+     * from.  The very first bucket is not split from any.
+     */
+    void addBucket(int pageNo) {
+        captureBeforeImage();
+        buckets.add(pageNo);
+        if (buckets.size() > 1) {
+            next++;
+            if (next == 1 << level) {
+                level++;
+                next = 0;
+            }
+        }
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public HashPage getBeforeImage() {
+        try {
+            return new HashPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData != null ? oldData : getPageData();
+        }
+    }
+
+    /**
+     * The page as it is now becomes the before image.  It is only saved
+     * when the page next changes; see captureBeforeImage.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format described above.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        if (directory) {
+            page.put(DIRECTORY);
+            page.putInt(level);
+            page.putInt(next);
+            page.putInt(count);
+            page.putInt(buckets.size());
+            for (int b : buckets)
+                page.putInt(b);
+            return data;
+        }
+        page.put(BUCKET);
+        page.putInt(entries.size());
+        page.putInt(overflow);
+        for (BTreePage.Entry e : entries) {
+            int offset = page.position();
+            e.key.serialize(page);
+            page.position(offset + keyType.getLen());
+            page.putInt(e.rid.getPageId().pageNumber());
+            page.putInt(e.rid.tupleno());
+        }
+        return data;
+    }
+
+    public ByteBuffer getPageDataBuffer() {
+        return ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+}
@@ -1,14 +1,23 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor.  Tables with a VARCHAR_TYPE field are stored in SlottedPages
+ * instead, which hold variable-length records.  A HeapFile may also store
+ * its pages compressed (see pageTableFile).
  *
  * @author Sam Madden
  * @see simpledb.HeapPage#HeapPage
@@ -17,6 +26,61 @@ public class HeapFile implements DbFile {
 	
 	private File f;
 	private TupleDesc td;
+	private FileChannel channel;	//opened on first use, shared by all readers and writers
+	private final boolean memoryMapped;
+	private final boolean slotted;	//pages are SlottedPages rather than HeapPages
+	private final boolean compressed;	//pages are stored compressed, see pageTableFile
+	private volatile MappedByteBuffer map;	//read-only view of the file in memory-mapped mode
+	
+    /**
+     * Default number of pages a sequential scan reads ahead of itself: 0,
+     * so read-ahead is opt-in.  The pages it loads do not go through
+     * readPage, so a subclass that overrides readPage would not see them,
+     * and they take frames of the BufferPool that a small pool may need.
+     * Turn it on per file with setReadAheadWindow.
+     */
+    public static final int DEFAULT_READ_AHEAD_WINDOW = 0;
+    
+    // a scan counts as sequential once it has read this many pages in order
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+    private static final int READ_AHEAD_THREADS = 2;
+    
+    // shared by all HeapFiles; daemon threads, so they never keep the JVM up
+    private static final ExecutorService readAheadPool =
+    		Executors.newFixedThreadPool(READ_AHEAD_THREADS, new ThreadFactory(){
+    			public Thread newThread(Runnable r){
+    				Thread t = new Thread(r, "HeapFile read-ahead");
+    				t.setDaemon(true);
+    				return t;
+    			}
+    		});
+    
+    private volatile int readAheadWindow = DEFAULT_READ_AHEAD_WINDOW;
+    
+    // free-space map: the pages known to have no free slot, loaded from
+    // the map file on first use
+    private BitSet fullPages;
+    private RandomAccessFile freeSpaceMap;
+    
+    // zone map: the smallest and largest value of each INT field on each
+    // page, loaded from the zone map file on first use
+    private final int[] zoneSlots;	//the position of each field in a zone, or -1 if it is not an INT
+    private final int zoneFields;	//the number of INT fields
+    private ArrayList<int[]> zones;	//{min, max} per INT field for each page, or null if unknown
+    private RandomAccessFile zoneMap;
+    
+    // page table of a compressed file: the {offset, capacity} of each
+    // page's slot in the file, loaded from the page table file on first use
+    private static final int PAGE_TABLE_ENTRY_SIZE = 12;
+    private static final int SLOT_ALIGNMENT = 128;
+    private ArrayList<long[]> pageTable;
+    private RandomAccessFile pageTableOut;
+    
+    //scan statistics, see getScanStats()
+    private final AtomicLong pagesScanned = new AtomicLong();
+    private final AtomicLong readAheadRequests = new AtomicLong();
+    private final AtomicLong pagesReadAhead = new AtomicLong();
+    private final AtomicLong pagesSkipped = new AtomicLong();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -25,8 +89,111 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+    	this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally in
+     * memory-mapped mode.  A memory-mapped HeapFile maps the whole file and
+     * builds pages straight from slices of the mapping, so a BufferPool
+     * miss does not copy the page through a read buffer.  This suits
+     * read-mostly tables that fit in the OS page cache.  Pages are still
+     * written through the file channel, and the on-disk format is the same
+     * in both modes.
+     *
+     * @param f            the file that stores the on-disk backing store for
+     *                     this heap file.
+     * @param memoryMapped whether to read pages through a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+    	this(f, td, memoryMapped, null, false);
+    }
+
+    /**
+     * Constructs a heap file whose given STRING_TYPE fields are
+     * dictionary-encoded: each is stored in the pages as a 4-byte code in a
+     * StringDictionary of its own, kept in dictionaryFile(f, field).  Meant
+     * for categorical columns, with few distinct values.  A field must be
+     * encoded, or not, from the time the table is created.
+     *
+     * @param f                the file that stores the on-disk backing store
+     *                         for this heap file.
+     * @param dictionaryFields the fields to encode
+     * @throws IllegalArgumentException if a field to encode is not a
+     *                                  STRING_TYPE, or the table has a
+     *                                  VARCHAR_TYPE field
+     */
+    public HeapFile(File f, TupleDesc td, int[] dictionaryFields) {
+    	this(f, td, false, dictionaryFields, false);
+    }
+
+    /**
+     * Constructs a heap file whose pages are stored compressed, for tables
+     * that compress well when I/O rather than CPU is the bottleneck.  Each
+     * page is deflated on its way to disk and inflated on its way back, so
+     * it takes a fraction of a page of the file and of the I/O.  Pages are
+     * whole in the BufferPool, and the log holds them uncompressed as
+     * usual.  A file must be compressed, or not, from the time it is
+     * created.
+     *
+     * @param f                the file that stores the on-disk backing store
+     *                         for this heap file.
+     * @param dictionaryFields the fields to dictionary-encode (see
+     *                         HeapFile(File, TupleDesc, int[])), or null
+     * @param compressed       whether to store the pages compressed
+     * @see #pageTableFile
+     */
+    public HeapFile(File f, TupleDesc td, int[] dictionaryFields, boolean compressed) {
+    	this(f, td, false, dictionaryFields, compressed);
+    }
+
+    private HeapFile(File f, TupleDesc td, boolean memoryMapped, int[] dictionaryFields, boolean compressed) {
+    	if (dictionaryFields != null && dictionaryFields.length > 0){
+    		StringDictionary[] dictionaries = new StringDictionary[td.numFields()];
+    		for (int i = 0; i < td.numFields(); i++){
+    			if (td.getFieldType(i) == Type.VARCHAR_TYPE)
+    				throw new IllegalArgumentException("a table with VARCHAR_TYPE fields cannot have dictionary-encoded fields");
+    		}
+    		for (int field : dictionaryFields){
+    			if (td.getFieldType(field) != Type.STRING_TYPE)
+    				throw new IllegalArgumentException("field " + field + " is not a STRING_TYPE");
+    			dictionaries[field] = new StringDictionary(dictionaryFile(f, field));
+    		}
+    		td = td.withDictionaries(dictionaries);
+    	}
     	this.f = f;
     	this.td = td;
+    	this.memoryMapped = memoryMapped;
+    	this.compressed = compressed;
+    	boolean varchar = false;
+    	for (int i = 0; i < td.numFields(); i++){
+    		if (td.getFieldType(i) == Type.VARCHAR_TYPE)
+    			varchar = true;
+    	}
+    	this.slotted = varchar;
+    	
+    	this.zoneSlots = new int[td.numFields()];
+    	int n = 0;
+    	for (int i = 0; i < td.numFields(); i++){
+    		zoneSlots[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+    	}
+    	this.zoneFields = n;
+    }
+    
+    /**
+     * Build a page of this file from its bytes, in the page format of this
+     * file.
+     */
+    private TuplePage newPage(HeapPageId pid, byte[] data) throws IOException {
+    	if (slotted)
+    		return new SlottedPage(pid, data);
+    	return new HeapPage(pid, data);
+    }
+    
+    private TuplePage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+    	if (slotted)
+    		return new SlottedPage(pid, data);
+    	return new HeapPage(pid, data);
     }
 
     /**
@@ -60,28 +227,79 @@ public class HeapFile implements DbFile {
     	return this.td;
     }
     
+    /**
+     * Returns the channel used for all page I/O on this file, opening it
+     * on first use (or again, if it was closed by an interrupt).  Reads
+     * and writes are positional, so concurrent callers never share a file
+     * pointer.
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+    	if (channel == null || !channel.isOpen()){
+    		channel = new RandomAccessFile(f, "rw").getChannel();
+    	}
+    	return channel;
+    }
+    
+    /**
+     * Returns a read-only mapping covering at least the first end bytes of
+     * the file, remapping if the file has grown past the current mapping.
+     * Returns null if the file is shorter than end.
+     */
+    private synchronized MappedByteBuffer getMap(long end) throws IOException {
+    	if (map == null || map.capacity() < end){
+    		FileChannel ch = getChannel();
+    		long size = ch.size();
+    		if (size < end)
+    			return null;
+    		map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    	}
+    	return map;
+    }
+    
+    // write all of data at the given offset
+    private void writeAt(ByteBuffer buf, long offset) throws IOException {
+    	FileChannel ch = getChannel();
+    	int start = buf.position();
+    	while (buf.hasRemaining()){
+    		ch.write(buf, offset + buf.position() - start);
+    	}
+    }
+    
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         if (pid.getTableId() != getId())	//if different pages
         	throw new IllegalArgumentException("The given page is not in this table");
         
         try{
-        	InputStream input = new BufferedInputStream(new FileInputStream(f));
+        	if (compressed)
+        		return readCompressedPage((HeapPageId) pid);
         	
-        	byte[] data = new byte[BufferPool.getPageSize()];
+        	long offset = (long) pid.pageNumber() * BufferPool.getPageSize();
         	
-        	int offset = pid.pageNumber() * BufferPool.getPageSize();
+        	if (memoryMapped){
+        		MappedByteBuffer mapped = getMap(offset + BufferPool.getPageSize());
+        		if (mapped != null){
+        			ByteBuffer page = mapped.duplicate();
+        			page.position((int) offset);
+        			page.limit((int) offset + BufferPool.getPageSize());
+        			return newPage((HeapPageId) pid, page.slice());
+        		}
+        		//page is past the end of the file: read it like any other mode
+        	}
         	
-        	input.skip(offset);
+        	byte[] data = new byte[BufferPool.getPageSize()];
+        	ByteBuffer buf = ByteBuffer.wrap(data);
         	
-        	input.read(data);
-        	input.close();
+        	//keep reading until the page is full; past the end of the
+        	//file the rest of the page stays zeroed (an empty page)
+        	FileChannel ch = getChannel();
+        	while (buf.hasRemaining()){
+        		if (ch.read(buf, offset + buf.position()) < 0)
+        			break;
+        	}
         	
-        	return new HeapPage((HeapPageId) pid, data);
+        	return newPage((HeapPageId) pid, data);
         	}
-        catch (FileNotFoundException e){
-        	System.err.println("File not found");
-        }
         catch (IOException e1){
         	e1.printStackTrace();
         }
@@ -90,25 +308,565 @@ public class HeapFile implements DbFile {
         return null;
     }
 
+    /**
+     * Returns the file holding the page table of the compressed heap file f.
+     * <p/>
+     * A compressed HeapFile stores each page as a slot: the 4-byte length
+     * of the page's deflated image (see PageCompressor), then the image,
+     * padded to a multiple of 128 bytes.  The page table has a record per
+     * page of the slot's offset in the file (a long) and its capacity (an
+     * int); a capacity of 0 means the page was never written, and reads as
+     * an empty page.  A page that still fits its slot is rewritten in
+     * place.  One that has outgrown it is written to a new slot at the end
+     * of the file before its record is changed to point there, so the
+     * record always points at a whole image; the old slot is not reused.
+     */
+    public static File pageTableFile(File f) {
+    	return new File(f.getPath() + ".pt");
+    }
+    
+    private synchronized ArrayList<long[]> getPageTable() throws IOException {
+    	if (pageTable == null){
+    		pageTable = new ArrayList<long[]>();
+    		File tableFile = pageTableFile(f);
+    		if (tableFile.exists()){
+    			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(tableFile)));
+    			try{
+    				int records = (int) (tableFile.length() / PAGE_TABLE_ENTRY_SIZE);
+    				for (int i = 0; i < records; i++){
+    					long offset = in.readLong();
+    					pageTable.add(new long[]{offset, in.readInt()});
+    				}
+    			}
+    			finally{
+    				in.close();
+    			}
+    		}
+    	}
+    	return pageTable;
+    }
+    
+    /**
+     * Point the page table record of a page at a new slot, adding empty
+     * records for any pages between the end of the table and it.
+     */
+    private synchronized void setSlot(int pageNo, long offset, int capacity) throws IOException {
+    	ArrayList<long[]> table = getPageTable();
+    	if (pageTableOut == null)
+    		pageTableOut = new RandomAccessFile(pageTableFile(f), "rw");
+    	while (table.size() <= pageNo){
+    		table.add(new long[]{0, 0});
+    	}
+    	table.set(pageNo, new long[]{offset, capacity});
+    	
+    	ByteArrayOutputStream record = new ByteArrayOutputStream(PAGE_TABLE_ENTRY_SIZE);
+    	DataOutputStream out = new DataOutputStream(record);
+    	out.writeLong(offset);
+    	out.writeInt(capacity);
+    	long start = Math.min(pageTableOut.length(), (long) pageNo * PAGE_TABLE_ENTRY_SIZE);
+    	pageTableOut.seek(start);
+    	//records of pages skipped over are zero, meaning never written
+    	pageTableOut.write(new byte[(int) ((long) pageNo * PAGE_TABLE_ENTRY_SIZE - start)]);
+    	pageTableOut.write(record.toByteArray());
+    }
+    
+    private TuplePage readCompressedPage(HeapPageId pid) throws IOException {
+    	byte[] data = new byte[BufferPool.getPageSize()];
+    	long[] slot = null;
+    	synchronized (this){
+    		ArrayList<long[]> table = getPageTable();
+    		if (pid.pageNumber() < table.size())
+    			slot = table.get(pid.pageNumber());
+    	}
+    	
+    	//pages never written, and pages past the end, are empty
+    	if (slot != null && slot[1] > 0){
+    		ByteBuffer buf = ByteBuffer.allocate((int) slot[1]);
+    		FileChannel ch = getChannel();
+    		while (buf.hasRemaining()){
+    			if (ch.read(buf, slot[0] + buf.position()) < 0)
+    				break;
+    		}
+    		int length = buf.getInt(0);
+    		if (length < 0 || length > slot[1] - 4)
+    			throw new IOException("bad slot for page " + pid);
+    		PageCompressor.decompress(buf.array(), 4, length, data);
+    	}
+    	return newPage(pid, data);
+    }
+    
+    /**
+     * Write a page of a compressed file, in its slot if it fits there, or
+     * else in a new slot at the end of the file.
+     */
+    private void writeCompressedPage(int pageNo, ByteBuffer page) throws IOException {
+    	byte[] image = PageCompressor.compress(page);
+    	int capacity = (4 + image.length + SLOT_ALIGNMENT - 1) / SLOT_ALIGNMENT * SLOT_ALIGNMENT;
+    	ByteBuffer buf = ByteBuffer.allocate(capacity);
+    	buf.putInt(image.length);
+    	buf.put(image);
+    	
+    	synchronized (f){
+    		long[] slot = null;
+    		synchronized (this){
+    			ArrayList<long[]> table = getPageTable();
+    			if (pageNo < table.size())
+    				slot = table.get(pageNo);
+    		}
+    		if (slot != null && slot[1] >= 4 + image.length){
+    			buf.flip();
+    			writeAt(buf, slot[0]);
+    			return;
+    		}
+    		
+    		//the image goes to disk before the page table points at it
+    		buf.clear();
+    		long end = getChannel().size();
+    		writeAt(buf, end);
+    		setSlot(pageNo, end, capacity);
+    	}
+    }
+
+    /**
+     * Returns the file holding the free-space map of the heap file f.
+     * <p/>
+     * The map has one bit per page, set if the page is known to have no
+     * free slot, so inserts can go straight to a page with room.  Pages
+     * past the end of the map have their bit clear.  The map is only a
+     * hint and is not logged: insertTuple checks every page it is sent to,
+     * and corrects the map when it finds the page full.  A page an aborted
+     * insert filled gets its bit cleared when the abort restores it, in
+     * the BufferPool (see pageRestored) or on disk (by writePage).
+     */
+    public static File freeSpaceMapFile(File f) {
+    	return new File(f.getPath() + ".fsm");
+    }
+    
+    private synchronized BitSet getFullPages() throws IOException {
+    	if (fullPages == null){
+    		fullPages = new BitSet();
+    		File mapFile = freeSpaceMapFile(f);
+    		if (mapFile.exists()){
+    			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mapFile)));
+    			try{
+    				byte[] bits = new byte[(int) mapFile.length()];
+    				in.readFully(bits);
+    				for (int i = 0; i < bits.length * 8; i++){
+    					if (((bits[i / 8] >>> (i % 8)) & 1) == 1)
+    						fullPages.set(i);
+    				}
+    			}
+    			finally{
+    				in.close();
+    			}
+    		}
+    	}
+    	return fullPages;
+    }
+    
+    /**
+     * Returns the file holding the values of dictionary-encoded field field
+     * of the heap file f (see StringDictionary), itself a heap file.
+     */
+    public static File dictionaryFile(File f, int field) {
+    	return new File(f.getPath() + ".d" + field);
+    }
+
+    /**
+     * @return the dictionaries of the dictionary-encoded fields of this
+     * table, possibly none
+     */
+    public List<StringDictionary> getDictionaries() {
+    	ArrayList<StringDictionary> rv = new ArrayList<StringDictionary>();
+    	for (int i = 0; i < td.numFields(); i++){
+    		if (td.getDictionary(i) != null)
+    			rv.add(td.getDictionary(i));
+    	}
+    	return rv;
+    }
+
+    /**
+     * Returns the file holding the zone map of the heap file f.
+     * <p/>
+     * The zone map keeps, for each page, the smallest and largest value of
+     * every INT field among the tuples on the page, so a scan with a
+     * predicate can skip pages that cannot hold a match (see
+     * iterator(TransactionId, List)).  Each page has a record of a byte that
+     * is 1 if the page has a zone, followed by the minimum and maximum of
+     * each INT field in order.  Pages whose byte is 0, or past the end of
+     * the map, have no zone and are always read.
+     * <p/>
+     * Unlike the free-space map, the zone map must never be too narrow.
+     * Zones are only ever widened: by insertTuple and appendTuples, and by
+     * writePage, which writes a page's zone before the page itself, so
+     * pages restored by recovery are covered too.  Deletes leave zones as
+     * they are, so a zone may be wider than the page's tuples.
+     */
+    public static File zoneMapFile(File f) {
+    	return new File(f.getPath() + ".zm");
+    }
+    
+    private synchronized ArrayList<int[]> getZones() throws IOException {
+    	if (zones == null){
+    		zones = new ArrayList<int[]>();
+    		File mapFile = zoneMapFile(f);
+    		if (zoneFields > 0 && mapFile.exists()){
+    			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mapFile)));
+    			try{
+    				int records = (int) (mapFile.length() / zoneRecordSize());
+    				for (int i = 0; i < records; i++){
+    					boolean known = in.readByte() == 1;
+    					int[] zone = new int[2 * zoneFields];
+    					for (int j = 0; j < zone.length; j++){
+    						zone[j] = in.readInt();
+    					}
+    					zones.add(known ? zone : null);
+    				}
+    			}
+    			finally{
+    				in.close();
+    			}
+    		}
+    	}
+    	return zones;
+    }
+    
+    private int zoneRecordSize() {
+    	return 1 + 8 * zoneFields;
+    }
+    
+    /**
+     * Widen the zone of a page to cover a tuple just inserted on it, t, or,
+     * if t is null or the page has no zone yet, every tuple now on pg.  The
+     * zone's record is written to the zone map if it changes.
+     */
+    private synchronized void widenZone(int pageNo, TuplePage pg, Tuple t) throws IOException {
+    	if (zoneFields == 0)
+    		return;
+    	ArrayList<int[]> all = getZones();
+    	int[] zone = pageNo < all.size() ? all.get(pageNo) : null;
+    	boolean changed = zone == null;
+    	if (zone == null){
+    		//an empty zone, which nothing falls in
+    		zone = new int[2 * zoneFields];
+    		for (int i = 0; i < zoneFields; i++){
+    			zone[2 * i] = Integer.MAX_VALUE;
+    			zone[2 * i + 1] = Integer.MIN_VALUE;
+    		}
+    		t = null;
+    	}
+    	
+    	Iterator<Tuple> tuples = t != null ? Collections.singletonList(t).iterator() : pg.iterator();
+    	while (tuples.hasNext()){
+    		Tuple tuple = tuples.next();
+    		for (int i = 0; i < zoneSlots.length; i++){
+    			int slot = zoneSlots[i];
+    			if (slot < 0)
+    				continue;
+    			int v = ((IntField) tuple.getField(i)).getValue();
+    			if (v < zone[2 * slot]){
+    				zone[2 * slot] = v;
+    				changed = true;
+    			}
+    			if (v > zone[2 * slot + 1]){
+    				zone[2 * slot + 1] = v;
+    				changed = true;
+    			}
+    		}
+    	}
+    	if (!changed)
+    		return;
+    	
+    	while (all.size() <= pageNo){
+    		all.add(null);
+    	}
+    	all.set(pageNo, zone);
+    	ByteBuffer record = ByteBuffer.allocate(zoneRecordSize());
+    	record.put((byte) 1);
+    	for (int v: zone){
+    		record.putInt(v);
+    	}
+    	if (zoneMap == null)
+    		zoneMap = new RandomAccessFile(zoneMapFile(f), "rw");
+    	zoneMap.seek((long) pageNo * zoneRecordSize());
+    	zoneMap.write(record.array());
+    }
+    
+    /**
+     * Returns false if the zone map shows that no tuple on a page can
+     * satisfy all of predicates, and true otherwise.  Only predicates on
+     * INT fields with an IntField operand are looked at.
+     */
+    synchronized boolean mayMatch(int pageNo, List<Predicate> predicates) throws IOException {
+    	if (zoneFields == 0 || predicates.isEmpty())
+    		return true;
+    	ArrayList<int[]> all = getZones();
+    	int[] zone = pageNo < all.size() ? all.get(pageNo) : null;
+    	if (zone == null)
+    		return true;
+    	
+    	for (Predicate p: predicates){
+    		int slot = zoneSlots[p.getField()];
+    		if (slot < 0 || !(p.getOperand() instanceof IntField))
+    			continue;
+    		int min = zone[2 * slot];
+    		int max = zone[2 * slot + 1];
+    		int v = ((IntField) p.getOperand()).getValue();
+    		if (min > max)
+    			return false;	//the page was empty
+    		switch (p.getOp()){
+    		case EQUALS:
+    			if (v < min || v > max)
+    				return false;
+    			break;
+    		case NOT_EQUALS:
+    			if (v == min && v == max)
+    				return false;
+    			break;
+    		case LESS_THAN:
+    			if (min >= v)
+    				return false;
+    			break;
+    		case LESS_THAN_OR_EQ:
+    			if (min > v)
+    				return false;
+    			break;
+    		case GREATER_THAN:
+    			if (max <= v)
+    				return false;
+    			break;
+    		case GREATER_THAN_OR_EQ:
+    			if (max < v)
+    				return false;
+    			break;
+    		default:
+    			break;
+    		}
+    	}
+    	return true;
+    }
+    
+    /**
+     * Correct the free-space map for a page an abort has just put back as
+     * it was in the BufferPool, without writing it.
+     */
+    void pageRestored(Page page) throws IOException {
+    	setPageFull(page.getId().pageNumber(), ((TuplePage) page).getNumEmptySlots() == 0);
+    }
+    
+    /**
+     * Returns the first page at or after pageNo that may have a free slot.
+     * The result can be past the last page.
+     */
+    private synchronized int nextFreePage(int pageNo) throws IOException {
+    	return getFullPages().nextClearBit(pageNo);
+    }
+    
+    /**
+     * Record in the free-space map whether a page is full.  Only the byte
+     * holding the page's bit is written, and only if the bit changes.
+     */
+    private synchronized void setPageFull(int pageNo, boolean full) throws IOException {
+    	BitSet bits = getFullPages();
+    	if (bits.get(pageNo) == full)
+    		return;
+    	bits.set(pageNo, full);
+    	
+    	int b = 0;
+    	for (int i = 0; i < 8; i++){
+    		if (bits.get(pageNo / 8 * 8 + i))
+    			b |= 1 << i;
+    	}
+    	if (freeSpaceMap == null)
+    		freeSpaceMap = new RandomAccessFile(freeSpaceMapFile(f), "rw");
+    	freeSpaceMap.seek(pageNo / 8);
+    	freeSpaceMap.write(b);
+    }
+    
+    /**
+     * Read pages [start, end) with a single read and return them in order.
+     * Used for read-ahead, where the pages are not locked.
+     */
+    private List<TuplePage> readPages(int start, int end) throws IOException {
+    	List<TuplePage> pages = new ArrayList<TuplePage>(end - start);
+    	if (memoryMapped || compressed){
+    		for (int i = start; i < end; i++){
+    			pages.add((TuplePage) readPage(new HeapPageId(getId(), i)));
+    		}
+    		return pages;
+    	}
+    	
+    	int pageSize = BufferPool.getPageSize();
+    	ByteBuffer buf = ByteBuffer.allocate((end - start) * pageSize);
+    	long offset = (long) start * pageSize;
+    	FileChannel ch = getChannel();
+    	while (buf.hasRemaining()){
+    		if (ch.read(buf, offset + buf.position()) < 0)
+    			break;
+    	}
+    	
+    	for (int i = start; i < end; i++){
+    		buf.clear();
+    		buf.position((i - start) * pageSize);
+    		buf.limit((i - start + 1) * pageSize);
+    		pages.add(newPage(new HeapPageId(getId(), i), buf.slice()));
+    	}
+    	return pages;
+    }
+    
+    /**
+     * Ask the read-ahead threads to load pages [start, end) into the
+     * BufferPool.  This is only a hint: pages that cannot be added (see
+     * BufferPool.installPrefetchedPage) are dropped, and the scan reads them
+     * itself when it gets there.
+     */
+    private void readAhead(final int start, final int end) {
+    	final BufferPool pool = Database.getBufferPool();
+    	readAheadRequests.incrementAndGet();
+    	readAheadPool.execute(new Runnable(){
+    		public void run(){
+    			try{
+    				long writes = pool.getPageWriteCount();
+    				for (TuplePage page: readPages(start, end)){
+    					if (pool.installPrefetchedPage(page, writes))
+    						pagesReadAhead.incrementAndGet();
+    				}
+    			}
+    			catch (IOException e){
+    				//ignored: the scan will read the pages itself
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Sets the number of pages a sequential scan of this file reads ahead
+     * of itself.  0 turns read-ahead off.  A window of 16 to 32 pages suits
+     * scans of tables much larger than the BufferPool; getScanStats shows
+     * how many pages it loaded.
+     */
+    public void setReadAheadWindow(int pages) {
+    	if (pages < 0)
+    		throw new IllegalArgumentException("read-ahead window must not be negative");
+    	readAheadWindow = pages;
+    }
+    
+    public int getReadAheadWindow() {
+    	return readAheadWindow;
+    }
+    
+    /**
+     * Returns the statistics of the scans of this file so far.
+     */
+    public ScanStats getScanStats() {
+    	return new ScanStats(readAheadWindow, pagesScanned.get(), readAheadRequests.get(), pagesReadAhead.get(),
+    			pagesSkipped.get());
+    }
+    
+    /**
+     * A snapshot of the scan statistics of a HeapFile.
+     */
+    public static class ScanStats {
+    	private final int readAheadWindow;
+    	private final long pagesScanned;
+    	private final long readAheadRequests;
+    	private final long pagesReadAhead;
+    	private final long pagesSkipped;
+    	
+    	ScanStats(int readAheadWindow, long pagesScanned, long readAheadRequests, long pagesReadAhead,
+    			long pagesSkipped){
+    		this.readAheadWindow = readAheadWindow;
+    		this.pagesScanned = pagesScanned;
+    		this.readAheadRequests = readAheadRequests;
+    		this.pagesReadAhead = pagesReadAhead;
+    		this.pagesSkipped = pagesSkipped;
+    	}
+    	
+    	/** @return the read-ahead window, in pages */
+    	public int getReadAheadWindow(){
+    		return readAheadWindow;
+    	}
+    	
+    	/** @return the number of pages fetched by scans */
+    	public long getPagesScanned(){
+    		return pagesScanned;
+    	}
+    	
+    	/** @return the number of multi-page reads issued for read-ahead */
+    	public long getReadAheadRequests(){
+    		return readAheadRequests;
+    	}
+    	
+    	/** @return the number of pages read ahead into the BufferPool */
+    	public long getPagesReadAhead(){
+    		return pagesReadAhead;
+    	}
+    	
+    	/** @return the number of pages scans skipped using the zone map */
+    	public long getPagesSkipped(){
+    		return pagesSkipped;
+    	}
+    	
+    	public String toString(){
+    		return "window=" + readAheadWindow + " scanned=" + pagesScanned
+    				+ " readAheadRequests=" + readAheadRequests + " readAhead=" + pagesReadAhead
+    				+ " skipped=" + pagesSkipped;
+    	}
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
     	if (page.getId().getTableId() != getId())
     		throw new NoSuchElementException("page not in this table");
     	
-        RandomAccessFile file = new RandomAccessFile(f, "rw");
-        
-        file.seek(page.getId().pageNumber() * BufferPool.getPageSize());
-        file.write(page.getPageData());
-        file.close();
+    	//the zone must cover the page before the page is on disk
+    	widenZone(page.getId().pageNumber(), (TuplePage) page, null);
+    	if (compressed)
+    		writeCompressedPage(page.getId().pageNumber(), page.getPageDataBuffer());
+    	else
+    		writeAt(page.getPageDataBuffer(), (long) page.getId().pageNumber() * BufferPool.getPageSize());
+        //whatever is on disk now is the best guess for the free-space map
+        setPageFull(page.getId().pageNumber(), ((TuplePage) page).getNumEmptySlots() == 0);
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
+    	if (compressed){
+    		try{
+    			return getPageTable().size();
+    		}
+    		catch (IOException e){
+    			throw new RuntimeException(e);
+    		}
+    	}
         return (int) Math.ceil(f.length() / BufferPool.getPageSize());
     }
 
+    /**
+     * Returns t as this file stores it: t itself, or, if the table has
+     * dictionary-encoded fields, a copy of t with their values replaced by
+     * codes, adding new values to the dictionaries.  Called before any page
+     * is locked, since adding a value runs a transaction of its own, and
+     * the caller's tuple keeps its plain values.
+     */
+    private Tuple encodeFields(Tuple t) throws DbException {
+    	Tuple rv = t;
+    	for (int i = 0; i < td.numFields(); i++){
+    		StringDictionary dictionary = td.getDictionary(i);
+    		if (dictionary == null)
+    			continue;
+    		if (rv == t){
+    			rv = new Tuple(td);
+    			for (int j = 0; j < td.numFields(); j++)
+    				rv.setField(j, t.getField(j));
+    		}
+    		rv.setField(i, dictionary.encode(t.getField(i)));
+    	}
+    	return rv;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
@@ -119,44 +877,150 @@ public class HeapFile implements DbFile {
      	 //  throw new DbException("Tuple is not compatible with this table");
         
         ArrayList<Page> rv = new ArrayList<Page>();
+        Tuple stored = encodeFields(t);
         
-        int pageNo = 0;
-        //go through every existing pages to find an open slot
+        //go through the pages the free-space map says may have an open slot
+        int pageNo = nextFreePage(0);
         while (pageNo < numPages()){
         	HeapPageId pid = new HeapPageId(getId(), pageNo);
-        	HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        	TuplePage pg = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         	
-        	if (pg.getNumEmptySlots() != 0){
-        		pg.insertTuple(t);
+        	if (pg.hasRoomFor(stored)){
+        		pg.insertTuple(stored);
+        		widenZone(pageNo, pg, stored);
+        		if (pg.getNumEmptySlots() == 0)
+        			setPageFull(pageNo, true);
+        		t.setRecordId(stored.getRecordId());
         		rv.add(pg);
         		return rv;
         	}
         	
+        	//the map may be out of date (a SlottedPage can have room for
+        	//shorter tuples, though)
+        	setPageFull(pageNo, pg.getNumEmptySlots() == 0);
         	Database.getBufferPool().releasePage(tid, pid);
         	
-        	pageNo++;
+        	pageNo = nextFreePage(pageNo + 1);
         }
         
         //no empty slot on any page, make a new page
+        pageNo = numPages();
         HeapPageId newPageId = new HeapPageId(getId(), pageNo);
-        HeapPage newPage = new HeapPage(newPageId, HeapPage.createEmptyPageData());
+        TuplePage newPage = newPage(newPageId, HeapPage.createEmptyPageData());
 
         synchronized (f){
-	        BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(f, true));
-	        bos.write(newPage.getPageData());
-	        bos.flush();
-	        bos.close();
+        	//append at the end of the file
+        	if (compressed)
+        		writeCompressedPage(pageNo, newPage.getPageDataBuffer());
+        	else
+        		writeAt(newPage.getPageDataBuffer(), getChannel().size());
+        	if (memoryMapped){
+        		//the file grew, so map it again to cover the new page
+        		getMap(getChannel().size());
+        	}
         }
         
-        newPage = (HeapPage) Database.getBufferPool().getPage(tid, newPageId, Permissions.READ_WRITE);
+        newPage = (TuplePage) Database.getBufferPool().getPage(tid, newPageId, Permissions.READ_WRITE);
    
         // return modified page
-        newPage.insertTuple(t);
+        newPage.insertTuple(stored);
+        widenZone(pageNo, newPage, stored);
+        setPageFull(pageNo, newPage.getNumEmptySlots() == 0);
+        t.setRecordId(stored.getRecordId());
         rv.add(newPage); 
                 
         return rv;
     }
 
+    /**
+     * Returns the number of tuples that fit on one page of this file (at
+     * least that many, if tuples vary in length).
+     */
+    public int tuplesPerPage() {
+    	try{
+    		return newPage(new HeapPageId(getId(), 0), HeapPage.createEmptyPageData()).getNumEmptySlots();
+    	}
+    	catch (IOException e){
+    		throw new RuntimeException(e);
+    	}
+    }
+    
+    /**
+     * Bulk-load tuples on behalf of tid: pack them into new pages and
+     * append those to the end of the file with a single write.  Unlike
+     * insertTuple, this does not look for room on existing pages, and the
+     * pages never go through the BufferPool.
+     * <p/>
+     * The new pages are locked for tid and logged as one APPEND record (see
+     * LogFile#logAppend).  The log is forced before the pages are written,
+     * and the file is forced after, since the BufferPool's dirty page table
+     * (and so the next checkpoint) does not know about the new pages.
+     *
+     * @return the pages that were appended
+     */
+    public ArrayList<Page> appendTuples(TransactionId tid, List<Tuple> tuples)
+    		throws DbException, IOException, TransactionAbortedException {
+    	ArrayList<Page> rv = new ArrayList<Page>();
+    	if (tuples.isEmpty())
+    		return rv;
+    	int pageSize = BufferPool.getPageSize();
+    	ArrayList<Tuple> stored = new ArrayList<Tuple>(tuples.size());
+    	for (Tuple t: tuples){
+    		stored.add(encodeFields(t));
+    	}
+    	
+    	synchronized (f){
+    		int firstPage = numPages();
+    		TuplePage pg = null;
+    		Iterator<Tuple> given = tuples.iterator();
+    		for (Tuple t: stored){
+    			//fill each page before starting the next
+    			if (pg == null || !pg.hasRoomFor(t)){
+    				HeapPageId pid = new HeapPageId(getId(), firstPage + rv.size());
+    				Database.getBufferPool().getLockManager().acquireLock(pid, tid, Permissions.READ_WRITE);
+    				pg = newPage(pid, HeapPage.createEmptyPageData());
+    				rv.add(pg);
+    			}
+    			pg.insertTuple(t);
+    			given.next().setRecordId(t.getRecordId());
+    		}
+    		
+    		Database.getLogFile().logAppend(tid, rv);
+    		Database.getLogFile().force();
+    		
+    		for (Page p: rv){
+    			widenZone(p.getId().pageNumber(), (TuplePage) p, null);
+    		}
+    		FileChannel ch = getChannel();
+    		if (compressed){
+    			for (Page p: rv){
+    				writeCompressedPage(p.getId().pageNumber(), p.getPageDataBuffer());
+    			}
+    			ch.force(false);
+    			pageTableOut.getFD().sync();
+    		} else {
+    			ByteBuffer buf = ByteBuffer.allocate(rv.size() * pageSize);
+    			for (Page p: rv){
+    				buf.put(p.getPageDataBuffer());
+    			}
+    			buf.flip();
+    			long offset = (long) firstPage * pageSize;
+    			while (buf.hasRemaining()){
+    				offset += ch.write(buf, offset);
+    			}
+    			ch.force(false);
+    		}
+    		if (memoryMapped){
+    			getMap(ch.size());
+    		}
+    		
+    		for (Page p: rv){
+    			setPageFull(p.getId().pageNumber(), ((TuplePage) p).getNumEmptySlots() == 0);
+    		}
+    	}
+    	return rv;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -171,9 +1035,15 @@ public class HeapFile implements DbFile {
        
        ArrayList<Page> rv = new ArrayList<Page>();
        
-       HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+       TuplePage pg = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
        
        pg.deleteTuple(t);
+       try{
+    	   setPageFull(pid.pageNumber(), false);
+       }
+       catch (IOException e){
+    	   throw new DbException("could not update the free-space map: " + e.getMessage());
+       }
        
        rv.add(pg);
        
@@ -182,7 +1052,20 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new fileIterator(tid);
+        return new fileIterator(tid, Collections.<Predicate>emptyList());
+    }
+    
+    /**
+     * Returns an iterator over the tuples of this file that skips the pages
+     * the zone map shows cannot hold a tuple satisfying all of predicates.
+     * The tuples of the pages it does read are all returned, whether or not
+     * they satisfy the predicates, so the caller must still filter them.
+     *
+     * @param predicates predicates on the fields of this file's TupleDesc
+     * @see #zoneMapFile
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new fileIterator(tid, new ArrayList<Predicate>(predicates));
     }
     
     //private inner helper class for iterator
@@ -191,12 +1074,16 @@ public class HeapFile implements DbFile {
     	private int currPageNo;	//the page number of the page currently being iterated over
     	private Iterator<Tuple> tuplesCurrPage;	//the tuple iterator of the current page
     	private TransactionId tid;
+    	private int sequentialRun;	//number of pages read in order so far
+    	private int readAheadEnd;	//pages below this have been read ahead already
+    	private List<Predicate> predicates;	//pages that cannot satisfy these are skipped
     	
     	//constructor
-    	public fileIterator(TransactionId tid){
+    	public fileIterator(TransactionId tid, List<Predicate> predicates){
     		this.currPageNo = 0;
     		this.tuplesCurrPage = null;
     		this.tid = tid;
+    		this.predicates = predicates;
     	}
     	
     	public void open() throws DbException, TransactionAbortedException{
@@ -204,8 +1091,48 @@ public class HeapFile implements DbFile {
     			throw new DbException("No page to open an iterator");
     		
     		//Able to open
-    		HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), currPageNo), Permissions.READ_ONLY);
-    		tuplesCurrPage = pg.iterator();
+    		sequentialRun = 0;
+    		readAheadEnd = 0;
+    		skipPages();
+    		if (currPageNo < numPages())
+    			tuplesCurrPage = fetchPage().iterator();
+    		else
+    			tuplesCurrPage = Collections.<Tuple>emptyList().iterator();
+    	}
+    	
+    	//move currPageNo past any pages the zone map rules out
+    	private void skipPages() throws DbException{
+    		try{
+    			while (currPageNo < numPages() && !mayMatch(currPageNo, predicates)){
+    				currPageNo++;
+    				pagesSkipped.incrementAndGet();
+    				//a skip ends the sequential run
+    				sequentialRun = 0;
+    			}
+    		}
+    		catch (IOException e){
+    			throw new DbException("could not read the zone map: " + e.getMessage());
+    		}
+    	}
+    	
+    	//get the current page, reading ahead once the scan is sequential
+    	private TuplePage fetchPage() throws DbException, TransactionAbortedException{
+    		sequentialRun++;
+    		pagesScanned.incrementAndGet();
+    		
+    		int window = readAheadWindow;
+    		//refill the window once half of it has been consumed
+    		if (window > 0 && sequentialRun >= SEQUENTIAL_THRESHOLD
+    				&& currPageNo + window / 2 >= readAheadEnd){
+    			int start = Math.max(currPageNo + 1, readAheadEnd);
+    			int end = Math.min(currPageNo + 1 + window, numPages());
+    			if (start < end){
+    				readAheadEnd = end;
+    				readAhead(start, end);
+    			}
+    		}
+    		
+    		return (TuplePage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), currPageNo), Permissions.READ_ONLY);
     	}
     	
     	public boolean hasNext() throws DbException, TransactionAbortedException{
@@ -219,15 +1146,17 @@ public class HeapFile implements DbFile {
     		
     		//No tuple left on this page, move to the next page
     		currPageNo++;
+    		skipPages();
     		
     		//keep checking through every page to find a tuple
     		while (currPageNo < numPages()){    		
-	    		HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), currPageNo), Permissions.READ_ONLY);
-	    		tuplesCurrPage = pg.iterator();
+	    		tuplesCurrPage = fetchPage().iterator();
 	    		if (tuplesCurrPage.hasNext())
 	    			return true;
-	    		else
+	    		else{
 	    			currPageNo++;
+	    			skipPages();
+	    		}
     		}
     		
     		//finished checking every page but failed to find a tuple
@@ -247,9 +1176,9 @@ public class HeapFile implements DbFile {
     	}
     	
     	public void close(){
+    		//tid is kept, so rewind can open the iterator again
     		currPageNo = 0;
     		tuplesCurrPage = null;
-    		tid = null;
     	}
     }
 
@@ -2,6 +2,13 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -9,47 +16,76 @@ import java.util.ArrayList;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p/>
+ * Large text files can be converted with convertParallel, which parses and
+ * encodes chunks of the input on several threads.
  */
 
 public class HeapFileEncoder {
 
+    /**
+     * Number of pages' worth of input lines convertParallel hands to a
+     * worker at a time.
+     */
+    public static final int PAGES_PER_CHUNK = 64;
+
     /**
      * Convert the specified tuple list (with only integer fields) into a binary
      * page file. <br>
      * <p/>
      * The format of the output file will be as specified in HeapPage and
      * HeapFile.
+     * <p/>
+     * Empty tuples are skipped.  A tuple with some but not all of its fields
+     * is rejected: it used to be encoded as a short record, which shifted
+     * every later record and page of the file.
      *
      * @param tuples     the tuples - a list of tuples, each represented by a list of integers that are
      *                   the field values for that tuple.
      * @param outFile    The output file to write data to
      * @param npagebytes The number of bytes per page in the output file
      * @param numFields  the number of fields in each input tuple
-     * @throws IOException if the temporary/output file can't be opened
+     * @throws IOException if the output file can't be opened
+     * @throws RuntimeException if a tuple has more than numFields fields,
+     *                          or fewer but more than none
      * @see HeapPage
      * @see HeapFile
      */
     public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
-        File tempInput = File.createTempFile("tempTable", ".txt");
-        tempInput.deleteOnExit();
-        BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-        for (ArrayList<Integer> tuple : tuples) {
-            int writtenFields = 0;
-            for (Integer field : tuple) {
-                writtenFields++;
-                if (writtenFields > numFields) {
+        // the tuples are encoded straight into pages; there is no need to
+        // print them to a text file and parse them back
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+        deleteStaleFiles(outFile, numFields);
+        try {
+            PageBuilder page = new PageBuilder(npagebytes, numFields * Type.INT_TYPE.getLen());
+            for (ArrayList<Integer> tuple : tuples) {
+                if (tuple.isEmpty()) {
+                    // printed as a blank line, which was always skipped
+                    continue;
+                }
+                if (tuple.size() > numFields) {
                     throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
                             Utility.listToString(tuple) + ")");
                 }
-                bw.write(String.valueOf(field));
-                if (writtenFields < numFields) {
-                    bw.write(',');
+                if (tuple.size() < numFields) {
+                    throw new RuntimeException("Tuple has fewer than " + numFields + " fields: (" +
+                            Utility.listToString(tuple) + ")");
+                }
+                for (Integer field : tuple) {
+                    page.body.writeInt(field);
+                }
+                page.recordDone();
+                if (page.isFull()) {
+                    os.write(page.finish());
                 }
             }
-            bw.write('\n');
+            // flush the last page; an empty file still gets one empty page
+            if (page.recordcount > 0 || tuples.isEmpty()) {
+                os.write(page.finish());
+            }
+        } finally {
+            os.close();
         }
-        bw.close();
-        convert(tempInput, outFile, npagebytes, numFields);
     }
 
     public static void convert(File inFile, File outFile, int npagebytes,
@@ -92,6 +128,7 @@ public class HeapFileEncoder {
     public static void convert(File inFile, File outFile, int npagebytes,
                                int numFields, Type[] typeAr, char fieldSeparator)
             throws IOException {
+        checkFixedLength(typeAr);
 
         int nrecbytes = 0;
         for (int i = 0; i < numFields; i++) {
@@ -108,6 +145,7 @@ public class HeapFileEncoder {
 
         BufferedReader br = new BufferedReader(new FileReader(inFile));
         FileOutputStream os = new FileOutputStream(outFile);
+        deleteStaleFiles(outFile, numFields);
 
         // our numbers probably won't be much larger than 1024 digits
         char buf[] = new char[1024];
@@ -224,4 +262,228 @@ public class HeapFileEncoder {
         br.close();
         os.close();
     }
+
+    /**
+     * Convert the specified input text file into a binary page file, like
+     * convert(File, File, int, int, Type[], char), but parsing and encoding
+     * the input on numThreads worker threads.
+     * <p/>
+     * The input is read one line at a time and cut into chunks of
+     * PAGES_PER_CHUNK pages' worth of lines.  Each chunk is encoded into
+     * complete pages by a worker, and the caller writes the encoded chunks to
+     * outFile in input order, so the output is the same as a sequential
+     * conversion.  At most 2 * numThreads chunks are in memory at a time.
+     * <p/>
+     * Blank lines are skipped.  Unlike convert, a final line without a
+     * trailing newline is kept, and a malformed field fails the conversion
+     * rather than being skipped.
+     *
+     * @param inFile         The input file to read data from
+     * @param outFile        The output file to write data to
+     * @param npagebytes     The number of bytes per page in the output file
+     * @param numFields      the number of fields in each input line/output tuple
+     * @param typeAr         the type of each field
+     * @param fieldSeparator the character between fields on a line
+     * @param numThreads     the number of threads that encode pages
+     * @throws IOException if the input/output file can't be opened or a
+     *                     malformed input line is encountered
+     */
+    public static void convertParallel(File inFile, File outFile, int npagebytes,
+                                       final int numFields, final Type[] typeAr, final char fieldSeparator,
+                                       int numThreads) throws IOException {
+        checkFixedLength(typeAr);
+        int nrecbytes = 0;
+        for (int i = 0; i < numFields; i++) {
+            nrecbytes += typeAr[i].getLen();
+        }
+        final int recordBytes = nrecbytes;
+        final int pageBytes = npagebytes;
+        int linesPerChunk = PAGES_PER_CHUNK * new PageBuilder(npagebytes, nrecbytes).nrecords;
+
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+        BufferedReader br = new BufferedReader(new FileReader(inFile));
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+        deleteStaleFiles(outFile, numFields);
+        try {
+            boolean wrotePage = false;
+            List<String> chunk = new ArrayList<String>(linesPerChunk);
+            String line;
+            do {
+                line = br.readLine();
+                if (line != null && line.trim().length() > 0) {
+                    chunk.add(line);
+                }
+                if (chunk.size() == linesPerChunk || line == null && !chunk.isEmpty()) {
+                    final List<String> lines = chunk;
+                    pending.add(workers.submit(new Callable<byte[]>() {
+                        public byte[] call() throws IOException {
+                            return encodeLines(lines, pageBytes, recordBytes,
+                                    numFields, typeAr, fieldSeparator);
+                        }
+                    }));
+                    chunk = new ArrayList<String>(linesPerChunk);
+                }
+                // the single writer: write finished chunks in input order,
+                // waiting for the oldest once too many are outstanding
+                while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() >= 2 * numThreads
+                        || line == null)) {
+                    os.write(getChunk(pending.poll()));
+                    wrotePage = true;
+                }
+            } while (line != null);
+            if (!wrotePage) {
+                // an empty file still gets one empty page
+                os.write(new PageBuilder(npagebytes, nrecbytes).finish());
+            }
+        } finally {
+            workers.shutdownNow();
+            br.close();
+            os.close();
+        }
+    }
+
+    /**
+     * Delete what an earlier heap file named outFile left beside it: its
+     * free-space map, zone map and page table, and the dictionaries of its
+     * fields (see HeapFile#dictionaryFile).  None of them describes the file
+     * about to be written.
+     */
+    private static void deleteStaleFiles(File outFile, int numFields) {
+        deleteSideFiles(outFile);
+        for (int i = 0; i < numFields; i++) {
+            File dictionary = HeapFile.dictionaryFile(outFile, i);
+            dictionary.delete();
+            deleteSideFiles(dictionary);
+        }
+    }
+
+    private static void deleteSideFiles(File f) {
+        HeapFile.freeSpaceMapFile(f).delete();
+        HeapFile.zoneMapFile(f).delete();
+        HeapFile.pageTableFile(f).delete();
+    }
+
+    /**
+     * Tables with varchar fields are stored in SlottedPages, which this
+     * encoder does not write; load them with Insert instead.
+     */
+    private static void checkFixedLength(Type[] typeAr) {
+        for (Type t : typeAr) {
+            if (t == Type.VARCHAR_TYPE) {
+                throw new IllegalArgumentException("HeapFileEncoder cannot encode varchar fields");
+            }
+        }
+    }
+
+    private static byte[] getChunk(Future<byte[]> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while encoding pages");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Encode lines of delimited text into consecutive pages.  Every page
+     * but the last one is full.
+     */
+    private static byte[] encodeLines(List<String> lines, int npagebytes, int nrecbytes,
+                                      int numFields, Type[] typeAr, char fieldSeparator) throws IOException {
+        PageBuilder page = new PageBuilder(npagebytes, nrecbytes);
+        ByteArrayOutputStream pages = new ByteArrayOutputStream(
+                (lines.size() / page.nrecords + 1) * npagebytes);
+        String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+        for (String line : lines) {
+            String[] fields = line.split(separator, -1);
+            if (fields.length != numFields) {
+                throw new IOException("Expected " + numFields + " fields but found "
+                        + fields.length + ": " + line);
+            }
+            for (int i = 0; i < numFields; i++) {
+                String s = fields[i].trim();
+                if (typeAr[i] == Type.INT_TYPE) {
+                    try {
+                        page.body.writeInt(Integer.parseInt(s));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Bad integer " + s + " in line: " + line);
+                    }
+                } else if (typeAr[i] == Type.STRING_TYPE) {
+                    int overflow = Type.STRING_LEN - s.length();
+                    if (overflow < 0) {
+                        s = s.substring(0, Type.STRING_LEN);
+                    }
+                    page.body.writeInt(s.length());
+                    page.body.writeBytes(s);
+                    while (overflow-- > 0)
+                        page.body.write((byte) 0);
+                }
+            }
+            page.recordDone();
+            if (page.isFull()) {
+                pages.write(page.finish());
+            }
+        }
+        if (page.recordcount > 0) {
+            pages.write(page.finish());
+        }
+        return pages.toByteArray();
+    }
+
+    /**
+     * Collects the records of one page and lays the page out: the header
+     * bits of the used slots, the records, then zero padding.
+     */
+    private static class PageBuilder {
+        final int npagebytes;
+        final int nrecbytes;
+        final int nrecords;
+        final int nheaderbytes;
+        int recordcount = 0;
+        private ByteArrayOutputStream bodyBAOS;
+        DataOutputStream body;
+
+        PageBuilder(int npagebytes, int nrecbytes) {
+            this.npagebytes = npagebytes;
+            this.nrecbytes = nrecbytes;
+            this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
+            this.nheaderbytes = (nrecords + 7) / 8;
+            reset();
+        }
+
+        private void reset() {
+            bodyBAOS = new ByteArrayOutputStream(npagebytes);
+            body = new DataOutputStream(bodyBAOS);
+            recordcount = 0;
+        }
+
+        void recordDone() {
+            recordcount++;
+        }
+
+        boolean isFull() {
+            return recordcount >= nrecords;
+        }
+
+        /**
+         * @return the bytes of the page, after which the builder starts on
+         * a new, empty page
+         */
+        byte[] finish() throws IOException {
+            byte[] page = new byte[npagebytes];
+            for (int i = 0; i < recordcount; i++) {
+                page[i / 8] |= (byte) (1 << (i % 8));
+            }
+            body.flush();
+            byte[] records = bodyBAOS.toByteArray();
+            System.arraycopy(records, 0, page, nheaderbytes, records.length);
+            reset();
+            return page;
+        }
+    }
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -10,18 +11,25 @@ import java.io.*;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    final Tuple tuples[];	//tuples inserted or decoded since the page was read
+    private final BitSet views;	//slots whose tuple was created by tuple(), as a view of the slot's bytes
+    final ByteBuffer data;	//the page as read, never modified: the array it was built from, or a mapped slice
+    private final byte[] dataArray;	//data's bytes if the page was built from an array, else null
+    private byte image[];	//the page as last serialized, once it differs from data
+    private final BitSet dirtySlots;	//slots changed since image was brought up to date
+    private boolean imageStale;
     final int numSlots;
+    private int numEmptySlots;	//kept up to date by markSlotUsed
     
     private boolean dirty;
     private TransactionId tid;
 
-    byte[] oldData;
+    byte[] oldData;	//the before image; null while it is the page as it is now
     private final Byte oldDataLock = new Byte((byte) 0);
 
     /**
@@ -36,35 +44,81 @@ public class HeapPage implements Page {
      * <p/>
      * ceiling(no. tuple slots / 8)
      * <p/>
+     * Only the header is parsed here.  The page keeps data (without copying
+     * it, so the caller must not modify it afterwards) and decodes a tuple's
+     * fields only when they are asked for.
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data), data);
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page's bytes, from the
+     * buffer's position on, such as a slice of a memory-mapped HeapFile.
+     * The page itself is not copied: fields are read straight from the
+     * buffer, and the page's bytes are only copied out when it is first
+     * modified (or an array of them is asked for).  The buffer's position
+     * is left untouched.
+     * <p/>
+     * A mapping shows the file's bytes as they are now.  The page reads
+     * them only while its lock is held, and while the page is cached the
+     * file only changes when the BufferPool writes this very page, which
+     * leaves its unchanged slots as they were.  The tuples it hands out
+     * can be kept after the lock is released, though, and by then the
+     * slot may have been changed and written, even before the writer
+     * commits, when the BufferPool steals the page.  So a tuple of a
+     * buffer without an array is a view of a copy of its slot, taken when
+     * the tuple is created, rather than of the buffer.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, null);
+    }
+
+    private HeapPage(HeapPageId id, ByteBuffer buf, byte[] array) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
+        if (buf.remaining() < BufferPool.getPageSize())
+        	throw new IOException("Page data is shorter than a page");
+        ByteBuffer slice = buf.slice();
+        slice.limit(BufferPool.getPageSize());
+        this.data = slice;
+        this.dataArray = array;
+
+        // copy the header, which changes as tuples come and go
         header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        data.duplicate().get(header);
+        numEmptySlots = numSlots;
+        for (int i = 0; i < numSlots; i++){
+        	if (isSlotUsed(i))
+        		numEmptySlots--;
+        }
 
+        // filled in lazily by tuple()
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        views = new BitSet(numSlots);
+        dirtySlots = new BitSet(numSlots);
 
         setBeforeImage();
     }
 
+    /**
+     * @return a copy of the bytes the page was read from
+     */
+    private byte[] copyOfData() {
+        if (dataArray != null)
+            return dataArray.clone();
+        byte[] bytes = new byte[BufferPool.getPageSize()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
     /**
      * Retrieve the number of tuples on this page.
      *
@@ -92,7 +146,7 @@ public class HeapPage implements Page {
         try {
             byte[] oldDataRef = null;
             synchronized (oldDataLock) {
-                oldDataRef = oldData;
+                oldDataRef = oldData != null ? oldData : getPageData();
             }
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
@@ -103,9 +157,35 @@ public class HeapPage implements Page {
         return null;
     }
 
+    public byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData != null ? oldData : currentImage();
+        }
+    }
+
+    /**
+     * The page as it is now becomes the before image.  Nothing is copied
+     * until the page next changes; see captureBeforeImage.
+     */
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = null;
+        }
+    }
+
+    /**
+     * Called before every change to the page: the first change after
+     * setBeforeImage saves the page's bytes as the before image.
+     */
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                if (!imageStale && image == null)
+                    //data is never modified, so its array can be shared
+                    oldData = dataArray != null ? dataArray : copyOfData();
+                else
+                    oldData = currentImage().clone();
+            }
         }
     }
 
@@ -117,37 +197,133 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset in data of the first byte of slot i
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    private int slotOffset(int i) {
+        return header.length + i * td.getSize();
+    }
+
+    /**
+     * @return true if slot i holds the tuple that was in it when the page
+     * was read, untouched, so it can be read straight from data
+     */
+    private boolean isOriginal(int i) {
+        Tuple t = tuples[i];
+        return t == null || (views.get(i) && t.isView());
+    }
+
+    /**
+     * Returns the tuple in slot i, which must be in use.  A tuple that is
+     * still as it was read is created on first use as a view of data, or
+     * of a copy of its slot if data is a mapping, and decodes its fields
+     * as they are asked for.
+     */
+    private Tuple tuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            if (dataArray != null) {
+                t = new Tuple(td, new RecordId(pid, i), data, slotOffset(i));
+            } else {
+                byte[] slot = new byte[td.getSize()];
+                ByteBuffer bytes = data.duplicate();
+                bytes.position(slotOffset(i));
+                bytes.get(slot);
+                t = new Tuple(td, new RecordId(pid, i), ByteBuffer.wrap(slot), 0);
             }
-            return null;
+            tuples[i] = t;
+            views.set(i);
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    public Tuple getTuple(int i) {
+        return i >= 0 && i < numSlots && isSlotUsed(i) ? tuple(i) : null;
+    }
+
+    /**
+     * Returns field j of the tuple in slot i, decoding only that field.
+     *
+     * @throws NoSuchElementException if slot i is empty
+     */
+    public Field getField(int i, int j) {
+        if (!isSlotUsed(i))
+            throw new NoSuchElementException("Slot " + i + " is empty");
+        return tuple(i).getField(j);
+    }
+
+    /**
+     * Returns int field j of the tuple in slot i, read straight from the
+     * page bytes when the tuple has not changed since the page was read.
+     *
+     * @throws NoSuchElementException if slot i is empty
+     */
+    public int getInt(int i, int j) {
+        if (!isSlotUsed(i))
+            throw new NoSuchElementException("Slot " + i + " is empty");
+        if (td.getFieldType(j) != Type.INT_TYPE)
+            throw new IllegalArgumentException("Field " + j + " is not an int");
+        if (isOriginal(i))
+            return data.getInt(slotOffset(i) + td.getFieldOffset(j));
+        return ((IntField) tuples[i].getField(j)).getValue();
+    }
+
+    /**
+     * Returns string field j of the tuple in slot i, read straight from the
+     * page bytes when the tuple has not changed since the page was read.
+     *
+     * @throws NoSuchElementException if slot i is empty
+     */
+    public String getString(int i, int j) {
+        if (!isSlotUsed(i))
+            throw new NoSuchElementException("Slot " + i + " is empty");
+        if (td.getFieldType(j) != Type.STRING_TYPE)
+            throw new IllegalArgumentException("Field " + j + " is not a string");
+        if (isOriginal(i) && td.getDictionary(j) == null)
+            return Type.readString(data, slotOffset(i) + td.getFieldOffset(j));
+        return ((StringField) tuple(i).getField(j)).getValue();
+    }
+
+    /**
+     * Brings image up to date and returns it.  Only the header and the
+     * slots changed since the last call are written; everything else was
+     * serialized before, or is still as it was read.  Until the page first
+     * changes, its image is data's array itself, or a copy of a mapped
+     * page's bytes made on first use.
+     */
+    private byte[] currentImage() {
+        if (!imageStale) {
+            if (image == null && dataArray != null)
+                return dataArray;
+            if (image == null)
+                image = copyOfData();
+            return image;
         }
+        if (image == null)
+            image = copyOfData();
 
-        return t;
+        System.arraycopy(header, 0, image, 0, header.length);
+        ByteBuffer buf = ByteBuffer.wrap(image);
+        for (int i = dirtySlots.nextSetBit(0); i >= 0; i = dirtySlots.nextSetBit(i + 1)) {
+            int offset = slotOffset(i);
+            if (!isSlotUsed(i)) {
+                Arrays.fill(image, offset, offset + td.getSize(), (byte) 0);
+            } else if (isOriginal(i)) {
+                ByteBuffer slot = data.duplicate();
+                slot.position(offset);
+                slot.get(image, offset, td.getSize());
+            } else {
+                buf.position(offset);
+                for (int j = 0; j < td.numFields(); j++) {
+                    if (td.getDictionary(j) != null)
+                        buf.putInt(td.getDictionary(j).codeOf(tuples[i].getField(j)));
+                    else
+                        tuples[i].getField(j).serialize(buf);
+                }
+            }
+        }
+        dirtySlots.clear();
+        imageStale = false;
+        return image;
     }
 
     /**
@@ -157,69 +333,23 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p/>
+     * The page keeps its serialized image up to date slot by slot, so this
+     * is a single copy.
      *
      * @return A byte array correspond to the bytes of this page.
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (!imageStale && image == null)
+            return copyOfData();
+        return currentImage().clone();
+    }
 
-        return baos.toByteArray();
+    public ByteBuffer getPageDataBuffer() {
+        if (!imageStale && image == null)
+            return data.asReadOnlyBuffer();
+        return ByteBuffer.wrap(currentImage()).asReadOnlyBuffer();
     }
 
     /**
@@ -256,11 +386,15 @@ public class HeapPage implements Page {
         	throw new DbException("Slot already empty");
         
         markSlotUsed(tupleNo, false);
+        tuples[tupleNo] = null;
+        views.clear(tupleNo);
     }
 
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
-     * that it is now stored on this page.
+     * that it is now stored on this page.  The values of dictionary-encoded
+     * fields must be in their dictionaries already; HeapFile#insertTuple
+     * adds them.
      *
      * @param t The tuple to add.
      * @throws DbException if the page is full (no empty slots) or tupledesc
@@ -272,7 +406,10 @@ public class HeapPage implements Page {
         if (getNumEmptySlots() == 0)
         	throw new DbException("No empty slot on this page");
         
+        //skip whole header bytes with every slot in use
         int i = 0;
+        while (header[i / 8] == (byte) 0xff)
+        	i += 8;
         for (;i < numSlots; i++){
         	if (!isSlotUsed(i))
         		break;
@@ -283,6 +420,7 @@ public class HeapPage implements Page {
         t.setRecordId(newId);
         
         tuples[i] = t;
+        views.clear(i);
         
         markSlotUsed(i, true);
     }
@@ -316,12 +454,15 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-    	int counts = 0;
-        for (int i = 0; i < numSlots; i++){
-        	if (!isSlotUsed(i))
-        		counts++;
-        }
-        return counts;
+        return numEmptySlots;
+    }
+
+    /**
+     * Every tuple of this table takes the same space, so there is room for
+     * t if there is an empty slot.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return numEmptySlots > 0;
     }
 
     /**
@@ -345,6 +486,13 @@ public class HeapPage implements Page {
         if (i >= numSlots || i < 0)
         	throw new NoSuchElementException("No such slot");
         
+        if (isSlotUsed(i) == value)
+        	return;
+        captureBeforeImage();
+        numEmptySlots += value ? -1 : 1;
+        dirtySlots.set(i);
+        imageStale = true;
+        
         int byteNo = i / 8;
         int bitNo = i % 8;
         
@@ -387,7 +535,7 @@ public class HeapPage implements Page {
     		if (!hasNext())	//calling hasNext() also updates currIdx
     			throw new NoSuchElementException();
     		
-    		Tuple toReturn = tuples[currIdx];
+    		Tuple toReturn = tuple(currIdx);
     		currIdx++;	//increment currIdx, so that it can get to next tuple
     		return toReturn;    		
     	}
@@ -396,7 +544,5 @@ public class HeapPage implements Page {
 			throw new UnsupportedOperationException();
 		}
     }
-    
 
 }
-
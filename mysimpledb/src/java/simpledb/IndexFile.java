@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * A DbFile that can find the tuples of a table by the value of one of its
+ * fields: a secondary index on the table, or the table itself when it is
+ * stored in key order.
+ *
+ * @see BTreeFile
+ * @see HashFile
+ * @see ClusteredFile
+ * @see IndexScan
+ */
+public interface IndexFile extends DbFile {
+
+    /**
+     * @return the id of the table whose tuples this file finds
+     */
+    public int getTableId();
+
+    /**
+     * @return the index of the key field in the table's TupleDesc
+     */
+    public int getKeyField();
+
+    /**
+     * Returns an iterator over the tuples of the table whose key satisfies
+     * (key op operand).
+     *
+     * @param tid     the transaction reading the file
+     * @param op      the comparison, or null for every tuple
+     * @param operand the value keys are compared to
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand);
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins its outer child to a table with an index on the
+ * join field: for each outer tuple it looks up the matching inner tuples
+ * in the index, rather than rescanning the whole inner table as Join does.
+ * <p/>
+ * The inner child is an IndexScan over that index.  The join predicate
+ * may be EQUALS or, on an index that keeps keys in order, one of the range
+ * comparisons; see canProbe.
+ *
+ * @see JoinOptimizer#instantiateJoin
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private IndexScan child2;
+    private Predicate.Op probeOp;	//(inner key probeOp outer value) iff (outer value op inner key)
+    private TupleDesc td;	//the children's TupleDescs merged
+
+    private Tuple t1 = null;    //the outer tuple being probed for, or null for the next
+
+    /**
+     * Constructor. Accepts the children to join and the predicate to join
+     * them on.
+     *
+     * @param p      The predicate to use to join the children; its second
+     *               field must be the key field of child2's index
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Index scan over the right(inner) relation, which is
+     *               pointed at the inner tuples matching each outer tuple
+     *               in turn
+     * @throws IllegalArgumentException if the index cannot be probed with
+     *                                  the predicate's operator
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, IndexScan child2) {
+        if (!canProbe(child2.getIndex(), p.getOperator()))
+            throw new IllegalArgumentException("cannot probe the index with " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.probeOp = reverse(p.getOperator());
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if index can look up the tuples matching an outer value
+     * under op: EQUALS on any index, and the range comparisons on an index
+     * other than a HashFile
+     */
+    public static boolean canProbe(IndexFile index, Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return true;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return !(index instanceof HashFile);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the op' for which (b op' a) holds exactly when (a op b) does
+     */
+    static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by
+     * alias or table name.
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by
+     * alias or table name.
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        //the inner scan is opened by the first probe
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.close();
+        t1 = null;
+    }
+
+    private Tuple joinTuples(Tuple t1, Tuple t2) {
+        Tuple joinedTuple = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (i < n1)
+                joinedTuple.setField(i, t1.getField(i));
+            else
+                joinedTuple.setField(i, t2.getField(i - n1));
+        }
+        return joinedTuple;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the next inner tuple found by probing the index for the
+     * current outer tuple, or, once those run out, for the next outer tuple
+     * with any matches.  Tuples are concatenated as by Join.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 == null) {
+                if (!child1.hasNext())
+                    return null;
+                t1 = child1.next();
+                child2.setLookup(probeOp, t1.getField(p.getField1()));
+                child2.rewind();
+            }
+            while (child2.hasNext()) {
+                Tuple t2 = child2.next();
+                if (p.filter(t1, t2))
+                    return joinTuples(t1, t2);
+            }
+            t1 = null;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children == null)
+            throw new NullPointerException();
+        child1 = children[0];
+        child2 = (IndexScan) children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
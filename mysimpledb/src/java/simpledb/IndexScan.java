@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, by looking them up in an IndexFile
+ * (a BTreeFile or HashFile, or a ClusteredFile on its key) instead of
+ * scanning the whole table.  Tuples come out in key order, except from a
+ * HashFile, which only speeds up EQUALS lookups.
+ *
+ * @see IndexFile#indexIterator
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private IndexFile index;
+    private String ta;
+    private Predicate.Op op;
+    private Field operand;
+    private final TupleDesc td;
+    private DbFileIterator dbi;
+
+    /**
+     * Creates an index scan over the table an index is on, as a part of the
+     * specified transaction, returning the tuples whose key satisfies
+     * (key op operand).
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param indexid    the index to look tuples up in; the id of a
+     *                   clustered table looks tuples up by its key
+     * @param tableAlias the alias of the indexed table (see SeqScan)
+     * @param op         the comparison, or null for every tuple
+     * @param operand    the value keys are compared to
+     */
+    public IndexScan(TransactionId tid, int indexid, String tableAlias,
+                     Predicate.Op op, Field operand) {
+        this.tid = tid;
+        this.index = (IndexFile) Database.getCatalog().getDatabaseFile(indexid);
+        this.ta = tableAlias;
+        this.op = op;
+        this.operand = operand;
+        this.td = new SeqScan(tid, index.getTableId(), tableAlias).getTupleDesc();
+    }
+
+    public IndexScan(TransactionId tid, int indexid, Predicate.Op op, Field operand) {
+        this(tid, indexid, Database.getCatalog().getTableName(
+                ((IndexFile) Database.getCatalog().getDatabaseFile(indexid)).getTableId()), op, operand);
+    }
+
+    /**
+     * Look up the tuples whose key satisfies (key op operand) instead, from
+     * the next open or rewind on.  This lets an IndexNestedLoopJoin probe
+     * the index once per outer tuple.
+     */
+    public void setLookup(Predicate.Op op, Field operand) {
+        this.op = op;
+        this.operand = operand;
+    }
+
+    /**
+     * @return the index this operator looks tuples up in
+     */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the name of the indexed table in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /**
+     * @return Return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return ta;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        dbi = index.indexIterator(tid, op, operand);
+        dbi.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table, with field names prefixed
+     * with the tableAlias string from the constructor, as SeqScan does.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (dbi == null)	//not opened
+            return false;
+
+        return dbi.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (dbi == null)
+            throw new NoSuchElementException("dbi not opened for next");
+
+        return dbi.next();
+    }
+
+    public void close() {
+        if (dbi != null)
+            dbi.close();
+        dbi = null;
+    }
+
+    /**
+     * Start the lookup over, with the comparison given to setLookup if it
+     * has changed.  The scan need not have been opened.
+     */
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
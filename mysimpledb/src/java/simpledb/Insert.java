@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
@@ -10,11 +11,17 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
     
+    /**
+     * Number of pages a bulk load packs before appending them to the table.
+     */
+    public static final int BULK_APPEND_PAGES = 64;
+    
     private TransactionId tid;
     private DbIterator dbi;
     private int tableid;
     private boolean fetchable;
     private TupleDesc td;
+    private boolean bulkLoad;
 
     /**
      * Constructor.
@@ -27,11 +34,35 @@ public class Insert extends Operator {
      */
     public Insert(TransactionId t, DbIterator child, int tableid)
             throws DbException {
+        this(t, child, tableid, false);
+    }
+
+    /**
+     * Constructor.
+     * <p/>
+     * In bulk-load mode tuples are not inserted one at a time through the
+     * BufferPool.  Instead they are packed into new pages which are
+     * appended to the end of the table, BULK_APPEND_PAGES at a time (see
+     * HeapFile#appendTuples).  Free space on existing pages is not reused,
+     * so this suits large loads such as INSERT ... SELECT.  Tables that are
+     * not HeapFiles, or that have indexes to maintain, are always loaded
+     * one tuple at a time.
+     *
+     * @param t        The transaction running the insert.
+     * @param child    The child operator from which to read tuples to be inserted.
+     * @param tableid  The table in which to insert tuples.
+     * @param bulkLoad whether to append whole pages to the table
+     * @throws DbException if TupleDesc of child differs from table into which we are to
+     *                     insert.
+     */
+    public Insert(TransactionId t, DbIterator child, int tableid, boolean bulkLoad)
+            throws DbException {
         this.tid = t;
         this.dbi = child;
         this.tableid = tableid;
         this.fetchable = true;
         this.td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"Counts"});
+        this.bulkLoad = bulkLoad;
     }
 
     public TupleDesc getTupleDesc() {
@@ -72,6 +103,12 @@ public class Insert extends Operator {
         
         int count = 0;
         
+        DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+        if (bulkLoad && table instanceof HeapFile
+        		&& Database.getCatalog().getIndexes(tableid).isEmpty()){
+        	count = bulkInsert((HeapFile) table);
+        }
+        
         while (dbi.hasNext()){
         	try{
         		Database.getBufferPool().insertTuple(tid, tableid, dbi.next());
@@ -90,6 +127,31 @@ public class Insert extends Operator {
         return rv;
     }
 
+    /**
+     * Append all tuples of the child to table in batches of whole pages.
+     *
+     * @return the number of tuples inserted
+     */
+    private int bulkInsert(HeapFile table) throws TransactionAbortedException, DbException {
+        int batchSize = BULK_APPEND_PAGES * table.tuplesPerPage();
+        ArrayList<Tuple> batch = new ArrayList<Tuple>(batchSize);
+        int count = 0;
+        try{
+        	while (dbi.hasNext()){
+        		batch.add(dbi.next());
+        		count++;
+        		if (batch.size() == batchSize){
+        			table.appendTuples(tid, batch);
+        			batch.clear();
+        		}
+        	}
+        	table.appendTuples(tid, batch);
+        }
+        catch (IOException e){
+        	throw new DbException("bulk load failed: " + e.getMessage());
+        }
+        return count;
+    }
     
     @Override
     public DbIterator[] getChildren() {
@@ -109,7 +109,7 @@ public class IntegerAggregator implements Aggregator {
                 if (gbfieldtype == Type.INT_TYPE)
                     tup.setField(0, new IntField(new Integer(groupVal)));
                 else
-                    tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
+                    tup.setField(0, new StringField(groupVal, Type.STRING_LEN, gbfieldtype));
             }
             switch (what) {
                 case MIN:
@@ -68,11 +68,13 @@ public class Join extends Operator {
         super.close();
         child1.close();
         child2.close();
+        t1 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        t1 = null;
     }
     
     private Tuple t1 = null;    //tuples in outer loop(child1)
@@ -140,6 +142,7 @@ public class Join extends Operator {
             else
                 break;
         }
+        t1 = null;	//so that asking again does not repeat the last outer tuple's matches
         return null;
     }
 
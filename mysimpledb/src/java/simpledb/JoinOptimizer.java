@@ -32,6 +32,9 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p/>
+     * If plan2 scans a table with an index on its join field, the join is an
+     * IndexNestedLoopJoin that probes the index for each tuple of plan1.
      *
      * @param lj    The join being considered
      * @param plan1 The left join node's child
@@ -63,6 +66,12 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
+        if (!(lj instanceof LogicalSubplanJoinNode)) {
+            j = instantiateIndexJoin(p, plan1, plan2);
+            if (j != null)
+                return j;
+        }
+
         if (lj.p == Predicate.Op.EQUALS) {
 
             try {
@@ -83,6 +92,44 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Return an IndexNestedLoopJoin of plan1 to plan2 if plan2 scans a table
+     * (possibly through filters) with an index on its join field that can
+     * be probed with the join predicate; otherwise return null.  The scan
+     * becomes an IndexScan, and plan2's filters are applied to the joined
+     * tuples instead.
+     *
+     * @param p     The join predicate
+     * @param plan1 The left join node's child
+     * @param plan2 The right join node's child
+     */
+    private static DbIterator instantiateIndexJoin(JoinPredicate p, DbIterator plan1, DbIterator plan2) {
+        ArrayList<Predicate> filters = new ArrayList<Predicate>();
+        DbIterator inner = plan2;
+        while (inner instanceof Filter) {
+            filters.add(((Filter) inner).getPredicate());
+            inner = ((Filter) inner).getChildren()[0];
+        }
+        if (!(inner instanceof SeqScan))
+            return null;
+
+        SeqScan scan = (SeqScan) inner;
+        IndexFile index = Database.getCatalog().getIndex(scan.getTableId(), p.getField2());
+        if (index == null || !IndexNestedLoopJoin.canProbe(index, p.getOperator()))
+            return null;
+        if (plan1.getTupleDesc().getFieldType(p.getField1())
+                != plan2.getTupleDesc().getFieldType(p.getField2()))
+            return null;
+
+        DbIterator j = new IndexNestedLoopJoin(p, plan1,
+                new IndexScan(scan.getTransactionId(), index.getId(), scan.getAlias(), null, null));
+        //the inner fields follow the outer ones in the joined tuples
+        int offset = plan1.getTupleDesc().numFields();
+        for (Predicate f : filters)
+            j = new Filter(new Predicate(f.getField() + offset, f.getOp(), f.getOperand()), j);
+        return j;
+    }
+
     /**
      * Estimate the cost of a join.
      * <p/>
@@ -105,13 +152,92 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
                                    double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Estimate the cost of a join, as above.  If the right-hand side is a
+     * base table with an index on its join field, the join is done by an
+     * IndexNestedLoopJoin (see instantiateJoin), and costs an index probe
+     * per left-hand tuple instead of a scan.
+     *
+     * @param innerIsTable whether the right-hand side is the base table
+     *                     j.t2Alias, rather than the result of other joins
+     */
+    double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+                            double cost1, double cost2, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
+        }
+        if (innerIsTable) {
+            double cost = estimateIndexJoinCost(j, card1, card2, cost1, cost2);
+            if (cost >= 0)
+                return cost;
+        }
+        return cost1 + card1 * cost2;
+    }
+
+    // a rough fanout of a B+ tree's internal pages, for estimating its height
+    private static final int INDEX_FANOUT = 100;
+
+    /**
+     * Estimate the cost of an IndexNestedLoopJoin that probes an index on
+     * j.t2Alias's join field once for each of the card1 left-hand tuples.
+     * A probe reads the pages on the way down the index, then the pages
+     * holding the matching tuples: one page per match through a secondary
+     * index, or the matches' share of the leaves they are packed into for a
+     * clustered table.  Each match also costs a predicate application.
+     *
+     * @return the cost, or -1 if there is no index that can be probed
+     * with j's predicate
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2,
+                                         double cost1, double cost2) {
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return -1;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+        IndexFile index = Database.getCatalog().getIndex(tableId, field);
+        if (index == null || !IndexNestedLoopJoin.canProbe(index, j.p))
+            return -1;
+
+        int tablePages = Math.max(1, Database.getCatalog().getDatabaseFile(tableId).numPages());
+        double pageCost = cost2 / tablePages;
+
+        double matches;
+        if (j.p == Predicate.Op.EQUALS) {
+            int distinct = card2;
+            TableStats stats = TableStats.getTableStats(Database.getCatalog().getTableName(tableId));
+            if (stats != null) {
+                try {
+                    distinct = stats.numDistinctValues(field);
+                } catch (NoSuchElementException e) {
+                    // no count for this field; take it to be a key
+                }
+            }
+            matches = (double) card2 / Math.max(1, distinct);
         } else {
-            return cost1 + card1 * cost2;
+            // the selectivity estimateTableJoinCardinality gives ranges
+            matches = card2 * 0.3;
         }
+
+        double descent;
+        if (index instanceof HashFile)
+            descent = 2;	// the directory and the bucket
+        else
+            descent = 1 + Math.ceil(Math.log(Math.max(1, index.numPages())) / Math.log(INDEX_FANOUT));
+        double matchCost = pageCost;
+        if (index instanceof ClusteredFile)
+            matchCost = pageCost / Math.max(1.0, (double) card2 / tablePages);
+
+        return cost1 + card1 * (descent * pageCost + matches * (matchCost + 1));
     }
 
     /**
@@ -237,6 +363,9 @@ public class JoinOptimizer {
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
     	
+    	if (joins.isEmpty())	//a single table; the plan cache would have no order
+    		return new Vector<LogicalJoinNode>();
+    	
     	PlanCache pc = new PlanCache();
     	
     	for (int i = 1; i <= joins.size(); i++){
@@ -329,6 +458,7 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        boolean t1IsTable = true, t2IsTable = true;	//rather than the result of prevBest
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -359,6 +489,7 @@ public class JoinOptimizer {
 
             // estimate cost of right subtree
             if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
+                t1IsTable = false;
                 t1cost = prevBestCost; // left side just has cost of whatever
                 // left
                 // subtree is
@@ -375,6 +506,7 @@ public class JoinOptimizer {
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                 // (both
                 // shouldn't be)
+                t2IsTable = false;
                 t2cost = prevBestCost; // left side just has cost of whatever
                 // left
                 // subtree is
@@ -393,10 +525,10 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t2IsTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t1IsTable);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -4,6 +4,7 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
 
 /**
  LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -39,20 +40,25 @@ import java.lang.reflect.*;
  * <p/>
  * <ul>
  * <p/>
- * <li> The first long integer of the file represents the offset of the
- * last written checkpoint, or -1 if there are no checkpoints
+ * <li> The log file itself holds a single long integer: the offset of
+ * the last written checkpoint, or -1 if there are no checkpoints
  * <p/>
- * <li> All additional data in the log consists of log records.  Log
- * records are variable length.
+ * <li> The log records are stored in segment files next to the log file
+ * (see LogSegments).  Offsets are positions in the logical log and are
+ * not affected when old segments are deleted by logTruncate.  Log
+ * records are variable length and never span segments.
  * <p/>
- * <li> Each log record begins with an integer type and a long integer
- * transaction id.
+ * <li> Each log record begins with an integer type, a long integer
+ * transaction id, and a long integer prevLSN: the file offset of the
+ * previous record written by the same transaction, or -1 if this is the
+ * transaction's first record.  Following the prevLSN chain visits exactly
+ * one transaction's records, newest first.
  * <p/>
  * <li> Each log record ends with a long integer file offset representing
  * the position in the log file where the record began.
  * <p/>
- * <li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
- * CHECKPOINT, and CLR
+ * <li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+ * CHECKPOINT, CLR, and APPEND
  * <p/>
  * <li> ABORT, COMMIT, and BEGIN records contain no additional data
  * <p/>
@@ -65,10 +71,23 @@ import java.lang.reflect.*;
  * compensating log record and it is written during undo phase of rollback
  * and recovery.
  * <p/>
- * <li> CHECKPOINT records consist of active transactions at the time
- * the checkpoint was taken and their first log record on disk.  The format
- * of the record is an integer count of the number of transactions, as well
- * as a long integer transaction id for each active transaction.
+ * <li>APPEND RECORDS consist of an integer count of pages followed by the
+ * after image of each page.  They are written by bulk loads, which add
+ * pages to the end of a file; the before image of each page is an empty
+ * page, so it is not logged.  Undoing an APPEND writes an empty page (and
+ * a CLR) for each of its pages.
+ * <p/>
+ * <li> CHECKPOINT records are fuzzy: no pages are flushed when one is
+ * taken.  A checkpoint consists of the active transaction table and the
+ * dirty page table at the time the checkpoint was taken.  The format of the
+ * record is an integer count of the number of transactions, followed by a
+ * long integer transaction id and the offset of its last log record for
+ * each active transaction; then an integer count of dirty pages, followed
+ * by a serialized page id (see writePageId) and a long integer recLSN for
+ * each dirty page.  A page's recLSN is a lower bound on the offset of the
+ * first log record whose effects on that page may not yet be on disk, so
+ * redo starts at the smaller of the checkpoint and the minimum recLSN.
+ * The tid and prevLSN fields of a CHECKPOINT record are both -1.
  * <p/>
  * </ul>
  *
@@ -78,16 +97,32 @@ import java.lang.reflect.*;
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private RandomAccessFile checkpointFile; // holds the offset of the last checkpoint
+    private LogSegments segments;
+    private LogSegments.Cursor out;
     private LogFileRecovery logFileRecovery;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final long NO_CHECKPOINT_ID = -1;
+    static final long NO_PREV_LSN = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    private Set<Long> activeTids = new HashSet<Long>();
+    // live transactions -> offset of the last log record each one wrote;
+    // the key set doubles as the set of active transactions
+    private Map<Long, Long> tidToLastLogRecord = new HashMap<Long, Long>();
+    // live transactions -> offset of the first log record each one wrote
+    private Map<Long, Long> tidToFirstLogRecord = new HashMap<Long, Long>();
+    // live transactions that never logged a BEGIN record (see writeRecordHeader)
+    private Set<Long> bareTids = new HashSet<Long>();
+
+    // the log is known to be on disk up to this offset
+    private long forcedOffset = -1;
+
+    // the earliest offset recovery would read given the last checkpoint
+    // written by this LogFile
+    private long lastCheckpointRedoPoint = NO_CHECKPOINT_ID;
 
     /**
      * Constructor.
@@ -102,10 +137,25 @@ public class LogFile {
      * @param f The log file's name
      */
     public LogFile(File f) throws IOException {
+        this(f, LogSegments.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param f           The log file's name
+     * @param segmentSize size in bytes after which the log starts a new
+     *                    segment file
+     * @see #LogFile(File)
+     */
+    public LogFile(File f, long segmentSize) throws IOException {
         this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        checkpointFile = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize);
+        out = segments.cursor();
+        out.seek(out.length());
         recoveryUndecided = true;
-        logFileRecovery = new LogFileRecovery(new RandomAccessFile(logFile, "r"));
+        logFileRecovery = new LogFileRecovery(segments.cursor());
 
 
         // install shutdown hook to force cleanup on close
@@ -125,16 +175,90 @@ public class LogFile {
         // the log.
         if (recoveryUndecided) {
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
+            segments.reset();
+            forcedOffset = -1;
+            writeCheckpointOffset(NO_CHECKPOINT_ID);
+            out.seek(out.length());
         }
         // we're about to append a log record... make sure we're at the end of the log!
-        if (raf.getFilePointer() != raf.length()) {
+        if (out.getFilePointer() != out.length()) {
             throw new RuntimeException("About to append to log file but not" +
                     " located at end of log!  Risk overwriting log data!");
         }
+        // records never span segments, so this is the place to roll over
+        segments.rollIfFull();
+    }
+
+    /**
+     * @return the offset of the last checkpoint record, or NO_CHECKPOINT_ID
+     */
+    synchronized long readCheckpointOffset() throws IOException {
+        if (checkpointFile.length() < LONG_SIZE) {
+            return NO_CHECKPOINT_ID;
+        }
+        checkpointFile.seek(0);
+        return checkpointFile.readLong();
+    }
+
+    private void writeCheckpointOffset(long offset) throws IOException {
+        checkpointFile.seek(0);
+        checkpointFile.writeLong(offset);
+        checkpointFile.getChannel().force(true);
+    }
+
+    /**
+     * Write the common header of a log record (type, tid and prevLSN) at
+     * the end of the log and remember it as the transaction's last record.
+     * <p/>
+     * A bare TransactionId, one that never logged a BEGIN record, gets a
+     * prevLSN chain too, so that pages stolen from it can be rolled back.
+     * No COMMIT or ABORT record ends it, though: BufferPool.transactionComplete
+     * ends it with bareTransactionComplete, and checkpoints leave it out of
+     * the active transaction table, lest recovery roll back its committed
+     * changes.
+     *
+     * @return the offset at which the record starts
+     */
+    private long writeRecordHeader(int type, long tid) throws IOException {
+        long recordStart = out.getFilePointer();
+        Long prevLsn = tidToLastLogRecord.get(tid);
+        out.writeInt(type);
+        out.writeLong(tid);
+        out.writeLong(prevLsn == null ? NO_PREV_LSN : prevLsn);
+        if (type == LogType.BEGIN_RECORD) {
+            tidToFirstLogRecord.put(tid, recordStart);
+        } else if (prevLsn == null) {
+            tidToFirstLogRecord.put(tid, recordStart);
+            bareTids.add(tid);
+        }
+        tidToLastLogRecord.put(tid, recordStart);
+        return recordStart;
+    }
+
+    /**
+     * Stop tracking the specified transaction, once it has ended.
+     */
+    private void forget(long tid) {
+        tidToLastLogRecord.remove(tid);
+        tidToFirstLogRecord.remove(tid);
+        bareTids.remove(tid);
+    }
+
+    /**
+     * @return the offset at which the next log record will be written.  Used
+     * by the BufferPool as the recLSN of a page when it first becomes dirty.
+     */
+    public synchronized long getCurrentOffset() throws IOException {
+        // an undecided log is thrown away on the first append
+        return recoveryUndecided ? 0 : out.length();
+    }
+
+    /**
+     * Register a transaction found live during recovery, so the CLR and
+     * ABORT records written while undoing it extend its prevLSN chain.
+     */
+    synchronized void noteLiveTransaction(long tid, long lastRecord) {
+        tidToLastLogRecord.put(tid, lastRecord);
     }
 
     private void checkActive(TransactionId tid, boolean shouldBeActive) throws IOException {
@@ -142,11 +266,11 @@ public class LogFile {
         // transactions and so checking for active can cause tests to fail
         
 //        if (shouldBeActive) {
-//            if (!activeTids.contains(tid.getId())) {
+//            if (!tidToLastLogRecord.containsKey(tid.getId())) {
 //                throw new IOException("This tid should be active but is not!");
 //            }
 //        } else {
-//            if (activeTids.contains(tid.getId())) {
+//            if (tidToLastLogRecord.containsKey(tid.getId())) {
 //                throw new IOException("This tid should NOT be active but it is!");
 //            }
 //        }
@@ -162,11 +286,9 @@ public class LogFile {
             throws IOException {
         checkActive(tid, false);
         preAppend();
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(recordStart);
-        activeTids.add(tid.getId());
+        forget(tid.getId());
+        long recordStart = writeRecordHeader(LogType.BEGIN_RECORD, tid.getId());
+        out.writeLong(recordStart);
     }
 
     /**
@@ -180,12 +302,10 @@ public class LogFile {
         checkActive(tid, true);
         preAppend();
 
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(recordStart);
+        long recordStart = writeRecordHeader(LogType.COMMIT_RECORD, tid.getId());
+        out.writeLong(recordStart);
         force();
-        activeTids.remove(tid.getId());
+        forget(tid.getId());
     }
 
     /**
@@ -205,8 +325,48 @@ public class LogFile {
                 checkActive(tid, true);
 
                 // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                logFileRecovery.rollback(tid);
+                // live transactions (needs tidToLastLogRecord)
+                Long lastRecord = tidToLastLogRecord.get(tid.getId());
+                if (lastRecord == null) {
+                    // nothing logged since the transaction began, if it
+                    // ever did, so nothing to undo -- unless it has ended
+                    if (logFileRecovery.hasEnded(tid.getId())) {
+                        throw new IOException("Cannot rollback " + tid +
+                                ": already committed or aborted");
+                    }
+                    return;
+                }
+                logFileRecovery.rollback(tid, lastRecord);
+                // a bare transaction's chain ends without a BEGIN, so
+                // rollback wrote no ABORT record that would forget it
+                if (bareTids.contains(tid.getId())) {
+                    forget(tid.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * End a transaction that never logged a BEGIN record; called by
+     * BufferPool.transactionComplete.  An abort rolls back the pages logged
+     * for it (those stolen or flushed before it completed); either way it is
+     * no longer tracked.  Does nothing for other transactions, which are
+     * ended by logCommit or logAbort.
+     *
+     * @param tid    The completing transaction.
+     * @param commit Whether it committed.
+     */
+    public void bareTransactionComplete(TransactionId tid, boolean commit) throws IOException {
+        synchronized (Database.getBufferPool()) {
+            synchronized (this) {
+                if (!bareTids.contains(tid.getId())) {
+                    return;
+                }
+                if (commit) {
+                    forget(tid.getId());
+                } else {
+                    logAbort(tid);
+                }
             }
         }
     }
@@ -220,12 +380,10 @@ public class LogFile {
      */
     public synchronized void logAbort(Long tid) throws IOException {
         preAppend();
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.ABORT_RECORD);
-        raf.writeLong(tid);
-        raf.writeLong(recordStart);
+        long recordStart = writeRecordHeader(LogType.ABORT_RECORD, tid);
+        out.writeLong(recordStart);
         force();
-        activeTids.remove(tid);
+        forget(tid);
     }
 
     /**
@@ -240,23 +398,73 @@ public class LogFile {
     public synchronized void logWrite(TransactionId tid, Page before,
                                       Page after)
             throws IOException {
+        logWrite(tid, before.getPageDataBuffer(), after);
+    }
+
+    /**
+     * Write an UPDATE record to disk for the specified tid and page, taking
+     * the before image as raw bytes (see Page#getBeforeImageData) so that
+     * no page has to be built from them.
+     *
+     * @param tid    The transaction performing the write
+     * @param before The bytes of the before image of the page
+     * @param after  The after image of the page
+     */
+    public synchronized void logWrite(TransactionId tid, byte[] before,
+                                      Page after)
+            throws IOException {
+        logWrite(tid, ByteBuffer.wrap(before), after);
+    }
+
+    private void logWrite(TransactionId tid, ByteBuffer before, Page after)
+            throws IOException {
         checkActive(tid, true);
         preAppend();
         /* update record consists of
 
            record type
            transaction id
+           prevLSN
            before page data (see writePageData)
            after page data
            start offset
         */
 
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(recordStart);
+        long recordStart = writeRecordHeader(LogType.UPDATE_RECORD, tid.getId());
+        writePageData(out, after.getClass().getName(), after.getId(), before);
+        writePageData(out, after);
+        out.writeLong(recordStart);
+    }
+
+    /**
+     * Write an APPEND record for pages that tid added to the end of a
+     * file without going through the BufferPool (see
+     * HeapFile#appendTuples).  The pages were empty before, so only their
+     * after images are logged, all in one record.
+     *
+     * @param tid   The transaction appending the pages
+     * @param pages The appended pages
+     */
+    public synchronized void logAppend(TransactionId tid, List<? extends Page> pages)
+            throws IOException {
+        checkActive(tid, true);
+        preAppend();
+        /* append record consists of
+
+           record type
+           transaction id
+           prevLSN
+           number of pages
+           page data of each page (see writePageData)
+           start offset
+        */
+
+        long recordStart = writeRecordHeader(LogType.APPEND_RECORD, tid.getId());
+        out.writeInt(pages.size());
+        for (Page p : pages) {
+            writePageData(out, p);
+        }
+        out.writeLong(recordStart);
     }
 
     /**
@@ -290,21 +498,17 @@ public class LogFile {
 
            record type
            transaction id
+           prevLSN
            after page data (see writePageData)
            start offset
         */
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.CLR_RECORD);
-        raf.writeLong(tid);
-        writePageData(raf, after);
-        raf.writeLong(recordStart);
+        long recordStart = writeRecordHeader(LogType.CLR_RECORD, tid);
+        writePageData(out, after);
+        out.writeLong(recordStart);
     }
 
 
-    static void writePageData(RandomAccessFile raf, Page p) throws IOException {
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
-
+    static void writePageData(LogSegments.Cursor log, Page p) throws IOException {
         //page data is:
         // page class name
         // id class name
@@ -313,51 +517,65 @@ public class LogFile {
         // page class bytes
         // page class data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+        writePageData(log, p.getClass().getName(), p.getId(), p.getPageDataBuffer());
+    }
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+    private static void writePageData(LogSegments.Cursor log, String pageClassName,
+                                      PageId pid, ByteBuffer pageData) throws IOException {
+        log.writeUTF(pageClassName);
+        writePageId(log, pid);
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        log.writeInt(pageData.remaining());
+        log.write(pageData);
     }
 
-    static Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    static Page readPageData(LogSegments.Cursor log) throws IOException {
+        String pageClassName = log.readUTF();
+        PageId pid = readPageId(log);
+        int pageSize = log.readInt();
+
+        byte[] pageData = new byte[pageSize];
+        log.readFully(pageData); //read before image
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        return newPage(pageClassName, pid, pageData);
+    }
+
+    /**
+     * @return an empty page of the same class, id and size as p, used to
+     * undo the APPEND of p
+     */
+    static Page emptyPage(Page p) throws IOException {
+        return newPage(p.getClass().getName(), p.getId(), new byte[BufferPool.getPageSize()]);
+    }
+
+    /**
+     * @return a page of the named class built from its bytes, with its
+     * (PageId, byte[]) constructor; also used by the BufferPool's compressed
+     * tier
+     */
+    static Page newPage(String pageClassName, PageId pid, byte[] pageData) throws IOException {
+        Page newPage = null;
 
         try {
-            Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = new Integer(raf.readInt());
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                // page classes must have a (PageId, byte[]) constructor
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid) && params[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
+            if (pageConst == null) {
+                throw new IOException("No (PageId, byte[]) constructor in " + pageClassName);
             }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            newPage = (Page) pageConst.newInstance(pageArgs);
 
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
@@ -375,35 +593,96 @@ public class LogFile {
         return newPage;
     }
 
+    static void writePageId(LogSegments.Cursor log, PageId pid) throws IOException {
+        //page id is:
+        // id class name
+        // number of id ints
+        // id ints (see PageId.serialize)
+        int pageInfo[] = pid.serialize();
+        log.writeUTF(pid.getClass().getName());
+        log.writeInt(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++) {
+            log.writeInt(pageInfo[i]);
+        }
+    }
+
+    static PageId readPageId(LogSegments.Cursor log) throws IOException {
+        String idClassName = log.readUTF();
+        try {
+            Class<?> idClass = Class.forName(idClassName);
+
+            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
+            int numIdArgs = log.readInt();
+            Object idArgs[] = new Object[numIdArgs];
+            for (int i = 0; i < numIdArgs; i++) {
+                idArgs[i] = new Integer(log.readInt());
+            }
+            return (PageId) idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
+
     /**
-     * Checkpoint the log and write a checkpoint record.
+     * Checkpoint the log and write a fuzzy checkpoint record.
+     *
+     * No pages are flushed; instead the checkpoint records the active
+     * transaction table and the BufferPool's dirty page table, which is
+     * enough for recovery to work out where redo has to start.  Both locks
+     * are only held long enough to copy the tables and append the record.
+     * Dirty pages are written out over time by the BufferPool's background
+     * writer (see BufferPool#startBackgroundWriter).
      */
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 preAppend();
-                long startCpOffset, endCpOffset;
+                long startCpOffset;
+
+                Map<PageId, Long> dirtyPages = Database.getBufferPool().getDirtyPageTable();
+                startCpOffset = out.getFilePointer();
+                out.writeInt(LogType.CHECKPOINT_RECORD);
+                out.writeLong(-1); //no tid , but leave space for convenience
+                out.writeLong(NO_PREV_LSN);
+
+                //write the active transaction table, without bare tids
+                out.writeInt(tidToLastLogRecord.size() - bareTids.size());
+                for (Map.Entry<Long, Long> entry : tidToLastLogRecord.entrySet()) {
+                    if (bareTids.contains(entry.getKey()))
+                        continue;
+                    out.writeLong(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
 
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(LogType.CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(activeTids.size());
-                for (Long key : activeTids) {
-                    raf.writeLong(key);
+                //write the dirty page table
+                out.writeInt(dirtyPages.size());
+                for (Map.Entry<PageId, Long> entry : dirtyPages.entrySet()) {
+                    writePageId(out, entry.getKey());
+                    out.writeLong(entry.getValue());
                 }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(startCpOffset);
+                out.writeLong(startCpOffset);
+                force();
+
+                //once the CP is forced, make sure the CP location in the
+                // log file is updated
+                writeCheckpointOffset(startCpOffset);
+
+                lastCheckpointRedoPoint = startCpOffset;
+                for (Long recLsn : dirtyPages.values()) {
+                    lastCheckpointRedoPoint = Math.min(lastCheckpointRedoPoint, recLsn);
+                }
             }
         }
 
@@ -413,10 +692,29 @@ public class LogFile {
 
     /**
      * Truncate any unneeded portion of the log to reduce its space
-     * consumption
+     * consumption.
+     *
+     * Recovery never reads before the redo point of the last checkpoint,
+     * and rollback never reads before a live transaction's first record, so
+     * every segment that ends before both can be deleted.  Does nothing
+     * until this LogFile has written a checkpoint.
      */
     public synchronized void logTruncate() throws IOException {
-        // todo: implement me
+        if (lastCheckpointRedoPoint == NO_CHECKPOINT_ID) {
+            return;
+        }
+        long keepFrom = lastCheckpointRedoPoint;
+        for (Long firstRecord : tidToFirstLogRecord.values()) {
+            keepFrom = Math.min(keepFrom, firstRecord);
+        }
+        segments.truncateBefore(keepFrom);
+    }
+
+    /**
+     * @return the number of segment files currently making up the log
+     */
+    public synchronized int numSegments() {
+        return segments.numSegments();
     }
 
     /**
@@ -427,7 +725,8 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            segments.close();
+            checkpointFile.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -443,14 +742,24 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                raf.seek(raf.length());      // go to end of log file
-                logFileRecovery.recover();
+                out.seek(out.length());      // go to end of log file
+                logFileRecovery.recover(readCheckpointOffset());
             }
         }
     }
 
+    /**
+     * Force the log to disk.  Cheap when nothing has been appended since the
+     * last force, so callers enforcing write-ahead logging can call it
+     * before every page write.
+     */
     public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        long end = out.length();
+        if (end == forcedOffset) {
+            return;
+        }
+        segments.force();
+        forcedOffset = end;
     }
 
 }
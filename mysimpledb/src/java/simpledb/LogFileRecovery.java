@@ -1,16 +1,19 @@
 package simpledb;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
  * @author mhay
  */
 class LogFileRecovery {
 
-    private final RandomAccessFile readOnlyLog;
+    private final LogSegments.Cursor readOnlyLog;
 
     /**
      * Helper class for LogFile during rollback and recovery.
@@ -19,9 +22,9 @@ class LogFileRecovery {
      * If this class wants to modify the log, it should do something
      * like this:  Database.getLogFile().logAbort(tid);
      *
-     * @param readOnlyLog a read only copy of the log file
+     * @param readOnlyLog a cursor of its own on the log's segments
      */
-    public LogFileRecovery(RandomAccessFile readOnlyLog) {
+    public LogFileRecovery(LogSegments.Cursor readOnlyLog) {
         this.readOnlyLog = readOnlyLog;
     }
 
@@ -33,12 +36,12 @@ class LogFileRecovery {
         // and then jump back to it after printing
         Long currentOffset = readOnlyLog.getFilePointer();
 
-        readOnlyLog.seek(0);
-        long lastCheckpoint = readOnlyLog.readLong(); // ignore this
+        readOnlyLog.seek(readOnlyLog.firstOffset());
         System.out.println("BEGIN LOG FILE");
         while (readOnlyLog.getFilePointer() < readOnlyLog.length()) {
             int type = readOnlyLog.readInt();
             long tid = readOnlyLog.readLong();
+            readOnlyLog.skipBytes(LogFile.LONG_SIZE);   // prevLSN
             switch (type) {
                 case LogType.BEGIN_RECORD:
                     System.out.println("<T_" + tid + " BEGIN>");
@@ -51,26 +54,31 @@ class LogFileRecovery {
                     break;
                 case LogType.UPDATE_RECORD:
                     Page beforeImg = LogFile.readPageData(readOnlyLog);
-                    Page afterImg = LogFile.readPageData(readOnlyLog);  // after image
+                    LogFile.readPageData(readOnlyLog);  // after image
                     System.out.println("<T_" + tid + " UPDATE pid=" + beforeImg.getId() +">");
                     break;
                 case LogType.CLR_RECORD:
-                    afterImg = LogFile.readPageData(readOnlyLog);  // after image
+                    Page afterImg = LogFile.readPageData(readOnlyLog);  // after image
                     System.out.println("<T_" + tid + " CLR pid=" + afterImg.getId() +">");
                     break;
-                case LogType.CHECKPOINT_RECORD:
-                    int count = readOnlyLog.readInt();
-                    Set<Long> tids = new HashSet<Long>();
-                    for (int i = 0; i < count; i++) {
-                        long nextTid = readOnlyLog.readLong();
-                        tids.add(nextTid);
+                case LogType.APPEND_RECORD:
+                    List<PageId> appended = new ArrayList<PageId>();
+                    for (Page p : readAppendedPages()) {
+                        appended.add(p.getId());
                     }
-                    System.out.println("<T_" + tid + " CHECKPOINT " + tids + ">");
+                    System.out.println("<T_" + tid + " APPEND pids=" + appended + ">");
+                    break;
+                case LogType.CHECKPOINT_RECORD:
+                    Map<Long, Long> activeTids = new HashMap<Long, Long>();
+                    Map<PageId, Long> dirtyPages = new HashMap<PageId, Long>();
+                    readCheckpointTables(activeTids, dirtyPages);
+                    System.out.println("<T_" + tid + " CHECKPOINT att=" + activeTids.keySet() +
+                            " dpt=" + dirtyPages.keySet() + ">");
                     break;
                 default:
                     throw new RuntimeException("Unexpected type!  Type = " + type);
             }
-            long startOfRecord = readOnlyLog.readLong();   // ignored, only useful when going backwards thru log
+            readOnlyLog.skipBytes(LogFile.LONG_SIZE);   // start of record, only useful when going backwards thru log
         }
         System.out.println("END LOG FILE");
 
@@ -86,57 +94,124 @@ class LogFileRecovery {
      * transactions that have already committed (though this may not
      * be enforced by this method.)
      *
-     * This is called from LogFile.recover after both the LogFile and
+     * Rather than scanning backwards through the whole log, this follows
+     * the transaction's prevLSN chain, so only its own records are read.
+     *
+     * This is called from LogFile.logAbort after both the LogFile and
      * the BufferPool are locked.
      *
      * @param tidToRollback The transaction to rollback
+     * @param lastRecord    offset of the last log record written by tidToRollback
      * @throws java.io.IOException if tidToRollback has already committed
      */
-    public void rollback(TransactionId tidToRollback) throws IOException {
-        readOnlyLog.seek(readOnlyLog.length()); // undoing so move to end of logfile
-        
-//        synchronized (Database.getBufferPool()) {
-//        	synchronized (this){
-        		long current = readOnlyLog.getFilePointer();
-        		while (current >LogFile.LONG_SIZE) {
-	        		readOnlyLog.seek(current - LogFile.LONG_SIZE);
-	        		long recordOffset = readOnlyLog.readLong();
-	        		readOnlyLog.seek(recordOffset);
-	        		
-	        		int type = readOnlyLog.readInt();
-	                long tid = readOnlyLog.readLong();
-	                
-	                if (tid == tidToRollback.getId()){
-	                	switch (type){
-		                	case LogType.BEGIN_RECORD:
-		                		Database.getLogFile().logAbort(tid);
-			                	return;
-		                    case LogType.COMMIT_RECORD:
-		                    	throw new IOException("Cannot abort a committed transaction!");
-		                    case LogType.ABORT_RECORD:
-		                    	throw new IOException("Cannot commit a committed transaction!");
-		                    case LogType.UPDATE_RECORD:
-		                    	Page beforeImg = LogFile.readPageData(readOnlyLog);
-			                    Page afterImg = LogFile.readPageData(readOnlyLog);		               
-			                    PageId pid = beforeImg.getId();
-			                    Database.getBufferPool().discardPage(pid);
-			                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(beforeImg);
-			                    Database.getLogFile().logCLR(tid, beforeImg);
-		                        break;
-		                    case LogType.CLR_RECORD:
-		                        break;
-		                    case LogType.CHECKPOINT_RECORD:
-		                    	break;
-		                    default: 
-		                    	throw new RuntimeException("Unexpected type!  Type = " + type); 
-	                	}
-	                }
-	                current = recordOffset;
-        		}
-        		readOnlyLog.seek(readOnlyLog.length()); // undoing so move to end of logfile
-//        	}
-//        }
-        
+    public void rollback(TransactionId tidToRollback, long lastRecord) throws IOException {
+        long current = lastRecord;
+        while (current != LogFile.NO_PREV_LSN) {
+            readOnlyLog.seek(current);
+            int type = readOnlyLog.readInt();
+            long tid = readOnlyLog.readLong();
+            long prevLsn = readOnlyLog.readLong();
+
+            if (tid != tidToRollback.getId()) {
+                throw new IOException("Broken prevLSN chain: record at " + current +
+                        " belongs to T_" + tid + ", not " + tidToRollback);
+            }
+
+            switch (type) {
+                case LogType.BEGIN_RECORD:
+                    Database.getLogFile().logAbort(tid);
+                    readOnlyLog.seek(readOnlyLog.length());
+                    return;
+                case LogType.COMMIT_RECORD:
+                    throw new IOException("Cannot abort a committed transaction!");
+                case LogType.ABORT_RECORD:
+                    throw new IOException("Cannot commit a committed transaction!");
+                case LogType.UPDATE_RECORD:
+                    Page beforeImg = LogFile.readPageData(readOnlyLog);
+                    Database.getBufferPool().replacePageOnDisk(beforeImg);
+                    Database.getLogFile().logCLR(tid, beforeImg);
+                    break;
+                case LogType.APPEND_RECORD:
+                    undoAppend(tid);
+                    break;
+                case LogType.CLR_RECORD:
+                    break;
+                default:
+                    throw new RuntimeException("Unexpected type!  Type = " + type);
+            }
+            current = prevLsn;
+        }
+        readOnlyLog.seek(readOnlyLog.length()); // leave the file pointer at the end of the log
+    }
+
+    /**
+     * Scan backwards from the end of the log for a COMMIT or ABORT record of
+     * the specified transaction.  Only the part of the log that has not been
+     * truncated is searched.
+     *
+     * @return true if tid has committed or aborted
+     */
+    public boolean hasEnded(long tid) throws IOException {
+        long end = readOnlyLog.length();
+        try {
+            while (end > readOnlyLog.firstOffset()) {
+                readOnlyLog.seek(end - LogFile.LONG_SIZE);
+                end = readOnlyLog.readLong();   // start of the previous record
+                readOnlyLog.seek(end);
+                int type = readOnlyLog.readInt();
+                if (readOnlyLog.readLong() == tid &&
+                        (type == LogType.COMMIT_RECORD || type == LogType.ABORT_RECORD)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            readOnlyLog.seek(readOnlyLog.length());
+        }
+    }
+
+    /**
+     * Read the pages of an APPEND record.  The file pointer must be just
+     * past the record's header.
+     */
+    private List<Page> readAppendedPages() throws IOException {
+        int count = readOnlyLog.readInt();
+        List<Page> pages = new ArrayList<Page>(count);
+        for (int i = 0; i < count; i++) {
+            pages.add(LogFile.readPageData(readOnlyLog));
+        }
+        return pages;
+    }
+
+    /**
+     * Undo an APPEND record by emptying each of its pages again.  The file
+     * pointer must be just past the record's header.
+     */
+    private void undoAppend(long tid) throws IOException {
+        for (Page appended : readAppendedPages()) {
+            Page empty = LogFile.emptyPage(appended);
+            Database.getBufferPool().replacePageOnDisk(empty);
+            Database.getLogFile().logCLR(tid, empty);
+        }
+    }
+
+    /**
+     * Read the active transaction table and dirty page table of a
+     * CHECKPOINT record.  The file pointer must be just past the record's
+     * header; it is left just before the record's trailing start offset.
+     */
+    private void readCheckpointTables(Map<Long, Long> activeTids,
+                                      Map<PageId, Long> dirtyPages) throws IOException {
+        int count = readOnlyLog.readInt();
+        for (int i = 0; i < count; i++) {
+            long tid = readOnlyLog.readLong();
+            activeTids.put(tid, readOnlyLog.readLong());
+        }
+        count = readOnlyLog.readInt();
+        for (int i = 0; i < count; i++) {
+            PageId pid = LogFile.readPageId(readOnlyLog);
+            dirtyPages.put(pid, readOnlyLog.readLong());
+        }
     }
 
     /**
@@ -144,137 +219,184 @@ class LogFileRecovery {
      * committed transactions are installed and that the
      * updates of uncommitted transactions are not installed.
      *
+     * Checkpoints are fuzzy, so redo starts at the smallest recLSN in the
+     * checkpoint's dirty page table (or at the checkpoint itself, if that
+     * is earlier) and repeats history from there.  Losers are then undone
+     * by following their prevLSN chains.
+     *
      * This is called from LogFile.recover after both the LogFile and
      * the BufferPool are locked.
+     *
+     * @param lastCheckpoint offset of the last checkpoint record, or
+     *                       LogFile.NO_CHECKPOINT_ID
      */
-    public void recover() throws IOException {
+    public void recover(long lastCheckpoint) throws IOException {
     	synchronized (Database.getBufferPool()) {
     		synchronized (this) {
-    			HashSet<Long> losers = new HashSet<Long>();
+    			// loser tid -> offset of its last log record
+    			HashMap<Long, Long> losers = new HashMap<Long, Long>();
+    			HashMap<PageId, Long> dirtyPages = new HashMap<PageId, Long>();
     			
-    			readOnlyLog.seek(0);	//go back to beginning
-    			long lastCheckpoint = readOnlyLog.readLong();
+    			long redoStart = readOnlyLog.firstOffset();	//go back to beginning
     			
-    			if (lastCheckpoint != -1){	//go to the last checkpoint if it exists
+    			if (lastCheckpoint != LogFile.NO_CHECKPOINT_ID){	//read the tables of the last checkpoint if it exists
     				readOnlyLog.seek(lastCheckpoint);
-    				readOnlyLog.skipBytes(LogFile.INT_SIZE + LogFile.LONG_SIZE); //skip type and tid
-    				int count = readOnlyLog.readInt();
-    				for (int i = 0; i < count; i++){
-    					losers.add(readOnlyLog.readLong());
+    				readOnlyLog.skipBytes(LogFile.INT_SIZE + 2 * LogFile.LONG_SIZE); //skip type, tid and prevLSN
+    				readCheckpointTables(losers, dirtyPages);
+    				redoStart = lastCheckpoint;
+    				for (Long recLsn : dirtyPages.values()) {
+    					redoStart = Math.min(redoStart, recLsn);
     				}
-    				readOnlyLog.skipBytes(LogFile.LONG_SIZE); //skip the starting offset of this checkpoint
+    			} else {
+    				lastCheckpoint = redoStart;
     			}
     			
-    			redo(losers);
+    			readOnlyLog.seek(redoStart);
+    			redo(lastCheckpoint, losers, dirtyPages);
     			undo(losers);
     		}
     	}
     }
     
     /**
-     * Perform the redo phase.
+     * Perform the redo phase, repeating history from the current file
+     * pointer to the end of the log.  Records from the checkpoint onwards
+     * also maintain the loser table (analysis); records before it are only
+     * redone if their page was in the checkpoint's dirty page table with a
+     * recLSN at or before the record.
      * 
      * Only call this function in recover() because it assumes that the filepointer of readOnlyLog is
      * at appropriate position.
      */
-    private void redo(HashSet<Long> losers) throws IOException {
+    private void redo(long checkpoint, HashMap<Long, Long> losers,
+                      HashMap<PageId, Long> dirtyPages) throws IOException {
     	while (readOnlyLog.getFilePointer() < readOnlyLog.length()){
+    		long recordStart = readOnlyLog.getFilePointer();
+    		boolean analyze = recordStart >= checkpoint;
 			int type = readOnlyLog.readInt();
             long tid = readOnlyLog.readLong();
+            readOnlyLog.skipBytes(LogFile.LONG_SIZE);	//prevLSN
             switch (type){
             	case LogType.BEGIN_RECORD:
-            		if (losers.contains(tid))
-            			throw new IOException("already begun");
-            		losers.add(tid);
+            		if (analyze) {
+            			if (losers.containsKey(tid))
+            				throw new IOException("already begun");
+            			losers.put(tid, recordStart);
+            		}
             		break;
             	case LogType.COMMIT_RECORD:
-            		if (!losers.contains(tid))
-            			throw new IOException("can't commit, already committed or aborted");
-            		losers.remove(tid);
+            		if (analyze) {
+            			if (!losers.containsKey(tid))
+            				throw new IOException("can't commit, already committed or aborted");
+            			losers.remove(tid);
+            		}
             		break;
             	case LogType.ABORT_RECORD:
-            		if (!losers.contains(tid))
-            			throw new IOException("can't abort, already committed or aborted");
-            		losers.remove(tid);
+            		if (analyze) {
+            			if (!losers.containsKey(tid))
+            				throw new IOException("can't abort, already committed or aborted");
+            			losers.remove(tid);
+            		}
             		break;
             	case LogType.UPDATE_RECORD:
-            		if (!losers.contains(tid))
-            			throw new IOException("can't update, already committed or aborted");
-            		Page beforeImg = LogFile.readPageData(readOnlyLog);
+            		if (analyze) {
+            			if (!losers.containsKey(tid))
+            				throw new IOException("can't update, already committed or aborted");
+            			losers.put(tid, recordStart);
+            		}
+            		LogFile.readPageData(readOnlyLog);	//before image
                     Page afterImg = LogFile.readPageData(readOnlyLog);  // after image
-                    PageId pid = beforeImg.getId();
-                    Database.getBufferPool().discardPage(pid);
-                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(afterImg);
+                    redoPage(afterImg, recordStart, analyze, dirtyPages);
             		break;
             	case LogType.CLR_RECORD:
-            		if (!losers.contains(tid))
-            			throw new IOException("can't redo CLR, already committed or aborted");
+            		if (analyze) {
+            			if (!losers.containsKey(tid))
+            				throw new IOException("can't redo CLR, already committed or aborted");
+            			losers.put(tid, recordStart);
+            		}
             		afterImg = LogFile.readPageData(readOnlyLog);  // after image
-            		pid = afterImg.getId();
-            		Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(afterImg);
+            		redoPage(afterImg, recordStart, analyze, dirtyPages);
+            		break;
+            	case LogType.APPEND_RECORD:
+            		if (analyze) {
+            			if (!losers.containsKey(tid))
+            				throw new IOException("can't redo append, already committed or aborted");
+            			losers.put(tid, recordStart);
+            		}
+            		for (Page appended : readAppendedPages()) {
+            			redoPage(appended, recordStart, analyze, dirtyPages);
+            		}
             		break;
             	case LogType.CHECKPOINT_RECORD:
-            		throw new RuntimeException("Should not encounter any checkpoint!!");
+            		// only the last checkpoint matters, and its tables were read by recover()
+            		readCheckpointTables(new HashMap<Long, Long>(), new HashMap<PageId, Long>());
+            		break;
             	default:
             		throw new RuntimeException("Unexpected type!  Type = " + type);
             }
-            long startOfRecord = readOnlyLog.readLong();
+            readOnlyLog.skipBytes(LogFile.LONG_SIZE);	//start of record
 		}
     }
+
+    private void redoPage(Page afterImg, long recordStart, boolean afterCheckpoint,
+                          HashMap<PageId, Long> dirtyPages) throws IOException {
+        PageId pid = afterImg.getId();
+        if (!afterCheckpoint) {
+            Long recLsn = dirtyPages.get(pid);
+            if (recLsn == null || recordStart < recLsn) {
+                return; // already on disk when the checkpoint was taken
+            }
+        }
+        Database.getBufferPool().replacePageOnDisk(afterImg);
+    }
     
     /**
-     * Perform the undo phase
+     * Perform the undo phase.  Losers are undone together, always taking
+     * the latest outstanding record next, by following each loser's
+     * prevLSN chain back to its BEGIN record.
      * 
-     * @param losers 
+     * @param losers map from each loser to the offset of its last log record
      */
-    private void undo(HashSet<Long> losers) throws IOException {
-    	 readOnlyLog.seek(readOnlyLog.length()); // undoing so move to end of logfile
-         
-         synchronized (Database.getBufferPool()) {
-         	synchronized (this){
-         		long current = readOnlyLog.getFilePointer();
-         		while (current > LogFile.LONG_SIZE && !losers.isEmpty()) {
- 	        		readOnlyLog.seek(current - LogFile.LONG_SIZE);
- 	        		long recordOffset = readOnlyLog.readLong();
- 	        		readOnlyLog.seek(recordOffset);
- 	        		
- 	        		int type = readOnlyLog.readInt();
- 	                long tid = readOnlyLog.readLong();
- 	                
- 	                switch (type){
- 	                
-	 	                case LogType.UPDATE_RECORD: 
-	 	                	if (losers.contains(tid)){
-		 	                	Page beforeImg = LogFile.readPageData(readOnlyLog);
-		 	                    Page afterImg = LogFile.readPageData(readOnlyLog);		               
-		 	                    PageId pid = beforeImg.getId();
-		 	                    Database.getBufferPool().discardPage(pid);
-		 	                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(beforeImg);
-		 	                    Database.getLogFile().logCLR(tid, beforeImg);
-	 	                	}
-	 	                    break;
-	 	                case LogType.ABORT_RECORD:
-	 	                	if (losers.contains(tid))
-	 	                		throw new IOException("not possible");
-	 	                case LogType.BEGIN_RECORD:
-	 	                	if (losers.contains(tid)){
-	 	                		Database.getLogFile().logAbort(tid);
-	 	                		losers.remove(tid);
-	 	                	}
-	 	                	break;
-	 	                case LogType.CLR_RECORD:
-	 	                	break;
-	 	                case LogType.COMMIT_RECORD:
-	 	                	if (losers.contains(tid))
-	 	                		throw new IOException("Cannot abort a committed transaction!");
-	 	               case LogType.CHECKPOINT_RECORD:
-	 	            	   	break;
-	 	                default:
-	 	                	throw new RuntimeException("Unexpected type!  Type = " + type);
- 	                }
- 	               current = recordOffset;
-         		}
-         	}
-         }
+    private void undo(HashMap<Long, Long> losers) throws IOException {
+        PriorityQueue<Long> toUndo = new PriorityQueue<Long>(11, Collections.reverseOrder());
+        for (Map.Entry<Long, Long> loser : losers.entrySet()) {
+            Database.getLogFile().noteLiveTransaction(loser.getKey(), loser.getValue());
+            toUndo.add(loser.getValue());
+        }
+
+        while (!toUndo.isEmpty()) {
+            long current = toUndo.poll();
+            readOnlyLog.seek(current);
+            int type = readOnlyLog.readInt();
+            long tid = readOnlyLog.readLong();
+            long prevLsn = readOnlyLog.readLong();
+
+            switch (type) {
+                case LogType.UPDATE_RECORD:
+                    Page beforeImg = LogFile.readPageData(readOnlyLog);
+                    Database.getBufferPool().replacePageOnDisk(beforeImg);
+                    Database.getLogFile().logCLR(tid, beforeImg);
+                    break;
+                case LogType.APPEND_RECORD:
+                    undoAppend(tid);
+                    break;
+                case LogType.CLR_RECORD:
+                    break;
+                case LogType.BEGIN_RECORD:
+                    Database.getLogFile().logAbort(tid);
+                    continue;
+                case LogType.COMMIT_RECORD:
+                case LogType.ABORT_RECORD:
+                    throw new IOException("T_" + tid + " already completed; it cannot be a loser!");
+                default:
+                    throw new RuntimeException("Unexpected type!  Type = " + type);
+            }
+            if (prevLsn == LogFile.NO_PREV_LSN) {
+                Database.getLogFile().logAbort(tid);
+            } else {
+                toUndo.add(prevLsn);
+            }
+        }
+        readOnlyLog.seek(readOnlyLog.length());
     }
 }
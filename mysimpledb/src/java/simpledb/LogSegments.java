@@ -0,0 +1,302 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LogSegments stores the log as a sequence of segment files so that the
+ * oldest part of the log can be reclaimed by deleting whole files.
+ * <p/>
+ * Log offsets are positions in the logical log and never change.  Each
+ * segment file is named after the offset of its first byte (e.g.
+ * log.00000000000000000000), so offsets stay valid after older segments
+ * are deleted.  Appends roll over to a new segment once the last one has
+ * reached the segment size; since a record is never split, a segment may
+ * run a little past that size.
+ * <p/>
+ * All reads and writes go through Cursors.  Each cursor has its own
+ * position and uses positional channel I/O, so a reader never disturbs the
+ * appender (or vice versa).
+ *
+ * @see LogFile
+ */
+class LogSegments {
+
+    static final long DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    private static final int OFFSET_DIGITS = 20;
+
+    private final File base;
+    private final long segmentSize;
+
+    // segment start offset -> open channel on that segment's file
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<Long, FileChannel>();
+
+    /**
+     * Open the segments of the log named by base, creating an empty first
+     * segment if there are none.
+     *
+     * @param base        the log's name; segments live next to it
+     * @param segmentSize size in bytes after which a new segment is started
+     */
+    public LogSegments(File base, long segmentSize) throws IOException {
+        this.base = base.getAbsoluteFile();
+        this.segmentSize = segmentSize;
+
+        String prefix = this.base.getName() + ".";
+        File[] candidates = this.base.getParentFile().listFiles();
+        if (candidates != null) {
+            for (File candidate : candidates) {
+                String name = candidate.getName();
+                if (name.startsWith(prefix) && name.length() == prefix.length() + OFFSET_DIGITS) {
+                    try {
+                        open(Long.parseLong(name.substring(prefix.length())));
+                    } catch (NumberFormatException ignored) {
+                        // not one of ours
+                    }
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            open(0);
+        }
+    }
+
+    private File segmentFile(long start) {
+        return new File(base.getParentFile(),
+                base.getName() + "." + String.format("%0" + OFFSET_DIGITS + "d", start));
+    }
+
+    private FileChannel open(long start) throws IOException {
+        FileChannel channel = new RandomAccessFile(segmentFile(start), "rw").getChannel();
+        segments.put(start, channel);
+        return channel;
+    }
+
+    private void delete(long start) throws IOException {
+        segments.remove(start).close();
+        if (!segmentFile(start).delete()) {
+            throw new IOException("Could not delete log segment " + segmentFile(start));
+        }
+    }
+
+    /**
+     * @return the offset of the oldest byte still stored in the log
+     */
+    public synchronized long firstOffset() {
+        return segments.firstKey();
+    }
+
+    /**
+     * @return the offset just past the last byte of the log
+     */
+    public synchronized long length() throws IOException {
+        Map.Entry<Long, FileChannel> last = segments.lastEntry();
+        return last.getKey() + last.getValue().size();
+    }
+
+    /**
+     * @return the number of segment files currently making up the log
+     */
+    public synchronized int numSegments() {
+        return segments.size();
+    }
+
+    /**
+     * Start a new segment if the last one is full.  Must only be called at
+     * a record boundary.
+     */
+    public synchronized void rollIfFull() throws IOException {
+        Map.Entry<Long, FileChannel> last = segments.lastEntry();
+        long size = last.getValue().size();
+        if (size >= segmentSize) {
+            last.getValue().force(true);
+            open(last.getKey() + size);
+        }
+    }
+
+    /**
+     * Throw away the whole log and start over with an empty segment at
+     * offset 0.
+     */
+    public synchronized void reset() throws IOException {
+        for (Long start : new ArrayList<Long>(segments.keySet())) {
+            delete(start);
+        }
+        open(0);
+    }
+
+    /**
+     * Delete every segment that lies entirely before the given offset.  The
+     * last segment is never deleted.
+     *
+     * @return the number of segments deleted
+     */
+    public synchronized int truncateBefore(long offset) throws IOException {
+        int deleted = 0;
+        while (segments.size() > 1 && segments.higherKey(segments.firstKey()) <= offset) {
+            delete(segments.firstKey());
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Force the log to disk.  Only the last segment can hold unforced data,
+     * since segments are forced when they are rolled over.
+     */
+    public synchronized void force() throws IOException {
+        segments.lastEntry().getValue().force(true);
+    }
+
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * Read into buf from the segment containing offset, without crossing
+     * into the next segment.
+     *
+     * @return the number of bytes read, or -1 at the end of the log
+     */
+    private synchronized int read(ByteBuffer buf, long offset) throws IOException {
+        Map.Entry<Long, FileChannel> segment = segments.floorEntry(offset);
+        if (segment == null) {
+            throw new IOException("Log offset " + offset + " has been truncated");
+        }
+        long position = offset - segment.getKey();
+        if (position >= segment.getValue().size()) {
+            return -1;
+        }
+        return segment.getValue().read(buf, position);
+    }
+
+    /**
+     * Write all of buf at offset, which must lie in the last segment.
+     */
+    private synchronized void write(ByteBuffer buf, long offset) throws IOException {
+        Map.Entry<Long, FileChannel> last = segments.lastEntry();
+        if (offset < last.getKey()) {
+            throw new IOException("Log offset " + offset + " is not in the last segment");
+        }
+        long position = offset - last.getKey();
+        while (buf.hasRemaining()) {
+            position += last.getValue().write(buf, position);
+        }
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A position in the log with DataInput/DataOutput-style accessors for
+     * the few types the log uses.
+     */
+    class Cursor {
+        private long position;
+        private final ByteBuffer scratch = ByteBuffer.allocate(LogFile.LONG_SIZE);
+
+        public long getFilePointer() {
+            return position;
+        }
+
+        public void seek(long offset) {
+            position = offset;
+        }
+
+        public long length() throws IOException {
+            return LogSegments.this.length();
+        }
+
+        public long firstOffset() {
+            return LogSegments.this.firstOffset();
+        }
+
+        public int skipBytes(int n) {
+            position += n;
+            return n;
+        }
+
+        private void readFully(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                int n = read(buf, position);
+                if (n < 0) {
+                    throw new EOFException("Read past the end of the log");
+                }
+                position += n;
+            }
+        }
+
+        public void readFully(byte[] b) throws IOException {
+            readFully(ByteBuffer.wrap(b));
+        }
+
+        public int readInt() throws IOException {
+            scratch.clear();
+            scratch.limit(LogFile.INT_SIZE);
+            readFully(scratch);
+            scratch.flip();
+            return scratch.getInt();
+        }
+
+        public long readLong() throws IOException {
+            scratch.clear();
+            readFully(scratch);
+            scratch.flip();
+            return scratch.getLong();
+        }
+
+        public String readUTF() throws IOException {
+            // modified UTF-8, as written by DataOutput.writeUTF: an unsigned
+            // short byte count followed by the encoded characters
+            byte[] count = new byte[2];
+            readFully(count);
+            byte[] encoded = new byte[2 + (((count[0] & 0xff) << 8) | (count[1] & 0xff))];
+            encoded[0] = count[0];
+            encoded[1] = count[1];
+            readFully(ByteBuffer.wrap(encoded, 2, encoded.length - 2));
+            return DataInputStream.readUTF(new DataInputStream(new ByteArrayInputStream(encoded)));
+        }
+
+        public void write(byte[] b) throws IOException {
+            LogSegments.this.write(ByteBuffer.wrap(b), position);
+            position += b.length;
+        }
+
+        public void write(ByteBuffer buf) throws IOException {
+            int n = buf.remaining();
+            LogSegments.this.write(buf, position);
+            position += n;
+        }
+
+        public void writeInt(int v) throws IOException {
+            scratch.clear();
+            scratch.putInt(v);
+            scratch.flip();
+            LogSegments.this.write(scratch, position);
+            position += LogFile.INT_SIZE;
+        }
+
+        public void writeLong(long v) throws IOException {
+            scratch.clear();
+            scratch.putLong(v);
+            scratch.flip();
+            LogSegments.this.write(scratch, position);
+            position += LogFile.LONG_SIZE;
+        }
+
+        public void writeUTF(String s) throws IOException {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            new DataOutputStream(encoded).writeUTF(s);
+            write(encoded.toByteArray());
+        }
+    }
+}
@@ -11,4 +11,5 @@ public class LogType {
     public static final int BEGIN_RECORD = 4;
     public static final int CHECKPOINT_RECORD = 5;
     public static final int CLR_RECORD = 6;
+    public static final int APPEND_RECORD = 7;
 }
@@ -3,6 +3,7 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -314,6 +315,7 @@ public class LogicalPlan {
         HashMap<String, String> equivMap = new HashMap<String, String>();
         HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        HashMap<String, SeqScan> scans = new HashMap<String, SeqScan>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -325,6 +327,7 @@ public class LogicalPlan {
             }
 
             subplanMap.put(table.alias, ss);
+            scans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -355,11 +358,20 @@ public class LogicalPlan {
 
             Predicate p = null;
             try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+                int field = subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName);
+                // against a dictionary-encoded field, compare codes
+                StringDictionary dictionary = Database.getCatalog().getTupleDesc(getTableId(lf.tableAlias)).getDictionary(field);
+                if (dictionary != null)
+                    f = dictionary.lookup(f);
+                p = new Predicate(field, lf.p, f);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+            } catch (DbException e) {
+                throw new ParsingException(e);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the scan can skip pages where p cannot hold
+            scans.get(lf.tableAlias).skipPagesFailing(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -369,6 +381,10 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
 
+        // scans of column-oriented tables need only read the fields the
+        // query refers to
+        projectScans(scans);
+
         JoinOptimizer jo = new JoinOptimizer(this, joins);
 
         joins = jo.orderJoins(statsMap, filterSelectivities, explain);
@@ -511,6 +527,40 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Have each scan read only the fields the query refers to anywhere --
+     * in the select list, the filters, the joins, the aggregate and the
+     * ORDER BY -- unless the select list has a *.  See
+     * SeqScan#projectFields.
+     */
+    private void projectScans(Map<String, SeqScan> scans) {
+        HashSet<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*"))
+                return;
+            used.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            used.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            used.add(lj.f2QuantifiedName);
+        }
+        used.add(aggField);
+        used.add(groupByField);
+        used.add(oByField);
+
+        for (SeqScan ss : scans.values()) {
+            TupleDesc td = ss.getTupleDesc();
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            for (int i = 0; i < td.numFields(); i++) {
+                if (used.contains(td.getFieldName(i)))
+                    fields.add(i);
+            }
+            ss.projectFields(fields);
+        }
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
@@ -27,6 +27,9 @@ public class OperatorCardinality {
         } else if (o instanceof HashEquiJoin) {
             return updateHashEquiJoinCardinality((HashEquiJoin) o,
                     tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            return updateIndexNestedLoopJoinCardinality((IndexNestedLoopJoin) o,
+                    tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
@@ -196,9 +199,79 @@ public class OperatorCardinality {
                         .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
+
+        // the join's BloomFilter drops the outer tuples without a match
+        // before they reach the join, so the outer child passes up fewer
+        if (child1 instanceof Operator
+                && HashEquiJoin.pushDown(child1, j.getJoinPredicate().getField1(), null) != null) {
+            ((Operator) child1).setEstimatedCardinality(bloomFilteredCardinality(
+                    child1Card, j.getEstimatedCardinality()));
+        } else if (child1 instanceof SeqScan) {
+            ((SeqScan) child1).setEstimatedCardinality(bloomFilteredCardinality(
+                    child1Card, j.getEstimatedCardinality()));
+        }
         return child1HasJoinPK || child2HasJoinPK;
     }
 
+    private static boolean updateIndexNestedLoopJoinCardinality(IndexNestedLoopJoin j,
+                                                                Map<String, Integer> tableAliasToId,
+                                                                Map<String, TableStats> tableStats) {
+
+        DbIterator[] children = j.getChildren();
+        DbIterator child1 = children[0];
+        IndexScan child2 = (IndexScan) children[1];
+        int child1Card = 1;
+
+        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String tableAlias1 = tmp1[0];
+        String pureFieldName1 = tmp1[1];
+        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String tableAlias2 = tmp2[0];
+        String pureFieldName2 = tmp2[1];
+
+        boolean child1HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias1))
+                .equals(pureFieldName1);
+        boolean child2HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias2))
+                .equals(pureFieldName2);
+
+        if (child1 instanceof Operator) {
+            Operator child1O = (Operator) child1;
+            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
+                    tableStats);
+            child1HasJoinPK = pk || child1HasJoinPK;
+            child1Card = child1O.getEstimatedCardinality();
+            child1Card = child1Card > 0 ? child1Card : 1;
+        } else if (child1 instanceof SeqScan) {
+            child1Card = (int) (tableStats.get(((SeqScan) child1)
+                    .getTableName()).estimateTableCardinality(1.0));
+        }
+
+        // the inner child is always a scan of the whole indexed table,
+        // probed once per outer tuple
+        int child2Card = (int) (tableStats.get(child2.getTableName())
+                .estimateTableCardinality(1.0));
+
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
+                        .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+                pureFieldName1, pureFieldName2, child1Card, child2Card,
+                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
+        return child1HasJoinPK || child2HasJoinPK;
+    }
+
+    /**
+     * Estimate how many of outerCard outer tuples get past a HashEquiJoin's
+     * BloomFilter when the join produces joinCard tuples: each outer tuple
+     * with a match produces at least one joined tuple, and a fraction of
+     * the others are let through as false positives.
+     */
+    static int bloomFilteredCardinality(int outerCard, int joinCard) {
+        int matching = Math.min(outerCard, joinCard);
+        double passed = matching + (outerCard - matching) * BloomFilter.falsePositiveRate();
+        return Math.max(1, (int) Math.ceil(passed));
+    }
+
     private static boolean updateAggregateCardinality(Aggregate a,
                                                       Map<String, Integer> tableAliasToId,
                                                       Map<String, TableStats> tableStats) {
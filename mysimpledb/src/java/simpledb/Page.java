@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -7,7 +9,7 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  * <p/>
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  * Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -46,15 +48,29 @@ public interface Page {
 
     public byte[] getPageData();
 
+    /**
+     * Returns the bytes getPageData would return, as a read-only buffer
+     * that may share storage with the page.  The buffer is only valid until
+     * the page next changes.
+     */
+    public ByteBuffer getPageDataBuffer();
+
     /**
      * Provide a representation of this page before any modifications were made
      * to it.  Used by recovery.
      */
     public Page getBeforeImage();
 
+    /**
+     * Returns the bytes of getBeforeImage() without building a page from
+     * them; used by the log.  The array may be shared with the page, so it
+     * must not be modified, and is only valid until the page next changes.
+     */
+    public byte[] getBeforeImageData();
+
     /*
      * a transaction that wrote this page just committed it.
-     * copy current content to the before image.
+     * the current content becomes the before image.
      */
     public void setBeforeImage();
 }
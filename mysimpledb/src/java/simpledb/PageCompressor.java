@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PageCompressor compresses and decompresses page images with the JDK's
+ * deflate codec at its fastest level, which still shrinks the mostly
+ * zero-padded, repetitive pages of a typical table several times over.
+ * The zlib wrapper's checksum catches images that were damaged on disk.
+ * Used by compressed HeapFiles (see HeapFile#pageTableFile) and by the
+ * BufferPool's compressed tier (see BufferPool#setCompressedTierSize).
+ * <p/>
+ * Each thread keeps its own Deflater and Inflater, since setting one up
+ * costs much more than compressing a page.
+ */
+public class PageCompressor {
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private static final ThreadLocal<byte[]> chunks = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[4096];
+        }
+    };
+
+    private PageCompressor() {
+    }
+
+    /**
+     * @return data compressed, in an array of exactly the compressed length
+     */
+    public static byte[] compress(byte[] data) {
+        return compress(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * @return the remaining bytes of data compressed, in an array of exactly
+     * the compressed length.  A buffer with no accessible array, such as a
+     * read-only view of a page (see Page#getPageDataBuffer), is fed to the
+     * codec a chunk at a time rather than copied whole.
+     */
+    public static byte[] compress(ByteBuffer data) {
+        Deflater d = deflaters.get();
+        d.reset();
+        int len = data.remaining();
+        ByteBuffer in = data.duplicate();
+        if (in.hasArray()) {
+            d.setInput(in.array(), in.arrayOffset() + in.position(), len);
+            in.position(in.limit());
+        }
+        if (!in.hasRemaining())
+            d.finish();
+        byte[] chunk = chunks.get();
+        //incompressible data grows by a few bytes per 16K block
+        byte[] out = new byte[len + len / 1000 + 64];
+        int n = 0;
+        while (!d.finished()) {
+            if (in.hasRemaining() && d.needsInput()) {
+                int k = Math.min(chunk.length, in.remaining());
+                in.get(chunk, 0, k);
+                d.setInput(chunk, 0, k);
+                if (!in.hasRemaining())
+                    d.finish();
+            }
+            if (n == out.length)
+                out = Arrays.copyOf(out, out.length * 2);
+            n += d.deflate(out, n, out.length - n);
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Decompress len bytes of in, starting at off, into all of page.
+     *
+     * @throws IOException if the bytes are not a compressed image of exactly
+     *                     page.length bytes
+     */
+    public static void decompress(byte[] in, int off, int len, byte[] page) throws IOException {
+        Inflater inf = inflaters.get();
+        inf.reset();
+        inf.setInput(in, off, len);
+        try {
+            int n = 0;
+            while (!inf.finished()) {
+                //a spare byte to find out if the image is longer than a page
+                int k = n < page.length ? inf.inflate(page, n, page.length - n) : inf.inflate(new byte[1]);
+                if (k == 0 && (inf.needsInput() || inf.needsDictionary()))
+                    break;
+                n += k;
+            }
+            if (n != page.length || !inf.finished())
+                throw new IOException("compressed page is truncated or too long");
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page: " + e.getMessage());
+        }
+    }
+}
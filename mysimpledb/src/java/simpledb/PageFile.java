@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * PageFile is the part shared by the files whose pages are numbered from 0
+ * and named by FilePageIds: BTreeFile, ClusteredFile, HashFile, BitmapFile
+ * and ColumnFile.  It reads and writes their pages and adds new ones at the
+ * end of the file; subclasses say how a page is built from its bytes.
+ * <p/>
+ * A page past the end of the file reads as all zeros, which each page class
+ * takes as an empty page, so a file needs no header to be created.
+ *
+ * @param <P> the class of the file's pages
+ */
+public abstract class PageFile<P extends Page> implements DbFile {
+
+    private final File f;
+    private FileChannel channel;	//opened on first use
+
+    /**
+     * @param f the file that stores the pages
+     */
+    protected PageFile(File f) {
+        this.f = f;
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this file, the hash code of the
+     * absolute name of its file.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * @return the page with the given id built from data, a page's worth of
+     * bytes read from the file
+     */
+    protected abstract P makePage(FilePageId pid, byte[] data) throws IOException;
+
+    protected synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    protected void writeAt(ByteBuffer buf, long offset) throws IOException {
+        FileChannel ch = getChannel();
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position() - start);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != getId())
+            throw new IllegalArgumentException("The given page is not in this file");
+
+        try {
+            byte[] data = new byte[BufferPool.getPageSize()];
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long offset = (long) pid.pageNumber() * BufferPool.getPageSize();
+
+            //past the end of the file the page stays zeroed
+            FileChannel ch = getChannel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            return makePage((FilePageId) pid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        if (page.getId().getTableId() != getId())
+            throw new NoSuchElementException("page not in this file");
+
+        writeAt(page.getPageDataBuffer(), (long) page.getId().pageNumber() * BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Add an empty page at the end of the file and return it, locked for
+     * tid.  The page is written at once, so that the next allocation gets a
+     * different page number even if this one never leaves the BufferPool.
+     */
+    protected P newPage(TransactionId tid)
+            throws IOException, TransactionAbortedException, DbException {
+        int pageNo;
+        synchronized (f) {
+            long size = getChannel().size();
+            if (size == 0) {
+                //page 0 may exist only in the BufferPool so far
+                writeAt(ByteBuffer.wrap(new byte[BufferPool.getPageSize()]), 0);
+                size = BufferPool.getPageSize();
+            }
+            writeAt(ByteBuffer.wrap(new byte[BufferPool.getPageSize()]), size);
+            pageNo = (int) (size / BufferPool.getPageSize());
+        }
+        return getPage(tid, pageNo, Permissions.READ_WRITE);
+    }
+
+    /**
+     * @return page pageNo of this file, from the BufferPool, locked for tid
+     */
+    @SuppressWarnings("unchecked")
+    protected P getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (P) Database.getBufferPool().getPage(tid, new FilePageId(getId(), pageNo), perm);
+    }
+}
@@ -87,7 +87,8 @@ public class Predicate implements Serializable {
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
      * the constructor. The comparison can be made through Field's compare
-     * method.
+     * method. For a tuple read from a HeapPage, only the compared field is
+     * decoded.
      *
      * @param t The tuple to compare against
      * @return true if the comparison is true, false otherwise.
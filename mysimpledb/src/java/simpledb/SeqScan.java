@@ -17,6 +17,15 @@ public class SeqScan implements DbIterator {
     private int tableid;
     private String ta;
     private DbFileIterator dbi;
+    private List<Predicate> pagePredicates = new ArrayList<Predicate>();
+    private List<Integer> projectedFields;  //null to read every field
+
+    // tuples whose field bloomFields[i] is not in blooms[i] are dropped
+    private List<Integer> bloomFields = new ArrayList<Integer>();
+    private List<BloomFilter> blooms = new ArrayList<BloomFilter>();
+    private Tuple pending;  //the next tuple to return, read by hasNext
+    private long tuplesDropped;
+    private int estimatedCardinality = 0;   //0 until OperatorCardinality sets it
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -52,12 +61,108 @@ public class SeqScan implements DbIterator {
         return ta;
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Let the scan skip pages whose zone map shows that none of their tuples
+     * satisfy p (see HeapFile#zoneMapFile).  The scan still returns tuples
+     * that fail p from the pages it reads, so it must still be filtered by
+     * p.  Takes effect from the next open, and only on HeapFiles.
+     *
+     * @param p a predicate on the fields of this scan's TupleDesc
+     */
+    public void skipPagesFailing(Predicate p) {
+        pagePredicates.add(p);
+    }
+
+    /**
+     * Let the scan read only the given fields; the others may be left unset
+     * (null) in the tuples it returns, so they must not be needed by any
+     * operator above it.  Takes effect from the next open, and only on
+     * ColumnFiles, which can skip the pages of the other fields; other
+     * tables read whole tuples anyway.
+     *
+     * @param fields fields of this scan's TupleDesc, by index
+     */
+    public void projectFields(List<Integer> fields) {
+        projectedFields = new ArrayList<Integer>(fields);
+    }
+
+    /**
+     * Drop the tuples whose given field the filter shows to be absent,
+     * from now on, until the filter is removed.  Used by HashEquiJoin to
+     * discard tuples that cannot join before they go any further.
+     *
+     * @param field a field of this scan's TupleDesc
+     */
+    public void addBloomFilter(int field, BloomFilter filter) {
+        bloomFields.add(field);
+        blooms.add(filter);
+    }
+
+    public void removeBloomFilter(BloomFilter filter) {
+        int i = blooms.indexOf(filter);
+        if (i >= 0) {
+            bloomFields.remove(i);
+            blooms.remove(i);
+        }
+    }
+
+    /**
+     * @return the number of tuples dropped by BloomFilters so far
+     */
+    public long getTuplesDropped() {
+        return tuplesDropped;
+    }
+
+    /**
+     * @return the number of tuples this scan is estimated to return once
+     * its BloomFilters are applied, or 0 if it has not been estimated (see
+     * OperatorCardinality)
+     */
+    public int getEstimatedCardinality() {
+        return estimatedCardinality;
+    }
+
+    protected void setEstimatedCardinality(int card) {
+        this.estimatedCardinality = card;
+    }
+
+    private boolean passesBloomFilters(Tuple t) {
+        for (int i = 0; i < blooms.size(); i++) {
+            if (!blooms.get(i).mightContain(t.getField(bloomFields.get(i)))) {
+                tuplesDropped++;
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
-        dbi = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        pending = null;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HeapFile && !pagePredicates.isEmpty())
+            dbi = ((HeapFile) file).iterator(tid, pagePredicates);
+        else if (file instanceof ColumnFile && projectedFields != null)
+            dbi = ((ColumnFile) file).iterator(tid, projectedFields);
+        else
+            dbi = file.iterator(tid);
         dbi.open();
     }
 
@@ -104,23 +209,34 @@ public class SeqScan implements DbIterator {
         if (dbi == null)	//not opened
         	return false;
         
-        return dbi.hasNext();
+        while (pending == null && dbi.hasNext()) {
+            Tuple t = dbi.next();
+            if (passesBloomFilters(t))
+                pending = t;
+        }
+        return pending != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         if (dbi == null)
         	throw new NoSuchElementException("dbi not opened for next");
+        if (!hasNext())
+            throw new NoSuchElementException();
         
-        return dbi.next();
+        Tuple t = pending;
+        pending = null;
+        return t;
     }
 
     public void close() {
         dbi = null;
+        pending = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        pending = null;
         dbi.rewind();
     }
 }
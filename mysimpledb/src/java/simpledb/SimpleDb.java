@@ -43,8 +43,9 @@ public class SimpleDb {
                         fieldSeparator = args[4].charAt(0);
                 }
 
-                HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                        BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                HeapFileEncoder.convertParallel(sourceTxtFile, targetDatFile,
+                        BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator,
+                        Runtime.getRuntime().availableProcessors());
 
             } catch (IOException e) {
                 throw new RuntimeException(e);
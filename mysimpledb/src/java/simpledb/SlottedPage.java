@@ -0,0 +1,331 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedPage stores tuples of varying length, for tables with VARCHAR_TYPE
+ * fields.  A HeapFile uses SlottedPages instead of HeapPages when its
+ * TupleDesc has a varchar field.
+ * <p/>
+ * The page starts with an integer count of slots, followed by the slot
+ * directory: an integer offset and an integer length for each slot.  The
+ * records are packed at the end of the page, growing towards the
+ * directory.  An empty slot has offset 0.  A record is the serialized
+ * fields of its tuple; a varchar field takes a length and the bytes of its
+ * string, with no padding.
+ * <p/>
+ * Slot numbers are stable, so a tuple keeps its RecordId while it is on
+ * the page.  Deleting a tuple frees its slot for reuse, and its bytes are
+ * reclaimed the next time the page is written, since getPageData packs the
+ * records again.
+ *
+ * @see HeapPage
+ * @see Type#VARCHAR_TYPE
+ */
+public class SlottedPage implements TuplePage {
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 8;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // tuple in each slot, null for an empty slot
+    private final ArrayList<Tuple> slots = new ArrayList<Tuple>();
+    private int numEmptyEntries;	//null entries in slots
+    private int recordBytes;	//total size of the records on the page
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    byte[] oldData;     // the before image; null while it is the page as it is now
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described above.  An all-zero page is an empty page.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+
+        ByteBuffer page = ByteBuffer.wrap(data);
+        int numSlots = page.getInt();
+        if (numSlots < 0 || HEADER_SIZE + numSlots * SLOT_SIZE > data.length)
+            throw new IOException("bad slot count " + numSlots + " on " + id);
+        for (int i = 0; i < numSlots; i++) {
+            int offset = page.getInt();
+            int length = page.getInt();
+            if (offset == 0) {
+                slots.add(null);
+                numEmptyEntries++;
+                continue;
+            }
+            if (offset < HEADER_SIZE + numSlots * SLOT_SIZE || length <= 0 || offset + length > data.length)
+                throw new IOException("bad slot " + i + " on " + id);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+            slots.add(readTuple(dis, i));
+            recordBytes += length;
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * Create a SlottedPage from a buffer holding the page's bytes.  Reads
+     * from the buffer's position; the buffer itself is left untouched.
+     *
+     * @see #SlottedPage(HeapPageId, byte[])
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, toArray(data));
+    }
+
+    private static byte[] toArray(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private Tuple readTuple(DataInputStream dis, int slotId) throws IOException {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parse(dis));
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("parsing error in slot " + slotId + " on " + pid);
+        }
+        return t;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = getBeforeImageData();
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData != null ? oldData : getPageData();
+        }
+    }
+
+    /**
+     * The page as it is now becomes the before image.  It is only saved
+     * when the page next changes; see captureBeforeImage.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of bytes t takes as a record on this page
+     */
+    private int recordSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.VARCHAR_TYPE) {
+                size += 4 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+            } else {
+                size += td.getFieldType(j).getLen();
+            }
+        }
+        return size;
+    }
+
+    private void writeRecord(Tuple t, ByteBuffer buf) {
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.VARCHAR_TYPE) {
+                // the field may come from a fixed-length string column
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                buf.putInt(len);
+                for (int i = 0; i < len; i++)
+                    buf.put((byte) s.charAt(i));
+            } else {
+                f.serialize(buf);
+            }
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the records packed at the end of the page.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     * @see #SlottedPage
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        page.putInt(slots.size());
+
+        int end = data.length;
+        ByteBuffer records = ByteBuffer.wrap(data);
+        for (Tuple t : slots) {
+            if (t == null) {
+                page.putInt(0);
+                page.putInt(0);
+                continue;
+            }
+            int size = recordSize(t);
+            end -= size;
+            records.position(end);
+            writeRecord(t, records);
+            page.putInt(end);
+            page.putInt(size);
+        }
+        return data;
+    }
+
+    public ByteBuffer getPageDataBuffer() {
+        return ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0: no slots
+    }
+
+    private int freeBytes() {
+        return BufferPool.getPageSize() - HEADER_SIZE - SLOT_SIZE * slots.size() - recordBytes;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        int needed = recordSize(t) + (numEmptyEntries > 0 ? 0 : SLOT_SIZE);
+        return needed <= freeBytes();
+    }
+
+    /**
+     * Returns the number of tuples of the largest possible size that still
+     * fit on this page.  Shorter tuples may fit when this is 0; see
+     * hasRoomFor.
+     */
+    public int getNumEmptySlots() {
+        int largest = td.getSize();
+        int free = freeBytes();
+        // empty slot entries are reused first; after that each tuple also
+        // needs a new entry in the slot directory
+        int reused = Math.min(numEmptyEntries, free / largest);
+        free -= reused * largest;
+        if (reused < numEmptyEntries)
+            return reused;
+        return reused + free / (largest + SLOT_SIZE);
+    }
+
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < slots.size() && slots.get(i) != null;
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (t == null)
+            throw new NullPointerException();
+        if (!hasRoomFor(t))
+            throw new DbException("No room for the tuple on this page");
+
+        captureBeforeImage();
+        int i = slots.size();
+        if (numEmptyEntries > 0) {
+            i = slots.indexOf(null);
+            slots.set(i, t);
+            numEmptyEntries--;
+        } else {
+            slots.add(t);
+        }
+        recordBytes += recordSize(t);
+        t.setRecordId(new RecordId(pid, i));
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        if (t == null)
+            throw new NullPointerException();
+        if (!t.getRecordId().getPageId().equals(pid))
+            throw new DbException("Tuple is not on this page");
+
+        int i = t.getRecordId().tupleno();
+        if (!isSlotUsed(i))
+            throw new DbException("Slot already empty");
+
+        captureBeforeImage();
+        recordBytes -= recordSize(slots.get(i));
+        slots.set(i, null);
+        numEmptyEntries++;
+        // no tuple can refer to trailing empty slots, so drop them
+        while (!slots.isEmpty() && slots.get(slots.size() - 1) == null) {
+            slots.remove(slots.size() - 1);
+            numEmptyEntries--;
+        }
+    }
+
+    public Tuple getTuple(int i) {
+        return i >= 0 && i < slots.size() ? slots.get(i) : null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                while (next < slots.size() && slots.get(next) == null)
+                    next++;
+                return next < slots.size();
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return slots.get(next++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
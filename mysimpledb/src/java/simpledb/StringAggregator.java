@@ -82,7 +82,7 @@ public class StringAggregator implements Aggregator {
             if (gbfield != NO_GROUPING) {
                 if (gbfieldtype == Type.INT_TYPE)
                     tup.setField(0, new IntField(new Integer(groupVal)));
-                else tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
+                else tup.setField(0, new StringField(groupVal, Type.STRING_LEN, gbfieldtype));
             }
 
             switch (what) {
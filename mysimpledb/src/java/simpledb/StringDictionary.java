@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * StringDictionary assigns each distinct value of a dictionary-encoded
+ * STRING_TYPE column an int code, so that the column's HeapPages store
+ * 4-byte codes rather than 132-byte padded strings.  It suits categorical
+ * columns, with few distinct values repeated over many tuples.
+ * <p/>
+ * The values are kept in a HeapFile of their own, one tuple per value,
+ * whose pages are read and logged through the BufferPool like any table's;
+ * a value's code is its position in that file, its page number times the
+ * slots per page plus its slot.  Values are only ever added, each by a
+ * Transaction of its own that is logged and commits at once, so a code
+ * stays valid, and survives a crash, even if the transaction that first
+ * used it aborts.  The dictionary is read into memory on first use, and
+ * decoding a code is an array lookup that returns the same StringField
+ * for every tuple with that value.
+ *
+ * @see HeapFile#HeapFile(File, TupleDesc, int[])
+ * @see StringField
+ */
+public class StringDictionary {
+
+    private static final TupleDesc ENTRY = new TupleDesc(new Type[]{Type.STRING_TYPE}, new String[]{"value"});
+
+    private final HeapFile entries;
+    private ArrayList<StringField> values;  //by code, null where no value has it; null until loaded
+    private HashMap<String, StringField> fields;
+    private int slotsPerPage;
+
+    /**
+     * Constructs a dictionary backed by the specified file.
+     *
+     * @param f the file that stores the dictionary's values
+     */
+    public StringDictionary(File f) {
+        this.entries = new HeapFile(f, ENTRY);
+    }
+
+    /**
+     * @return the HeapFile that holds the values; the Catalog registers it
+     * along with the table, so that the BufferPool can find its pages
+     */
+    public HeapFile getFile() {
+        return entries;
+    }
+
+    /**
+     * @return the number of distinct values in the dictionary
+     */
+    public synchronized int size() throws DbException {
+        load();
+        return fields.size();
+    }
+
+    private int codeOf(RecordId rid) {
+        return rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno();
+    }
+
+    private void put(int code, String value) {
+        StringField f = new StringField(value, this, code);
+        while (values.size() <= code)
+            values.add(null);
+        values.set(code, f);
+        fields.put(value, f);
+    }
+
+    /**
+     * Read the values into memory, if they are not there yet.
+     */
+    private void load() throws DbException {
+        if (values != null)
+            return;
+        values = new ArrayList<StringField>();
+        fields = new HashMap<String, StringField>();
+        slotsPerPage = entries.tuplesPerPage();
+        if (entries.numPages() == 0)
+            return;
+        TransactionId tid = new TransactionId();
+        try {
+            DbFileIterator it = entries.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                put(codeOf(t.getRecordId()), ((StringField) t.getField(0)).getValue());
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (Exception e) {
+            values = null;
+            String msg = "could not read dictionary: " + e.getMessage();
+            try {
+                Database.getBufferPool().transactionComplete(tid, false);
+            } catch (IOException e2) {
+                msg += "; could not release its locks: " + e2.getMessage();
+            }
+            throw new DbException(msg);
+        }
+    }
+
+    /**
+     * Returns the value with the given code.
+     *
+     * @throws NoSuchElementException if no value has the code
+     */
+    public synchronized StringField decode(int code) {
+        try {
+            load();
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        }
+        StringField f = code >= 0 && code < values.size() ? values.get(code) : null;
+        if (f == null)
+            throw new NoSuchElementException("no value has code " + code);
+        return f;
+    }
+
+    /**
+     * Returns the field's value coded by this dictionary, adding the value
+     * to the dictionary if it is not there yet.
+     */
+    public synchronized StringField encode(Field f) throws DbException {
+        if (((StringField) f).getDictionary() == this)
+            return (StringField) f;
+        load();
+        String value = ((StringField) f).getValue();
+        StringField coded = fields.get(value);
+        if (coded != null)
+            return coded;
+
+        Tuple t = new Tuple(ENTRY);
+        t.setField(0, new StringField(value, Type.STRING_LEN));
+        Transaction xact = new Transaction();
+        xact.start();
+        try {
+            Database.getBufferPool().insertTuple(xact.getId(), entries.getId(), t);
+            xact.commit();
+        } catch (Exception e) {
+            String msg = "could not add to dictionary: " + e.getMessage();
+            try {
+                xact.abort();
+            } catch (IOException e2) {
+                msg += "; could not roll back: " + e2.getMessage();
+            }
+            throw new DbException(msg);
+        }
+        put(codeOf(t.getRecordId()), value);
+        return fields.get(value);
+    }
+
+    /**
+     * Returns the field's value coded by this dictionary if the dictionary
+     * has it, or the field itself if not.  Used for constants a column is
+     * compared to, which a filter can then compare by code.
+     */
+    public synchronized Field lookup(Field f) throws DbException {
+        load();
+        StringField coded = fields.get(((StringField) f).getValue());
+        return coded != null ? coded : f;
+    }
+
+    /**
+     * @return the code of f, which must be in this dictionary
+     * @throws IllegalArgumentException if it is not
+     */
+    synchronized int codeOf(Field f) {
+        StringField sf = (StringField) f;
+        if (sf.getDictionary() == this)
+            return sf.getCode();
+        StringField coded = values == null ? null : fields.get(sf.getValue());
+        if (coded == null)
+            throw new IllegalArgumentException("\"" + sf.getValue() + "\" is not in the dictionary");
+        return coded.getCode();
+    }
+}
@@ -1,9 +1,17 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
- * Instance of Field that stores a single String of a fixed length.
+ * Instance of Field that stores a single String of a fixed length, or of a
+ * variable length for VARCHAR_TYPE fields.
+ * <p/>
+ * A StringField read from a dictionary-encoded column also carries its
+ * code in the column's StringDictionary.  Two fields coded by the same
+ * dictionary are compared for equality by their codes, so filters,
+ * grouping and hash joins on such a column compare ints rather than
+ * strings.
  */
 public class StringField implements Field {
 
@@ -11,6 +19,9 @@ public class StringField implements Field {
 
     private final String value;
     private final int maxSize;
+    private final Type type;
+    private final transient StringDictionary dictionary;    //null if not coded
+    private final int code;
 
     public String getValue() {
         return value;
@@ -23,7 +34,34 @@ public class StringField implements Field {
      * @param maxSize The maximum size of this string
      */
     public StringField(String s, int maxSize) {
+        this(s, maxSize, Type.STRING_TYPE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param s       The value of this field.
+     * @param maxSize The maximum size of this string
+     * @param type    STRING_TYPE or VARCHAR_TYPE
+     */
+    public StringField(String s, int maxSize, Type type) {
+        this(s, maxSize, type, null, -1);
+    }
+
+    /**
+     * Constructor for a value with its code in a dictionary.
+     *
+     * @see StringDictionary#encode
+     */
+    StringField(String s, StringDictionary dictionary, int code) {
+        this(s, Type.STRING_LEN, Type.STRING_TYPE, dictionary, code);
+    }
+
+    private StringField(String s, int maxSize, Type type, StringDictionary dictionary, int code) {
         this.maxSize = maxSize;
+        this.type = type;
+        this.dictionary = dictionary;
+        this.code = code;
 
         if (s.length() > maxSize)
             value = s.substring(0, maxSize);
@@ -40,13 +78,29 @@ public class StringField implements Field {
     }
 
     public boolean equals(Object field) {
-        return ((StringField) field).value.equals(value);
+        StringField other = (StringField) field;
+        if (dictionary != null && dictionary == other.dictionary)
+            return code == other.code;
+        return other.value.equals(value);
+    }
+
+    /**
+     * @return the dictionary that assigned this value its code, or null if
+     * it has none
+     */
+    StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    int getCode() {
+        return code;
     }
 
     /**
      * Write this string to dos. Always writes maxSize + 4 bytes to the passed
      * in dos. First four bytes are string length, next bytes are string, with
-     * remainder padded with 0 to maxSize.
+     * remainder padded with 0 to maxSize.  A VARCHAR_TYPE string is not
+     * padded.
      *
      * @param dos Where the string is written
      */
@@ -59,10 +113,27 @@ public class StringField implements Field {
         }
         dos.writeInt(s.length());
         dos.writeBytes(s);
+        if (type == Type.VARCHAR_TYPE)
+            return;
         while (overflow-- > 0)
             dos.write((byte) 0);
     }
 
+    /**
+     * Write this string to buf, in the same format as
+     * serialize(DataOutputStream).
+     */
+    public void serialize(ByteBuffer buf) {
+        int len = Math.min(value.length(), maxSize);
+        buf.putInt(len);
+        for (int i = 0; i < len; i++)
+            buf.put((byte) value.charAt(i));
+        if (type == Type.VARCHAR_TYPE)
+            return;
+        for (int i = len; i < maxSize; i++)
+            buf.put((byte) 0);
+    }
+
     /**
      * Compare the specified field to the value of this Field. Return semantics
      * are as specified by Field.compare
@@ -73,6 +144,12 @@ public class StringField implements Field {
     public boolean compare(Predicate.Op op, Field val) {
 
         StringField iVal = (StringField) val;
+        if (dictionary != null && dictionary == iVal.dictionary) {
+            if (op == Predicate.Op.EQUALS)
+                return code == iVal.code;
+            if (op == Predicate.Op.NOT_EQUALS)
+                return code != iVal.code;
+        }
         int cmpVal = value.compareTo(iVal.value);
 
         switch (op) {
@@ -106,6 +183,6 @@ public class StringField implements Field {
      */
     public Type getType() {
 
-        return Type.STRING_TYPE;
+        return type;
     }
 }
@@ -122,7 +122,7 @@ public class TableStats {
         //store distinct values for each string field
         HashMap<Integer, HashSet<String>> distinctStrValues = new HashMap<Integer, HashSet<String>>();
         
-        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        DbFile hf = Database.getCatalog().getDatabaseFile(tableid);
         TupleDesc td = hf.getTupleDesc();
         
         this.numPages = hf.numPages();
@@ -176,6 +176,7 @@ public class TableStats {
         					break;
         					
         				case STRING_TYPE:
+        				case VARCHAR_TYPE:
         					String strVal = ((StringField) t.getField(i)).getValue();
         					
         					//only update distinctStrValues
@@ -219,7 +220,7 @@ public class TableStats {
     }
     
     private void createHistograms(int tableid){
-    	HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+    	DbFile hf = Database.getCatalog().getDatabaseFile(tableid);
     	
     	TupleDesc td = hf.getTupleDesc();
     	
@@ -247,6 +248,7 @@ public class TableStats {
         					}
         					break;
         				case STRING_TYPE:
+        				case VARCHAR_TYPE:
         					//get field value
         					String strVal = ((StringField) t.getField(i)).getValue();
         					
@@ -55,8 +55,9 @@ public class Transaction {
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);  // force policy, drop this as challenge problem
+                //log all the dirty pages for this transaction; NO-FORCE, so
+                //only the log is forced, by the commit record
+                Database.getBufferPool().flushPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
@@ -1,6 +1,9 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -17,6 +20,12 @@ public class Tuple implements Serializable {
     private TupleDesc td;
     private RecordId id;
 
+    // for a tuple read from a HeapPage: the page's bytes and the offset of
+    // this tuple's slot.  Fields are decoded from them the first time they
+    // are asked for; null once every field has been set or decoded.
+    private transient ByteBuffer data;
+    private transient int offset;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -29,6 +38,46 @@ public class Tuple implements Serializable {
     	
     }
 
+    /**
+     * Create a tuple whose fields are stored, serialized, at offset in data.
+     * Nothing is decoded up front; each field is parsed when getField first
+     * asks for it, so operators that look at a few fields never pay for the
+     * rest.  The caller must not modify data while the tuple is in use.
+     *
+     * @param td     the schema of this tuple
+     * @param rid    the location of this tuple on disk
+     * @param data   the bytes holding the serialized tuple, read with
+     *               absolute gets only
+     * @param offset the index of the tuple's first field in data
+     */
+    Tuple(TupleDesc td, RecordId rid, ByteBuffer data, int offset) {
+    	this(td);
+    	this.id = rid;
+    	this.data = data;
+    	this.offset = offset;
+    }
+
+    /**
+     * @return true if this tuple is still just a view of the bytes it was
+     * created from, with no field set since, so that they can be copied
+     * instead of serializing the fields again.
+     */
+    boolean isView() {
+    	return data != null;
+    }
+
+    /**
+     * Decode every field that has not been decoded yet, and let go of the
+     * bytes they came from.
+     */
+    private void materialize() {
+    	if (data == null)
+    		return;
+    	for (int i = 0; i < fieldArray.length; i++)
+    		getField(i);
+    	data = null;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -57,18 +106,18 @@ public class Tuple implements Serializable {
      * Change the value of the ith field of this tuple.
      *
      * @param i index of the field to change. It must be a valid index.
-     * @param f new value for the field.
+     * @param f new value for the field, or null to leave it unset (a scan
+     *          that reads only some columns of a ColumnFile leaves the
+     *          others unset, and joins copy them as they are)
      */
     public void setField(int i, Field f) {   
     	if (i < 0 || i >= fieldArray.length)
     		throw new IndexOutOfBoundsException();
     	
-    	if (f == null)
-    		throw new NullPointerException();
-    	
-    	if (!td.getFieldType(i).equals(f.getType()))
+    	if (f != null && !td.getFieldType(i).equals(f.getType()))
     		throw new RuntimeException("Incompatible types");
     	
+    	materialize();
     	fieldArray[i] = f;    	    	
     }
 
@@ -77,7 +126,17 @@ public class Tuple implements Serializable {
      * @return the value of the ith field, or null if it has not been set.
      */
     public Field getField(int i) {
-        return fieldArray[i];
+        Field f = fieldArray[i];
+        ByteBuffer bytes = data;
+        if (f == null && bytes != null) {
+        	StringDictionary dictionary = td.getDictionary(i);
+        	if (dictionary != null)
+        		f = dictionary.decode(bytes.getInt(offset + td.getFieldOffset(i)));
+        	else
+        		f = td.getFieldType(i).parse(bytes, offset + td.getFieldOffset(i));
+        	fieldArray[i] = f;
+        }
+        return f;
     }
 
     /**
@@ -92,9 +151,14 @@ public class Tuple implements Serializable {
     	String s = "";
     	
     	for (int i = 0; i < fieldArray.length; i++){
-    		s += fieldArray[i].toString() + "\t";
+    		s += getField(i).toString() + "\t";
     	}
         return s.trim();   //remove trailing tab
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+    	materialize();
+    	out.defaultWriteObject();
+    }
+
 }
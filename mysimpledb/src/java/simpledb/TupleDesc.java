@@ -40,6 +40,10 @@ public class TupleDesc implements Serializable {
     private TDItem[] TDarray;
     private int numField = 0;
     private int size = 0;
+    private int[] offsets;
+    // the dictionary of each dictionary-encoded STRING_TYPE field, whose
+    // values are stored as 4-byte codes; null if no field is encoded
+    private transient StringDictionary[] dictionaries;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -55,13 +59,49 @@ public class TupleDesc implements Serializable {
     		throw new IllegalArgumentException("Type array incompatible with field array");
     	
     	TDarray = new TDItem[typeAr.length];
+    	offsets = new int[typeAr.length];
     	for (int i = 0; i < typeAr.length; i++){
     		TDarray[i] = new TDItem(typeAr[i], fieldAr[i]);
     		numField++;
+    		offsets[i] = size;
     		size += typeAr[i].getLen();
     	}
     }
 
+    /**
+     * Returns a copy of this TupleDesc whose STRING_TYPE fields with a
+     * dictionary are stored as the 4-byte codes the dictionary assigns
+     * (see HeapFile#HeapFile(File, TupleDesc, int[])).  Sizes and offsets
+     * follow.
+     *
+     * @param dictionaries the dictionary of each field, or null for a field
+     *                     stored as it is
+     */
+    TupleDesc withDictionaries(StringDictionary[] dictionaries) {
+    	Type[] types = new Type[numField];
+    	String[] names = new String[numField];
+    	for (int i = 0; i < numField; i++){
+    		types[i] = getFieldType(i);
+    		names[i] = getFieldName(i);
+    	}
+    	TupleDesc rv = new TupleDesc(types, names);
+    	rv.dictionaries = dictionaries.clone();
+    	rv.size = 0;
+    	for (int i = 0; i < numField; i++){
+    		rv.offsets[i] = rv.size;
+    		rv.size += dictionaries[i] != null ? Type.INT_TYPE.getLen() : types[i].getLen();
+    	}
+    	return rv;
+    }
+
+    /**
+     * @return the dictionary field i is encoded with, or null if it is
+     * stored as it is
+     */
+    public StringDictionary getDictionary(int i) {
+    	return dictionaries == null ? null : dictionaries[i];
+    }
+
     /**
      * Constructor. Create a new tuple desc with typeAr.length fields with
      * fields of the specified types, with anonymous (unnamed) fields.
@@ -137,6 +177,23 @@ public class TupleDesc implements Serializable {
     	return size;
     }
 
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple, as
+     * stored in a HeapPage slot.
+     *
+     * @param i The index of the field. It must be a valid index.
+     * @return the number of bytes taken by the fields before the ith
+     * @throws NoSuchElementException if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+    	if (i < numField){
+    		return offsets[i];
+    	}
+    	else{
+    		throw new NoSuchElementException();
+    	}
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
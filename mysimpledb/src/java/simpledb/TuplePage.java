@@ -0,0 +1,59 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is the interface of the pages a HeapFile is made of.  Tuples
+ * live in numbered slots; a tuple's RecordId names its page and slot.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @param t The tuple to add.
+     * @throws DbException if there is no room for the tuple
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated
+     * to reflect that it is no longer stored on any page.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns the number of tuples that can still be added to this page,
+     * assuming each is as large as the page's TupleDesc allows.
+     */
+    public int getNumEmptySlots();
+
+    /**
+     * Returns true if insertTuple(t) would succeed.
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i);
+
+    /**
+     * Returns the tuple in slot i, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i);
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     * this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new IntField(data.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,48 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new StringField(readString(data, offset), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new StringField(readString(data, offset), STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        /**
+         * A varchar takes only as many bytes as its string needs, so this is
+         * the most it can take: a length and STRING_LEN bytes.  Tables with
+         * a varchar field are stored in SlottedPages.
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN + 4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN, this);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new StringField(readString(data, offset), STRING_LEN, this);
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new StringField(readString(data, offset), STRING_LEN, this);
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -60,4 +113,56 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * Decode a field of this type in place, without going through a stream.
+     *
+     * @param data   the bytes holding the serialized field
+     * @param offset the position of the field's first byte in data
+     * @return a Field object of the same type as this object
+     */
+    public abstract Field parse(byte[] data, int offset);
+
+    /**
+     * Decode a field of this type in place from a buffer, such as a slice of
+     * a memory-mapped file, with absolute reads; the buffer's position is
+     * left alone.
+     *
+     * @param data   the buffer holding the serialized field
+     * @param offset the index of the field's first byte in data
+     * @return a Field object of the same type as this object
+     */
+    public abstract Field parse(ByteBuffer data, int offset);
+
+    /**
+     * Read a serialized int field (big-endian, as written by
+     * DataOutputStream) at offset in data.
+     */
+    public static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    /**
+     * Read a serialized string field (a length followed by the string's
+     * bytes) at offset in data.
+     */
+    public static String readString(byte[] data, int offset) {
+        return new String(data, offset + 4, readInt(data, offset));
+    }
+
+    /**
+     * Read a serialized string field at index offset in a buffer, without
+     * moving the buffer's position.
+     */
+    public static String readString(ByteBuffer data, int offset) {
+        int len = data.getInt(offset);
+        if (data.hasArray())
+            return new String(data.array(), data.arrayOffset() + offset + 4, len);
+        byte[] bytes = new byte[len];
+        ByteBuffer buf = data.duplicate();
+        buf.position(offset + 4);
+        buf.get(bytes);
+        return new String(bytes);
+    }
+
 }
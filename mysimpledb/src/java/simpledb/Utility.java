@@ -109,6 +109,9 @@ public class Utility {
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
         fos.close();
+        HeapFile.freeSpaceMapFile(f).delete();
+        HeapFile.zoneMapFile(f).delete();
+        HeapFile.pageTableFile(f).delete();
 
         HeapFile hf = openHeapFile(cols, f);
         HeapPageId pid = new HeapPageId(hf.getId(), 0);
@@ -0,0 +1,220 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    // small pages, so that a few thousand keys make a three-level tree
+    private static final int PAGE_SIZE = 512;
+    private static final int ROWS = 3000;
+    private static final int KEYS = 100;
+
+    private File tableFile;
+    private File indexFile;
+    private HeapFile table;
+    private BTreeFile index;
+    private TransactionId tid;
+
+    @Before
+    public void createIndex() throws Exception {
+        BufferPool.setPageSize(PAGE_SIZE);
+        Database.resetBufferPool(1000);
+
+        tableFile = File.createTempFile("table", ".dat");
+        tableFile.deleteOnExit();
+        HeapFile.freeSpaceMapFile(tableFile).deleteOnExit();
+        HeapFile.zoneMapFile(tableFile).deleteOnExit();
+        table = Utility.createEmptyHeapFile(tableFile.getAbsolutePath(), 2);
+        indexFile = File.createTempFile("index", ".dat");
+        indexFile.deleteOnExit();
+        index = new BTreeFile(indexFile, table, 1);
+        Database.getCatalog().addIndex(index);
+
+        // column 1 repeats every KEYS rows, so every key has duplicates
+        tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+    }
+
+    @After
+    public void resetPageSize() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private ArrayList<Tuple> lookup(Predicate.Op op, int key) throws Exception {
+        ArrayList<Tuple> rv = new ArrayList<Tuple>();
+        IndexScan scan = new IndexScan(tid, index.getId(), op, new IntField(key));
+        scan.open();
+        while (scan.hasNext())
+            rv.add(scan.next());
+        scan.close();
+        return rv;
+    }
+
+    /**
+     * The tree has grown past a single level, and a full scan returns every
+     * tuple in key order.
+     */
+    @Test
+    public void scanInKeyOrder() throws Exception {
+        BTreePage root = (BTreePage) Database.getBufferPool().getPage(tid,
+                new FilePageId(index.getId(), 0), Permissions.READ_ONLY);
+        assertFalse(root.isLeaf());
+
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(1)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * Equality and range lookups return exactly the matching tuples.
+     */
+    @Test
+    public void lookups() throws Exception {
+        ArrayList<Tuple> equal = lookup(Predicate.Op.EQUALS, 42);
+        assertEquals(ROWS / KEYS, equal.size());
+        for (Tuple t : equal)
+            assertEquals(42, ((IntField) t.getField(0)).getValue() % KEYS);
+
+        assertEquals(10 * ROWS / KEYS, lookup(Predicate.Op.LESS_THAN, 10).size());
+        assertEquals(11 * ROWS / KEYS, lookup(Predicate.Op.LESS_THAN_OR_EQ, 10).size());
+        assertEquals(9 * ROWS / KEYS, lookup(Predicate.Op.GREATER_THAN, 90).size());
+        assertEquals(10 * ROWS / KEYS, lookup(Predicate.Op.GREATER_THAN_OR_EQ, 90).size());
+        assertEquals(0, lookup(Predicate.Op.EQUALS, KEYS).size());
+    }
+
+    /**
+     * Deleting tuples through the BufferPool removes their index entries.
+     */
+    @Test
+    public void deleteMaintainsIndex() throws Exception {
+        for (Tuple t : lookup(Predicate.Op.LESS_THAN, 50))
+            Database.getBufferPool().deleteTuple(tid, t);
+
+        assertEquals(0, lookup(Predicate.Op.EQUALS, 7).size());
+        assertEquals(ROWS / KEYS, lookup(Predicate.Op.EQUALS, 57).size());
+        assertEquals(ROWS / 2, lookup(null, 0).size());
+
+        // and the emptied leaves take new entries
+        Database.getBufferPool().insertTuple(tid, table.getId(),
+                Utility.getHeapTuple(new int[]{ROWS, 7}));
+        assertEquals(1, lookup(Predicate.Op.EQUALS, 7).size());
+    }
+
+    /**
+     * Writers lock only the leaves they change, so two transactions delete
+     * from different leaves without waiting for each other.
+     */
+    @Test
+    public void writersShareInternalPages() throws Exception {
+        Tuple first = lookup(Predicate.Op.EQUALS, 5).get(0);
+        ArrayList<Tuple> last = lookup(Predicate.Op.EQUALS, KEYS - 5);
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Database.getBufferPool().deleteTuple(t1, first);
+        Database.getBufferPool().deleteTuple(t2, last.get(last.size() - 1));
+        FilePageId root = new FilePageId(index.getId(), 0);
+        assertTrue(Database.getBufferPool().holdsLock(t1, root));
+        assertTrue(Database.getBufferPool().holdsLock(t2, root));
+        Database.getBufferPool().transactionComplete(t1);
+        Database.getBufferPool().transactionComplete(t2);
+
+        tid = new TransactionId();
+        assertEquals(ROWS / KEYS - 1, lookup(Predicate.Op.EQUALS, 5).size());
+        assertEquals(ROWS / KEYS - 1, lookup(Predicate.Op.EQUALS, KEYS - 5).size());
+    }
+
+    /**
+     * An aborted transaction's deletes and its inserts, including the
+     * splits they caused, leave the tree as it was.
+     */
+    @Test
+    public void abortRestoresIndex() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (Tuple t : lookup(Predicate.Op.EQUALS, 7))
+            Database.getBufferPool().deleteTuple(tid, t);
+        for (int i = ROWS; i < ROWS + ROWS / 2; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+        assertEquals(ROWS + ROWS / 2 - ROWS / KEYS, lookup(null, 0).size());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(ROWS / KEYS, lookup(Predicate.Op.EQUALS, 7).size());
+        assertEquals(ROWS, lookup(null, 0).size());
+    }
+
+    /**
+     * After a crash, recovery redoes a committed transaction's inserts
+     * that were never flushed, and undoes the flushed deletes of one that
+     * did not commit.
+     */
+    @Test
+    public void recoveryRestoresIndex() throws Exception {
+        // the fixture's tid logged no BEGIN, so recover from a checkpoint after it
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+
+        Transaction winner = new Transaction();
+        winner.start();
+        for (int i = ROWS; i < ROWS + KEYS; i++) {
+            Database.getBufferPool().insertTuple(winner.getId(), table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+        winner.commit();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        tid = loser.getId();
+        for (Tuple t : lookup(Predicate.Op.EQUALS, 7))
+            Database.getBufferPool().deleteTuple(loser.getId(), t);
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        table = Utility.openHeapFile(2, tableFile);
+        index = new BTreeFile(indexFile, table, 1);
+        Database.getCatalog().addIndex(index);
+        Database.getLogFile().recover();
+
+        tid = new TransactionId();
+        assertEquals(ROWS / KEYS + 1, lookup(Predicate.Op.EQUALS, 7).size());
+        assertEquals(ROWS + KEYS, lookup(null, 0).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
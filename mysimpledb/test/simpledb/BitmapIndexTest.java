@@ -0,0 +1,213 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+    // small pages, so that the bitmaps span several chunks
+    private static final int PAGE_SIZE = 512;
+    private static final int ROWS = 3000;
+
+    private HeapFile table;
+    private BitmapFile index1;
+    private BitmapFile index2;
+    private TransactionId tid;
+
+    private BitmapFile createIndex(int field) throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        BitmapFile index = new BitmapFile(f, table, field);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    @Before
+    public void createIndexes() throws Exception {
+        BufferPool.setPageSize(PAGE_SIZE);
+        Database.resetBufferPool(1000);
+
+        File tableFile = File.createTempFile("table", ".dat");
+        tableFile.deleteOnExit();
+        HeapFile.freeSpaceMapFile(tableFile).deleteOnExit();
+        HeapFile.zoneMapFile(tableFile).deleteOnExit();
+        table = Utility.createEmptyHeapFile(tableFile.getAbsolutePath(), 3);
+        index1 = createIndex(1);
+        index2 = createIndex(2);
+
+        tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % 5, i % 3}));
+        }
+    }
+
+    @After
+    public void resetPageSize() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private ArrayList<Tuple> collect(DbIterator it) throws Exception {
+        ArrayList<Tuple> rv = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            rv.add(it.next());
+        it.close();
+        return rv;
+    }
+
+    private ArrayList<Tuple> lookup(BitmapFile index, Predicate.Op op, int key) throws Exception {
+        return collect(new IndexScan(tid, index.getId(), op, new IntField(key)));
+    }
+
+    /**
+     * Lookups on one index return exactly the matching tuples.
+     */
+    @Test
+    public void lookups() throws Exception {
+        for (int key = 0; key < 5; key++) {
+            ArrayList<Tuple> equal = lookup(index1, Predicate.Op.EQUALS, key);
+            assertEquals(ROWS / 5, equal.size());
+            for (Tuple t : equal)
+                assertEquals(key, ((IntField) t.getField(1)).getValue());
+        }
+        assertEquals(0, lookup(index1, Predicate.Op.EQUALS, 5).size());
+        assertEquals(2 * ROWS / 5, lookup(index1, Predicate.Op.LESS_THAN, 2).size());
+        assertEquals(ROWS, lookup(index2, null, 0).size());
+    }
+
+    /**
+     * A BitmapScan combines the lookups on both indexes before reading any
+     * tuple.
+     */
+    @Test
+    public void bitmapScan() throws Exception {
+        Predicate[] ps = new Predicate[]{
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(2)),
+                new Predicate(2, Predicate.Op.EQUALS, new IntField(1))};
+
+        ArrayList<Tuple> both = collect(new BitmapScan(tid, table.getId(), ps, false));
+        assertEquals(ROWS / 15, both.size());
+        for (Tuple t : both) {
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(2, i % 5);
+            assertEquals(1, i % 3);
+        }
+        ArrayList<Tuple> either = collect(new BitmapScan(tid, table.getId(), ps, true));
+        assertEquals(ROWS / 5 + ROWS / 3 - ROWS / 15, either.size());
+    }
+
+    /**
+     * Deleting and inserting tuples through the BufferPool keeps the
+     * bitmaps up to date.
+     */
+    @Test
+    public void deleteMaintainsIndex() throws Exception {
+        for (Tuple t : lookup(index1, Predicate.Op.EQUALS, 3))
+            Database.getBufferPool().deleteTuple(tid, t);
+
+        assertEquals(0, lookup(index1, Predicate.Op.EQUALS, 3).size());
+        assertEquals(ROWS - ROWS / 5, lookup(index2, null, 0).size());
+
+        Database.getBufferPool().insertTuple(tid, table.getId(),
+                Utility.getHeapTuple(new int[]{ROWS, 3, 0}));
+        assertEquals(1, lookup(index1, Predicate.Op.EQUALS, 3).size());
+        assertEquals(ROWS / 3 - ROWS / 15 + 1, lookup(index2, Predicate.Op.EQUALS, 0).size());
+    }
+
+    /**
+     * Adding a position for a value the index has locks the directory only
+     * for reading, so writers to different values share it.
+     */
+    @Test
+    public void writersShareDirectory() throws Exception {
+        Tuple zero = lookup(index1, Predicate.Op.EQUALS, 0).get(0);
+        Tuple one = lookup(index1, Predicate.Op.EQUALS, 1).get(0);
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        FilePageId directory = new FilePageId(index1.getId(), 0);
+        for (Page p : index1.insertTuple(t1, zero))
+            assertFalse(p.getId().equals(directory));
+        for (Page p : index1.insertTuple(t2, one))
+            assertFalse(p.getId().equals(directory));
+        assertTrue(Database.getBufferPool().holdsLock(t1, directory));
+        assertTrue(Database.getBufferPool().holdsLock(t2, directory));
+        Database.getBufferPool().transactionComplete(t1);
+        Database.getBufferPool().transactionComplete(t2);
+
+        tid = new TransactionId();
+        assertEquals(ROWS / 5, lookup(index1, Predicate.Op.EQUALS, 0).size());
+        assertEquals(ROWS / 5, lookup(index1, Predicate.Op.EQUALS, 1).size());
+    }
+
+    private static Bitmap randomBitmap(Random r, BitSet reference, int n, int range) {
+        Bitmap rv = new Bitmap();
+        for (int i = 0; i < n; i++) {
+            int pos = r.nextInt(range);
+            rv.add(pos);
+            reference.set(pos);
+        }
+        return rv;
+    }
+
+    private static void assertSame(BitSet expected, Bitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        int i = expected.nextSetBit(0);
+        int j = actual.nextSetBit(0);
+        while (i >= 0) {
+            assertEquals(i, j);
+            i = expected.nextSetBit(i + 1);
+            j = actual.nextSetBit(j + 1);
+        }
+        assertEquals(-1, j);
+    }
+
+    /**
+     * and and or agree with BitSet on sparse and dense sets, across chunks.
+     */
+    @Test
+    public void bitmapOperations() {
+        Random r = new Random(47);
+        int[] sizes = {10, 1000, 100000};
+        for (int a : sizes) {
+            for (int b : sizes) {
+                BitSet ra = new BitSet();
+                BitSet rb = new BitSet();
+                Bitmap ba = randomBitmap(r, ra, a, 300000);
+                Bitmap bb = randomBitmap(r, rb, b, 300000);
+                assertSame(ra, ba);
+
+                BitSet and = (BitSet) ra.clone();
+                and.and(rb);
+                assertSame(and, ba.and(bb));
+                BitSet or = (BitSet) ra.clone();
+                or.or(rb);
+                assertSame(or, ba.or(bb));
+                assertTrue(ba.or(bb).contains(rb.nextSetBit(0)));
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
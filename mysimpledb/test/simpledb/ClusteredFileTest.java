@@ -0,0 +1,232 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ClusteredFileTest extends SimpleDbTestBase {
+
+    // small pages, so that a few thousand tuples make a three-level tree
+    private static final int PAGE_SIZE = 512;
+    private static final int ROWS = 3000;
+    private static final int KEYS = 100;
+
+    private File file;
+    private ClusteredFile table;
+    private TransactionId tid;
+
+    /**
+     * Builds a table clustered on field 1 from ROWS / 2 sorted tuples, then
+     * inserts the other half out of order.
+     */
+    @Before
+    public void createTable() throws Exception {
+        BufferPool.setPageSize(PAGE_SIZE);
+        Database.resetBufferPool(1000);
+
+        ArrayList<Tuple> sorted = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS / 2; i++)
+            sorted.add(Utility.getHeapTuple(new int[]{i, i * KEYS / (ROWS / 2)}));
+        file = File.createTempFile("clustered", ".dat");
+        file.deleteOnExit();
+        table = ClusteredFile.build(file, Utility.getTupleDesc(2), 1, sorted.iterator());
+        Database.getCatalog().addTable(table);
+
+        tid = new TransactionId();
+        for (int i = ROWS / 2; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+    }
+
+    @After
+    public void resetPageSize() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private ArrayList<Tuple> lookup(Predicate.Op op, int key) throws Exception {
+        ArrayList<Tuple> rv = new ArrayList<Tuple>();
+        IndexScan scan = new IndexScan(tid, table.getId(), op, new IntField(key));
+        scan.open();
+        while (scan.hasNext())
+            rv.add(scan.next());
+        scan.close();
+        return rv;
+    }
+
+    /**
+     * The tree has grown past a single level, and a scan returns every
+     * tuple in key order.
+     */
+    @Test
+    public void scanInKeyOrder() throws Exception {
+        ClusteredPage root = (ClusteredPage) Database.getBufferPool().getPage(tid,
+                new FilePageId(table.getId(), 0), Permissions.READ_ONLY);
+        assertFalse(root.isLeaf());
+
+        SeqScan scan = new SeqScan(tid, table.getId());
+        scan.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (scan.hasNext()) {
+            int key = ((IntField) scan.next().getField(1)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            count++;
+        }
+        scan.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * Equality and range lookups return exactly the matching tuples, both
+     * the built ones and the inserted ones.
+     */
+    @Test
+    public void lookups() throws Exception {
+        ArrayList<Tuple> equal = lookup(Predicate.Op.EQUALS, 42);
+        assertEquals(ROWS / KEYS, equal.size());
+        for (Tuple t : equal)
+            assertEquals(42, ((IntField) t.getField(1)).getValue());
+
+        assertEquals(10 * ROWS / KEYS, lookup(Predicate.Op.LESS_THAN, 10).size());
+        assertEquals(11 * ROWS / KEYS, lookup(Predicate.Op.LESS_THAN_OR_EQ, 10).size());
+        assertEquals(9 * ROWS / KEYS, lookup(Predicate.Op.GREATER_THAN, 90).size());
+        assertEquals(10 * ROWS / KEYS, lookup(Predicate.Op.GREATER_THAN_OR_EQ, 90).size());
+        assertEquals(0, lookup(Predicate.Op.EQUALS, KEYS).size());
+        assertEquals(table, Database.getCatalog().getIndex(table.getId(), 1));
+    }
+
+    /**
+     * A Delete over a scan of the table removes every tuple it reads.
+     */
+    @Test
+    public void deleteWhileScanning() throws Exception {
+        Filter lowKeys = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)),
+                new SeqScan(tid, table.getId()));
+        Delete delete = new Delete(tid, lowKeys);
+        delete.open();
+        assertEquals(ROWS / 2, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+
+        assertEquals(0, lookup(Predicate.Op.EQUALS, 7).size());
+        assertEquals(ROWS / KEYS, lookup(Predicate.Op.EQUALS, 57).size());
+        assertEquals(ROWS / 2, lookup(null, 0).size());
+    }
+
+    /**
+     * Writers lock only the leaves they change, so two transactions delete
+     * from different leaves without waiting for each other.
+     */
+    @Test
+    public void writersShareInternalPages() throws Exception {
+        Tuple first = lookup(Predicate.Op.EQUALS, 5).get(0);
+        Tuple last = lookup(Predicate.Op.EQUALS, KEYS - 5).get(0);
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Database.getBufferPool().deleteTuple(t1, first);
+        Database.getBufferPool().deleteTuple(t2, last);
+        FilePageId root = new FilePageId(table.getId(), 0);
+        assertTrue(Database.getBufferPool().holdsLock(t1, root));
+        assertTrue(Database.getBufferPool().holdsLock(t2, root));
+        Database.getBufferPool().transactionComplete(t1);
+        Database.getBufferPool().transactionComplete(t2);
+
+        tid = new TransactionId();
+        assertEquals(ROWS / KEYS - 1, lookup(Predicate.Op.EQUALS, 5).size());
+        assertEquals(ROWS / KEYS - 1, lookup(Predicate.Op.EQUALS, KEYS - 5).size());
+    }
+
+    /**
+     * An aborted transaction's deletes and its inserts, including the
+     * splits they caused, leave the table as it was.
+     */
+    @Test
+    public void abortRestoresTable() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (Tuple t : lookup(Predicate.Op.EQUALS, 7))
+            Database.getBufferPool().deleteTuple(tid, t);
+        for (int i = ROWS; i < ROWS + ROWS / 2; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+        assertEquals(ROWS + ROWS / 2 - ROWS / KEYS, lookup(null, 0).size());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(ROWS / KEYS, lookup(Predicate.Op.EQUALS, 7).size());
+        assertEquals(ROWS, lookup(null, 0).size());
+    }
+
+    /**
+     * After a crash, recovery redoes a committed transaction's inserts
+     * that were never flushed, and undoes the flushed deletes of one that
+     * did not commit.
+     */
+    @Test
+    public void recoveryRestoresTable() throws Exception {
+        // the fixture's tid logged no BEGIN, so recover from a checkpoint after it
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+
+        Transaction winner = new Transaction();
+        winner.start();
+        for (int i = ROWS; i < ROWS + KEYS; i++) {
+            Database.getBufferPool().insertTuple(winner.getId(), table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+        winner.commit();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        tid = loser.getId();
+        for (Tuple t : lookup(Predicate.Op.EQUALS, 7))
+            Database.getBufferPool().deleteTuple(loser.getId(), t);
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        table = new ClusteredFile(file, Utility.getTupleDesc(2), 1);
+        Database.getCatalog().addTable(table);
+        Database.getLogFile().recover();
+
+        tid = new TransactionId();
+        assertEquals(ROWS / KEYS + 1, lookup(Predicate.Op.EQUALS, 7).size());
+        assertEquals(ROWS + KEYS, lookup(null, 0).size());
+    }
+
+    /**
+     * An unsorted input is rejected by build.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void buildRejectsUnsorted() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        tuples.add(Utility.getHeapTuple(new int[]{0, 2}));
+        tuples.add(Utility.getHeapTuple(new int[]{1, 1}));
+        File f = File.createTempFile("clustered", ".dat");
+        f.deleteOnExit();
+        ClusteredFile.build(f, Utility.getTupleDesc(2), 1, tuples.iterator());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ClusteredFileTest.class);
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+
+    // a wide table: a counter, a few groups, a few names, and a long string
+    // that differs in every row
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE},
+            new String[]{"id", "grp", "name", "pad"});
+
+    private ColumnFile table;
+    private TransactionId tid;
+
+    private static String pad(int i) {
+        char[] c = new char[100];
+        Arrays.fill(c, (char) ('a' + i % 26));
+        return i + new String(c);
+    }
+
+    private static Tuple row(int i) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new IntField(i / 500));
+        t.setField(2, new StringField("name" + (i % 3), Type.STRING_LEN));
+        t.setField(3, new StringField(pad(i), Type.STRING_LEN));
+        return t;
+    }
+
+    @Before
+    public void createTable() throws Exception {
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        table = new ColumnFile(f, TD);
+        Database.getCatalog().addTable(table, "wide");
+
+        tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(), row(i));
+    }
+
+    /**
+     * Write every page out and empty the BufferPool, so scans read from disk.
+     */
+    private void flush() throws Exception {
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private ArrayList<Tuple> scan(DbIterator it) throws Exception {
+        ArrayList<Tuple> rv = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            rv.add(it.next());
+        it.close();
+        return rv;
+    }
+
+    /**
+     * A scan returns the tuples in the order they were inserted.
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        flush();
+        ArrayList<Tuple> tuples = scan(new SeqScan(tid, table.getId()));
+        assertEquals(ROWS, tuples.size());
+        for (int i = 0; i < ROWS; i++) {
+            Tuple expected = row(i);
+            for (int f = 0; f < TD.numFields(); f++)
+                assertEquals(expected.getField(f), tuples.get(i).getField(f));
+        }
+    }
+
+    /**
+     * Each column's pages take the encoding that suits its values.
+     */
+    @Test
+    public void encodings() throws Exception {
+        ColumnPage directory = (ColumnPage) Database.getBufferPool().getPage(tid,
+                new FilePageId(table.getId(), 0), Permissions.READ_ONLY);
+        byte[] expected = {ColumnPage.FOR, ColumnPage.RLE, ColumnPage.DICTIONARY, ColumnPage.PLAIN};
+        for (int c = 0; c < TD.numFields(); c++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new FilePageId(table.getId(), directory.getFirst(c)), Permissions.READ_ONLY);
+            assertEquals(c, page.getColumn());
+            assertEquals(expected[c], page.getEncoding());
+        }
+        // the encoded columns fit on one page each; the long strings do not
+        assertEquals(directory.getFirst(0), directory.getLast(0));
+        assertTrue(directory.getFirst(3) != directory.getLast(3));
+    }
+
+    /**
+     * A scan of one narrow column reads a small fraction of the pages a
+     * scan of the whole table does.
+     */
+    @Test
+    public void projectionSkipsColumns() throws Exception {
+        flush();
+        long before = table.getPagesRead();
+        scan(new SeqScan(tid, table.getId()));
+        long full = table.getPagesRead() - before;
+
+        flush();
+        before = table.getPagesRead();
+        SeqScan ss = new SeqScan(tid, table.getId());
+        ss.projectFields(Arrays.asList(0));
+        ArrayList<Tuple> tuples = scan(ss);
+        long projected = table.getPagesRead() - before;
+
+        assertEquals(ROWS, tuples.size());
+        assertEquals(new IntField(7), tuples.get(7).getField(0));
+        assertNull(tuples.get(7).getField(3));
+        assertTrue(projected * 10 < full);
+    }
+
+    /**
+     * LogicalPlan has the scan of an aggregate read only the aggregated
+     * column.
+     */
+    @Test
+    public void planReadsReferencedColumns() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("wide", new TableStats(table.getId(), 1000));
+        flush();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "w");
+        lp.addFilter("w.grp", Predicate.Op.EQUALS, "1");
+        lp.addProjectField("w.id", "SUM");
+        lp.addAggregate("SUM", "w.id", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        long before = table.getPagesRead();
+        ArrayList<Tuple> result = scan(plan);
+        assertEquals(1, result.size());
+        // rows 500..999
+        assertEquals(new IntField((500 + 999) * 500 / 2), result.get(0).getField(0));
+        assertTrue(table.getPagesRead() - before < 10);
+    }
+
+    /**
+     * Deleted rows are skipped by scans, and cannot be deleted again.
+     */
+    @Test
+    public void deletes() throws Exception {
+        for (Tuple t : scan(new SeqScan(tid, table.getId()))) {
+            if (((IntField) t.getField(0)).getValue() % 3 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        flush();
+        ArrayList<Tuple> tuples = scan(new SeqScan(tid, table.getId()));
+        assertEquals(ROWS - (ROWS + 2) / 3, tuples.size());
+        for (Tuple t : tuples)
+            assertTrue(((IntField) t.getField(0)).getValue() % 3 != 0);
+
+        Tuple gone = row(3);
+        gone.setRecordId(new RecordId(new FilePageId(table.getId(), 0), 3));
+        try {
+            Database.getBufferPool().deleteTuple(tid, gone);
+            fail("deleted a deleted row");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // new rows go at the end
+        Database.getBufferPool().insertTuple(tid, table.getId(), row(ROWS));
+        tuples = scan(new SeqScan(tid, table.getId()));
+        assertEquals(new IntField(ROWS), tuples.get(tuples.size() - 1).getField(0));
+    }
+
+    /**
+     * An insert that fits on the last page of every chain leaves the
+     * directory readable by other transactions.
+     */
+    @Test
+    public void insertSharesDirectory() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        FilePageId directory = new FilePageId(table.getId(), 0);
+
+        TransactionId writer = new TransactionId();
+        Database.getBufferPool().insertTuple(writer, table.getId(), row(ROWS));
+        TransactionId reader = new TransactionId();
+        assertTrue(Database.getBufferPool().tryGetPage(reader, directory, Permissions.READ_ONLY) != null);
+        Database.getBufferPool().transactionComplete(reader);
+        Database.getBufferPool().transactionComplete(writer);
+
+        tid = new TransactionId();
+        ArrayList<Tuple> tuples = scan(new SeqScan(tid, table.getId()));
+        assertEquals(ROWS + 1, tuples.size());
+        assertEquals(new IntField(ROWS), tuples.get(ROWS).getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
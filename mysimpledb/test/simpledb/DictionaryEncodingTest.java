@@ -0,0 +1,292 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DictionaryEncodingTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 1000;
+    private static final String[] COLORS = {"red", "green", "blue", "yellow"};
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE},
+            new String[]{"id", "color", "note"});
+
+    private File file;
+    private HeapFile table;
+    private TransactionId tid;
+
+    private HeapFile openTable() {
+        HeapFile rv = new HeapFile(file, TD, new int[]{1});
+        Database.getCatalog().addTable(rv, "paint");
+        return rv;
+    }
+
+    @Before
+    public void createTable() throws Exception {
+        file = File.createTempFile("paint", ".dat");
+        file.deleteOnExit();
+        HeapFile.freeSpaceMapFile(file).deleteOnExit();
+        HeapFile.zoneMapFile(file).deleteOnExit();
+        File dictionary = HeapFile.dictionaryFile(file, 1);
+        dictionary.deleteOnExit();
+        HeapFile.freeSpaceMapFile(dictionary).deleteOnExit();
+        HeapFile.zoneMapFile(dictionary).deleteOnExit();
+        table = openTable();
+
+        tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(COLORS[i % COLORS.length], Type.STRING_LEN));
+            t.setField(2, new StringField("note " + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        }
+    }
+
+    private ArrayList<Tuple> run(DbIterator it) throws Exception {
+        ArrayList<Tuple> rv = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            rv.add(it.next());
+        it.close();
+        return rv;
+    }
+
+    /**
+     * The encoded column takes 4 bytes per tuple, and reads back as coded
+     * values that compare equal by code.
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        assertEquals(4 + 4 + Type.STRING_TYPE.getLen(), table.getTupleDesc().getSize());
+        StringDictionary dictionary = table.getTupleDesc().getDictionary(1);
+        assertNotNull(dictionary);
+        assertEquals(COLORS.length, dictionary.size());
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        ArrayList<Tuple> tuples = run(new SeqScan(tid, table.getId()));
+        assertEquals(ROWS, tuples.size());
+        for (Tuple t : tuples) {
+            int i = ((IntField) t.getField(0)).getValue();
+            StringField color = (StringField) t.getField(1);
+            assertEquals(COLORS[i % COLORS.length], color.getValue());
+            assertSame(dictionary, color.getDictionary());
+            assertEquals("note " + i, ((StringField) t.getField(2)).getValue());
+        }
+        // tuples with the same value share one field
+        assertSame(tuples.get(0).getField(1), tuples.get(COLORS.length).getField(1));
+    }
+
+    /**
+     * The codes survive a restart: a new HeapFile on the same files reads
+     * the dictionary back and keeps extending it.
+     */
+    @Test
+    public void reopen() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.reset();
+        table = openTable();
+        tid = new TransactionId();
+
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new StringField("purple", Type.STRING_LEN));
+        t.setField(2, new StringField("new", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        for (Tuple u : run(new SeqScan(tid, table.getId()))) {
+            String color = ((StringField) u.getField(1)).getValue();
+            counts.put(color, counts.containsKey(color) ? counts.get(color) + 1 : 1);
+        }
+        assertEquals(COLORS.length + 1, counts.size());
+        assertEquals(ROWS / COLORS.length, (int) counts.get("red"));
+        assertEquals(1, (int) counts.get("purple"));
+    }
+
+    /**
+     * A filter on the encoded column compares codes, and grouping and hash
+     * joins on it match values by code.
+     */
+    @Test
+    public void operatorsUseCodes() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("paint", new TableStats(table.getId(), 1000));
+        tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "p");
+        lp.addFilter("p.color", Predicate.Op.EQUALS, "blue");
+        lp.addProjectField("p.id", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        Filter filter = (Filter) ((Operator) plan).getChildren()[0];
+        StringField operand = (StringField) filter.getPredicate().getOperand();
+        assertNotNull(operand.getDictionary());
+        assertEquals(ROWS / COLORS.length, run(plan).size());
+
+        Aggregate byColor = new Aggregate(new SeqScan(tid, table.getId()), 0, 1, Aggregator.Op.COUNT);
+        ArrayList<Tuple> groups = run(byColor);
+        assertEquals(COLORS.length, groups.size());
+        for (Tuple g : groups)
+            assertEquals(new IntField(ROWS / COLORS.length), g.getField(1));
+
+        Filter few = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(8)),
+                new SeqScan(tid, table.getId()));
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+                few, new SeqScan(tid, table.getId()));
+        assertEquals(8 * ROWS / COLORS.length, run(join).size());
+    }
+
+    /**
+     * Coded fields compare by code, and like plain ones otherwise.
+     */
+    @Test
+    public void codedComparisons() throws Exception {
+        StringDictionary dictionary = table.getTupleDesc().getDictionary(1);
+        StringField red = dictionary.encode(new StringField("red", Type.STRING_LEN));
+        StringField blue = dictionary.encode(new StringField("blue", Type.STRING_LEN));
+        assertTrue(red.compare(Predicate.Op.EQUALS, dictionary.encode(new StringField("red", Type.STRING_LEN))));
+        assertTrue(red.compare(Predicate.Op.NOT_EQUALS, blue));
+        assertTrue(red.compare(Predicate.Op.GREATER_THAN, blue));
+        assertTrue(red.equals(new StringField("red", Type.STRING_LEN)));
+        assertEquals(new StringField("red", Type.STRING_LEN).hashCode(), red.hashCode());
+        assertSame(red, dictionary.lookup(new StringField("red", Type.STRING_LEN)));
+        assertEquals(COLORS.length, dictionary.size());
+    }
+
+    /**
+     * Inserting a tuple, one at a time or in bulk, leaves its fields as
+     * they were and gives it its RecordId.
+     */
+    @Test
+    public void insertKeepsCallersTuple() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 3; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(ROWS + i));
+            t.setField(1, new StringField(i == 0 ? "red" : "orange", Type.STRING_LEN));
+            t.setField(2, new StringField("new", Type.STRING_LEN));
+            tuples.add(t);
+        }
+        Database.getBufferPool().insertTuple(tid, table.getId(), tuples.get(0));
+        table.appendTuples(tid, tuples.subList(1, 3));
+
+        for (Tuple t : tuples) {
+            assertNotNull(t.getRecordId());
+            assertNull(((StringField) t.getField(1)).getDictionary());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        int orange = 0;
+        for (Tuple t : run(new SeqScan(tid, table.getId()))) {
+            if (((StringField) t.getField(1)).getValue().equals("orange"))
+                orange++;
+        }
+        assertEquals(2, orange);
+        assertEquals(COLORS.length + 1, table.getTupleDesc().getDictionary(1).size());
+    }
+
+    /**
+     * A dictionary transaction that cannot get its locks fails with a
+     * DbException and releases the locks it did get.
+     */
+    @Test
+    public void failedLoadReleasesLocks() throws Exception {
+        StringDictionary dictionary = table.getTupleDesc().getDictionary(1);
+        int perPage = dictionary.getFile().tuplesPerPage();
+        for (int i = 0; i < perPage; i++)
+            dictionary.encode(new StringField("value " + i, Type.STRING_LEN));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.reset();
+        table = openTable();
+        dictionary = table.getTupleDesc().getDictionary(1);
+        HeapPageId first = new HeapPageId(dictionary.getFile().getId(), 0);
+        HeapPageId second = new HeapPageId(dictionary.getFile().getId(), 1);
+
+        // the load reads the first page, then waits for the second
+        TransactionId blocker = new TransactionId();
+        Database.getBufferPool().getPage(blocker, second, Permissions.READ_WRITE);
+        try {
+            dictionary.size();
+            fail("loaded a locked dictionary");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(blocker);
+
+        TransactionId writer = new TransactionId();
+        Database.getBufferPool().getPage(writer, first, Permissions.READ_WRITE);
+        try {
+            dictionary.encode(new StringField("purple", Type.STRING_LEN));
+            fail("added to a locked dictionary");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(writer);
+
+        assertEquals(COLORS.length + perPage, dictionary.size());
+        dictionary.encode(new StringField("purple", Type.STRING_LEN));
+        assertEquals(COLORS.length + perPage + 1, dictionary.size());
+    }
+
+    /**
+     * A value first used after the last checkpoint is logged like the
+     * tuple that uses it, and both come back after a crash.
+     */
+    @Test
+    public void recoverAddedValue() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+
+        Transaction t = new Transaction();
+        t.start();
+        Tuple row = new Tuple(TD);
+        row.setField(0, new IntField(ROWS));
+        row.setField(1, new StringField("purple", Type.STRING_LEN));
+        row.setField(2, new StringField("note", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(), row);
+        t.commit();
+
+        Database.reset();
+        table = openTable();
+        Database.getLogFile().recover();
+
+        tid = new TransactionId();
+        assertEquals(COLORS.length + 1, table.getTupleDesc().getDictionary(1).size());
+        Filter purple = new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("purple", Type.STRING_LEN)), new SeqScan(tid, table.getId()));
+        ArrayList<Tuple> found = run(purple);
+        assertEquals(1, found.size());
+        assertEquals(new IntField(ROWS), found.get(0).getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryEncodingTest.class);
+    }
+}
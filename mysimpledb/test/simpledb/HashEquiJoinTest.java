@@ -0,0 +1,176 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    // a star join: most fact rows have no dimension row
+    private static final int FACT_ROWS = 2000;
+    private static final int FACT_KEYS = 100;
+    private static final int DIM_KEYS = 10;
+
+    private HeapFile fact;
+    private HeapFile dim;
+    private TransactionId tid;
+
+    private HeapFile createTable(int rows, int keys) throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile.freeSpaceMapFile(f).deleteOnExit();
+        HeapFile.zoneMapFile(f).deleteOnExit();
+        HeapFile table = Utility.openHeapFile(2, "c", f);
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % keys}));
+        }
+        return table;
+    }
+
+    @Before
+    public void createTables() throws Exception {
+        tid = new TransactionId();
+        fact = createTable(FACT_ROWS, FACT_KEYS);
+        dim = createTable(DIM_KEYS, DIM_KEYS);
+    }
+
+    private int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * The hash join finds the same matches as a nested loop join, and its
+     * BloomFilter drops the fact rows without one at the scan.
+     */
+    @Test
+    public void starJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        int expected = count(new Join(p, new SeqScan(tid, fact.getId()), new SeqScan(tid, dim.getId())));
+        assertEquals(FACT_ROWS * DIM_KEYS / FACT_KEYS, expected);
+
+        SeqScan probe = new SeqScan(tid, fact.getId());
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), probe);
+        HashEquiJoin j = new HashEquiJoin(p, filter, new SeqScan(tid, dim.getId()));
+        j.open();
+        assertSame(probe, j.getBloomFilterScan());
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        assertEquals(expected, n);
+        // there are no false negatives, and few false positives
+        int misses = FACT_ROWS - expected;
+        assertTrue(probe.getTuplesDropped() <= misses);
+        assertTrue(probe.getTuplesDropped() >= misses * 0.9);
+
+        // the filter is withdrawn on close
+        j.close();
+        assertNull(j.getBloomFilterScan());
+        long dropped = probe.getTuplesDropped();
+        assertEquals(FACT_ROWS, count(probe));
+        assertEquals(dropped, probe.getTuplesDropped());
+    }
+
+    /**
+     * The filter is pushed through another join to the scan the join field
+     * comes from.
+     */
+    @Test
+    public void pushedThroughJoins() throws Exception {
+        SeqScan probe = new SeqScan(tid, fact.getId());
+        // dim joined to fact, so the fact key is field 2 + 1
+        DbIterator inner = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, dim.getId()), probe);
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(3, Predicate.Op.EQUALS, 0),
+                inner, new SeqScan(tid, dim.getId()));
+        j.open();
+        assertSame(probe, j.getBloomFilterScan());
+        j.close();
+
+        int expected = count(new Join(new JoinPredicate(3, Predicate.Op.EQUALS, 0),
+                inner, new SeqScan(tid, dim.getId())));
+        assertEquals(expected, count(j));
+    }
+
+    /**
+     * A BloomFilter never misses a key it holds, and lets few others by.
+     */
+    @Test
+    public void bloomFilter() {
+        BloomFilter bloom = new BloomFilter(1000);
+        for (int i = 0; i < 1000; i++)
+            bloom.add(new IntField(i * 7));
+        for (int i = 0; i < 1000; i++)
+            assertTrue(bloom.mightContain(new IntField(i * 7)));
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (bloom.mightContain(new IntField(-1 - i)))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 10000 * BloomFilter.falsePositiveRate() * 2);
+    }
+
+    /**
+     * The outer child of a hash join is estimated to pass up the tuples
+     * with a match, and a few false positives.
+     */
+    @Test
+    public void bloomFilteredCardinality() {
+        int card = OperatorCardinality.bloomFilteredCardinality(1000, 100);
+        assertTrue(card > 100);
+        assertTrue(card < 120);
+        assertEquals(1000, OperatorCardinality.bloomFilteredCardinality(1000, 5000));
+    }
+
+    /**
+     * When the outer child is the scan the BloomFilter is pushed to, the
+     * scan itself is estimated to return fewer tuples.
+     */
+    @Test
+    public void bloomFilteredScanCardinality() throws Exception {
+        //TableStats scans without a transaction, so release the inserts' locks
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        HashMap<String, Integer> aliases = new HashMap<String, Integer>();
+        aliases.put("f", fact.getId());
+        aliases.put("d", dim.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (int id : aliases.values())
+            stats.put(Database.getCatalog().getTableName(id), new TableStats(id, 1000));
+
+        SeqScan probe = new SeqScan(tid, fact.getId(), "f");
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                probe, new SeqScan(tid, dim.getId(), "d"));
+        OperatorCardinality.updateOperatorCardinality(j, aliases, stats);
+        assertEquals(OperatorCardinality.bloomFilteredCardinality(FACT_ROWS, j.getEstimatedCardinality()),
+                probe.getEstimatedCardinality());
+        assertTrue(probe.getEstimatedCardinality() < FACT_ROWS);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
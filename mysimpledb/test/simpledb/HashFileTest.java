@@ -0,0 +1,273 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+    // small pages, so that a few thousand keys need many buckets
+    private static final int PAGE_SIZE = 512;
+    private static final int ROWS = 3000;
+    private static final int KEYS = 1000;
+
+    private File tableFile;
+    private File indexFile;
+    private HeapFile table;
+    private HashFile index;
+    private TransactionId tid;
+
+    @Before
+    public void createIndex() throws Exception {
+        BufferPool.setPageSize(PAGE_SIZE);
+        Database.resetBufferPool(1000);
+
+        tableFile = File.createTempFile("table", ".dat");
+        tableFile.deleteOnExit();
+        HeapFile.freeSpaceMapFile(tableFile).deleteOnExit();
+        HeapFile.zoneMapFile(tableFile).deleteOnExit();
+        table = Utility.createEmptyHeapFile(tableFile.getAbsolutePath(), 2);
+        indexFile = File.createTempFile("index", ".dat");
+        indexFile.deleteOnExit();
+        index = new HashFile(indexFile, table, 1);
+        Database.getCatalog().addIndex(index);
+
+        // column 1 repeats every KEYS rows, so every key has duplicates
+        tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+    }
+
+    @After
+    public void resetPageSize() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private ArrayList<Tuple> lookup(Predicate.Op op, int key) throws Exception {
+        ArrayList<Tuple> rv = new ArrayList<Tuple>();
+        IndexScan scan = new IndexScan(tid, index.getId(), op, new IntField(key));
+        scan.open();
+        while (scan.hasNext())
+            rv.add(scan.next());
+        scan.close();
+        return rv;
+    }
+
+    /**
+     * The index has grown a bucket at a time, keeping its buckets at most
+     * three quarters full.
+     */
+    @Test
+    public void grows() throws Exception {
+        HashPage directory = (HashPage) Database.getBufferPool().getPage(tid,
+                new FilePageId(index.getId(), 0), Permissions.READ_ONLY);
+        // the directory saves the number of entries at each split
+        assertTrue(directory.getCount() <= ROWS);
+        assertTrue(directory.getCount() > ROWS - HashPage.maxEntries(Type.INT_TYPE));
+        int buckets = directory.getNumBuckets();
+        assertTrue(buckets < directory.getMaxBuckets());
+        // a bucket is split whenever the index gets more than 3/4 full
+        assertTrue(ROWS <= buckets * HashPage.maxEntries(Type.INT_TYPE) * 3 / 4 + 1);
+    }
+
+    /**
+     * Equality lookups return exactly the matching tuples; other
+     * comparisons fall back to reading every bucket.
+     */
+    @Test
+    public void lookups() throws Exception {
+        for (int key = 0; key < KEYS; key += 37) {
+            ArrayList<Tuple> equal = lookup(Predicate.Op.EQUALS, key);
+            assertEquals(ROWS / KEYS, equal.size());
+            for (Tuple t : equal)
+                assertEquals(key, ((IntField) t.getField(0)).getValue() % KEYS);
+        }
+        assertEquals(0, lookup(Predicate.Op.EQUALS, KEYS).size());
+        assertEquals(10 * ROWS / KEYS, lookup(Predicate.Op.LESS_THAN, 10).size());
+        assertEquals(ROWS, lookup(null, 0).size());
+    }
+
+    /**
+     * Deleting tuples through the BufferPool removes their index entries.
+     */
+    @Test
+    public void deleteMaintainsIndex() throws Exception {
+        for (Tuple t : lookup(Predicate.Op.LESS_THAN, KEYS / 2))
+            Database.getBufferPool().deleteTuple(tid, t);
+
+        assertEquals(0, lookup(Predicate.Op.EQUALS, 7).size());
+        assertEquals(ROWS / KEYS, lookup(Predicate.Op.EQUALS, KEYS / 2 + 7).size());
+        assertEquals(ROWS / 2, lookup(null, 0).size());
+
+        Database.getBufferPool().insertTuple(tid, table.getId(),
+                Utility.getHeapTuple(new int[]{ROWS, 7}));
+        assertEquals(1, lookup(Predicate.Op.EQUALS, 7).size());
+    }
+
+    /**
+     * Writers lock the directory only for reading, so two transactions
+     * delete from different buckets without waiting for each other.
+     */
+    @Test
+    public void writersShareDirectory() throws Exception {
+        Tuple first = lookup(Predicate.Op.EQUALS, 5).get(0);
+        ArrayList<Tuple> last = lookup(Predicate.Op.EQUALS, KEYS - 5);
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Database.getBufferPool().deleteTuple(t1, first);
+        Database.getBufferPool().deleteTuple(t2, last.get(last.size() - 1));
+        FilePageId directory = new FilePageId(index.getId(), 0);
+        assertTrue(Database.getBufferPool().holdsLock(t1, directory));
+        assertTrue(Database.getBufferPool().holdsLock(t2, directory));
+        Database.getBufferPool().transactionComplete(t1);
+        Database.getBufferPool().transactionComplete(t2);
+
+        tid = new TransactionId();
+        assertEquals(ROWS / KEYS - 1, lookup(Predicate.Op.EQUALS, 5).size());
+        assertEquals(ROWS / KEYS - 1, lookup(Predicate.Op.EQUALS, KEYS - 5).size());
+    }
+
+    private int numBuckets() throws Exception {
+        HashPage directory = (HashPage) Database.getBufferPool().getPage(tid,
+                new FilePageId(index.getId(), 0), Permissions.READ_ONLY);
+        return directory.getNumBuckets();
+    }
+
+    /**
+     * A writer that would split while another transaction shares the
+     * directory puts the split off instead of waiting on its lock upgrade,
+     * and splits on a later insert once it has the directory to itself.
+     */
+    @Test
+    public void splitWaitsForSharedDirectory() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        int buckets = numBuckets();
+
+        TransactionId reader = new TransactionId();
+        Database.getBufferPool().getPage(reader, new FilePageId(index.getId(), 0), Permissions.READ_ONLY);
+        int more = HashPage.maxEntries(Type.INT_TYPE);
+        for (int i = ROWS; i < ROWS + more; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+        assertEquals(buckets, numBuckets());
+        Database.getBufferPool().transactionComplete(reader);
+
+        Database.getBufferPool().insertTuple(tid, table.getId(),
+                Utility.getHeapTuple(new int[]{ROWS + more, 0}));
+        assertTrue(numBuckets() > buckets);
+        assertEquals(ROWS + more + 1, lookup(null, 0).size());
+    }
+
+    /**
+     * The entries of an aborted transaction do not count toward the next
+     * split.
+     */
+    @Test
+    public void abortedInsertsDoNotCount() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        int buckets = numBuckets();
+        int more = HashPage.maxEntries(Type.INT_TYPE);
+        for (int i = ROWS; i < ROWS + more; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(),
+                Utility.getHeapTuple(new int[]{ROWS, 0}));
+        // only the committed entries and this one count
+        boolean full = ROWS + 1 > buckets * HashPage.maxEntries(Type.INT_TYPE) * 3 / 4;
+        assertEquals(full ? buckets + 1 : buckets, numBuckets());
+    }
+
+    /**
+     * An aborted transaction's deletes and its inserts, including the
+     * buckets they added, leave the index as it was.
+     */
+    @Test
+    public void abortRestoresIndex() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        FilePageId directory = new FilePageId(index.getId(), 0);
+
+        tid = new TransactionId();
+        int buckets = ((HashPage) Database.getBufferPool().getPage(tid, directory,
+                Permissions.READ_ONLY)).getNumBuckets();
+        for (Tuple t : lookup(Predicate.Op.EQUALS, 7))
+            Database.getBufferPool().deleteTuple(tid, t);
+        for (int i = ROWS; i < ROWS + ROWS / 2; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+        assertEquals(ROWS + ROWS / 2 - ROWS / KEYS, lookup(null, 0).size());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(buckets, ((HashPage) Database.getBufferPool().getPage(tid, directory,
+                Permissions.READ_ONLY)).getNumBuckets());
+        assertEquals(ROWS / KEYS, lookup(Predicate.Op.EQUALS, 7).size());
+        assertEquals(ROWS, lookup(null, 0).size());
+    }
+
+    /**
+     * After a crash, recovery redoes a committed transaction's inserts
+     * that were never flushed, and undoes the flushed deletes of one that
+     * did not commit.
+     */
+    @Test
+    public void recoveryRestoresIndex() throws Exception {
+        // the fixture's tid logged no BEGIN, so recover from a checkpoint after it
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+
+        Transaction winner = new Transaction();
+        winner.start();
+        for (int i = ROWS; i < ROWS + KEYS; i++) {
+            Database.getBufferPool().insertTuple(winner.getId(), table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % KEYS}));
+        }
+        winner.commit();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        tid = loser.getId();
+        for (Tuple t : lookup(Predicate.Op.EQUALS, 7))
+            Database.getBufferPool().deleteTuple(loser.getId(), t);
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        table = Utility.openHeapFile(2, tableFile);
+        index = new HashFile(indexFile, table, 1);
+        Database.getCatalog().addIndex(index);
+        Database.getLogFile().recover();
+
+        tid = new TransactionId();
+        assertEquals(ROWS / KEYS + 1, lookup(Predicate.Op.EQUALS, 7).size());
+        assertEquals(ROWS + KEYS, lookup(null, 0).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
@@ -80,6 +80,41 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage expected = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            HeapPage page = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), i));
+            assertArrayEquals(expected.getPageData(), page.getPageData());
+            // the page reads straight from the mapping
+            assertTrue(page.getPageDataBuffer().isDirect());
+        }
+    }
+
+    /**
+     * A tuple of a memory-mapped page keeps its values after its slot is
+     * changed and the page written, even if its fields were not decoded.
+     */
+    @Test
+    public void mappedTupleOutlivesWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Tuple t = ((HeapPage) mapped.readPage(pid)).iterator().next();
+
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        Tuple first = page.iterator().next();
+        Field expected = first.getField(0);
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[]{-1, -1}));
+        hf.writePage(page);
+
+        assertEquals(expected, t.getField(0));
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -124,6 +159,186 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    @Test
+    public void testIteratorRewindKeepsTransaction() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        it.next();
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(Database.getBufferPool().holdsLock(tid, pid));
+
+        // the pages read after a rewind are locked for the same transaction
+        it.rewind();
+        it.next();
+        assertTrue(Database.getBufferPool().holdsLock(tid, pid));
+        it.close();
+    }
+
+    @Test
+    public void testReadAheadStats() throws Exception {
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 5,
+                null, null);
+        assertEquals(5, bigFile.numPages());
+        bigFile.setReadAheadWindow(8);
+
+        DbFileIterator it = bigFile.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count += 1;
+        }
+        it.close();
+        assertEquals(504 * 5, count);
+
+        HeapFile.ScanStats stats = bigFile.getScanStats();
+        assertEquals(8, stats.getReadAheadWindow());
+        assertEquals(5, stats.getPagesScanned());
+        assertEquals(1, stats.getReadAheadRequests());
+
+        // no read-ahead with a window of 0
+        bigFile.setReadAheadWindow(0);
+        it = bigFile.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        stats = bigFile.getScanStats();
+        assertEquals(10, stats.getPagesScanned());
+        assertEquals(1, stats.getReadAheadRequests());
+    }
+
+    private int countMatches(SeqScan scan, Predicate... predicates) throws Exception {
+        DbIterator plan = scan;
+        for (Predicate p : predicates) {
+            scan.skipPagesFailing(p);
+            plan = new Filter(p, plan);
+        }
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            count += 1;
+        }
+        plan.close();
+        return count;
+    }
+
+    /**
+     * A scan told about a predicate skips the pages whose zone rules it
+     * out, without missing any match, and the zones outlive the HeapFile.
+     */
+    @Test
+    public void zoneMapSkipsPages() throws Exception {
+        java.io.File f = java.io.File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile.freeSpaceMapFile(f).deleteOnExit();
+        HeapFile.zoneMapFile(f).deleteOnExit();
+        HeapFile file = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        // field 0 grows with the insertion order, field 1 does not
+        Random random = new Random(45);
+        for (int i = 0; i < 504 * 5; i++) {
+            Database.getBufferPool().insertTuple(tid, file.getId(),
+                    Utility.getHeapTuple(new int[]{i, random.nextInt(1000)}));
+        }
+        assertEquals(5, file.numPages());
+
+        Predicate first = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(504));
+        assertEquals(504, countMatches(new SeqScan(tid, file.getId()), first));
+        assertEquals(4, file.getScanStats().getPagesSkipped());
+        assertEquals(1, file.getScanStats().getPagesScanned());
+
+        // field 1's zones rule nothing out, but field 0's still do
+        Predicate last = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2000));
+        Predicate any = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(500));
+        int expected = 0;
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (last.filter(t) && any.filter(t))
+                expected += 1;
+        }
+        it.close();
+        assertEquals(expected, countMatches(new SeqScan(tid, file.getId()), last, any));
+        assertEquals(4 + 3, file.getScanStats().getPagesSkipped());
+
+        // a new HeapFile on the same file reads the zones back
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        HeapFile reopened = Utility.openHeapFile(2, f);
+        assertEquals(504, countMatches(new SeqScan(tid, reopened.getId()), first));
+        assertEquals(4, reopened.getScanStats().getPagesSkipped());
+    }
+
+    /**
+     * HeapFileEncoder.convertParallel must write the same file as convert
+     */
+    @Test
+    public void convertParallel() throws Exception {
+        java.io.File text = java.io.File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        java.io.PrintWriter out = new java.io.PrintWriter(text);
+        Random random = new Random(460);
+        int rows = 504 * (HeapFileEncoder.PAGES_PER_CHUNK * 2 + 3) + 17;
+        for (int i = 0; i < rows; i++) {
+            out.print(random.nextInt(1000) + "," + random.nextInt(1000) + "\n");
+            if (i % 1000 == 0) {
+                out.print("\n"); // blank lines are skipped
+            }
+        }
+        out.close();
+
+        java.io.File sequential = java.io.File.createTempFile("table", ".dat");
+        sequential.deleteOnExit();
+        java.io.File parallel = java.io.File.createTempFile("table", ".dat");
+        parallel.deleteOnExit();
+        Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE};
+        HeapFileEncoder.convert(text, sequential, BufferPool.getPageSize(), 2, types, ',');
+        HeapFileEncoder.convertParallel(text, parallel, BufferPool.getPageSize(), 2, types, ',', 3);
+
+        assertEquals(sequential.length(), parallel.length());
+        assertArrayEquals(readAll(sequential), readAll(parallel));
+    }
+
+    /**
+     * HeapFileEncoder.convert skips empty tuples, and deletes the dictionaries
+     * an earlier table of the same name left behind
+     */
+    @Test
+    public void convertOverStaleFiles() throws Exception {
+        java.io.File f = java.io.File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        java.io.File stale = HeapFile.dictionaryFile(f, 1);
+        stale.deleteOnExit();
+        assertTrue(stale.createNewFile());
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        tuples.add(new ArrayList<Integer>(Arrays.asList(1, 2)));
+        tuples.add(new ArrayList<Integer>());
+        tuples.add(new ArrayList<Integer>(Arrays.asList(3, 4)));
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        assertFalse(stale.exists());
+
+        HeapFile table = Utility.openHeapFile(2, f);
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        assertEquals(new IntField(1), it.next().getField(0));
+        assertEquals(new IntField(3), it.next().getField(0));
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    private static byte[] readAll(java.io.File f) throws Exception {
+        byte[] data = new byte[(int) f.length()];
+        java.io.DataInputStream in = new java.io.DataInputStream(new java.io.FileInputStream(f));
+        in.readFully(data);
+        in.close();
+        return data;
+    }
+
     /**
      * JUnit suite target
      */
@@ -47,6 +47,56 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free-space map used by HeapFile.insertTuple()
+     */
+    @Test
+    public void freeSpaceMap() throws Exception {
+        for (int i = 0; i < 504 * 2; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+
+        // both pages are recorded as full on disk
+        byte[] map = new byte[1];
+        java.io.DataInputStream in = new java.io.DataInputStream(
+                new java.io.FileInputStream(HeapFile.freeSpaceMapFile(empty.getFile())));
+        in.readFully(map);
+        in.close();
+        assertEquals(3, map[0]);
+
+        // a delete makes room on page 0, and the next insert goes there
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        assertEquals(0, victim.getRecordId().getPageId().pageNumber());
+        empty.deleteTuple(tid, victim);
+
+        Tuple t = Utility.getHeapTuple(7, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * A page filled by an aborted transaction can be filled again.
+     */
+    @Test
+    public void freeSpaceMapAfterAbort() throws Exception {
+        TransactionId aborted = new TransactionId();
+        for (int i = 0; i < 504; ++i) {
+            Database.getBufferPool().insertTuple(aborted, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(1, empty.numPages());
+        Database.getBufferPool().transactionComplete(aborted, false);
+
+        Tuple t = Utility.getHeapTuple(7, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(1, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
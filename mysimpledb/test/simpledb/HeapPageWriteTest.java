@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -88,9 +92,77 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after changes: the image kept up
+     * to date slot by slot matches what a page built from scratch writes.
+     */
+    @Test
+    public void pageDataAfterChanges() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] before = page.getPageData();
+
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.insertTuple(Utility.getHeapTuple(8, 2));
+        byte[] after = page.getPageData();
+        assertFalse(Arrays.equals(before, after));
+
+        HeapPage reread = new HeapPage(pid, after);
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        assertEquals(7, reread.getInt(0, 0));
+        assertEquals(8, reread.getInt(20, 1));
+        assertTrue(Arrays.equals(after, reread.getPageData()));
+    }
+
+    /**
+     * Unit test for HeapPage.setBeforeImage(): the before image is the page
+     * as it was when setBeforeImage was last called, saved only once the
+     * page changes.
+     */
+    @Test
+    public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(HeapPageReadTest.EXAMPLE_DATA == page.getBeforeImageData());
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImageData()));
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertTrue(Arrays.equals(committed, page.getBeforeImageData()));
+
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertTrue(Arrays.equals(committed, page.getBeforeImageData()));
+        assertEquals(page.getNumEmptySlots() + 1, page.getBeforeImage().getNumEmptySlots());
+    }
+
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
+    /**
+     * A page built from a read-only buffer, as from a memory-mapped file,
+     * decodes from the buffer and only copies it once it changes.
+     */
+    @Test
+    public void bufferBackedPage() throws Exception {
+        ByteBuffer mapped = ByteBuffer.allocateDirect(HeapPageReadTest.EXAMPLE_DATA.length);
+        mapped.put(HeapPageReadTest.EXAMPLE_DATA);
+        mapped.flip();
+        HeapPage page = new HeapPage(pid, mapped.asReadOnlyBuffer());
+        HeapPage copy = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(page.getPageDataBuffer().isDirect());
+        assertEquals(copy.getInt(0, 0), page.getInt(0, 0));
+        assertEquals(copy.getTuple(1).getField(1), page.getTuple(1).getField(1));
+
+        Tuple victim = page.getTuple(0);
+        page.deleteTuple(victim);
+        assertFalse(page.getPageDataBuffer().isDirect());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImageData());
+        assertFalse(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData()));
+        assertEquals(copy.getTuple(1).getField(0), page.getTuple(1).getField(0));
+    }
+
     @Test(expected = DbException.class)
     public void deleteNonexistentTuple() throws Exception {
         HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
@@ -0,0 +1,189 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    // small pages, so that the inner table spans a number of them
+    private static final int PAGE_SIZE = 512;
+    private static final int OUTER_ROWS = 200;
+    private static final int INNER_ROWS = 500;
+
+    private HeapFile outer;
+    private HeapFile inner;
+    private TransactionId tid;
+
+    private HeapFile createTable() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile.freeSpaceMapFile(f).deleteOnExit();
+        HeapFile.zoneMapFile(f).deleteOnExit();
+        return Utility.openHeapFile(2, "c", f);
+    }
+
+    // indexes are maintained from the inserts, so they must be added first
+    private void fill(HeapFile table, int rows, int keys) throws Exception {
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[]{i, i % keys}));
+        }
+    }
+
+    private IndexFile addIndex(IndexFile index) {
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    private File indexFile() throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    @Before
+    public void createTables() throws Exception {
+        BufferPool.setPageSize(PAGE_SIZE);
+        Database.resetBufferPool(1000);
+
+        tid = new TransactionId();
+        outer = createTable();
+        inner = createTable();
+        fill(outer, OUTER_ROWS, 50);
+    }
+
+    @After
+    public void resetPageSize() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private int nestedLoopCount(Predicate.Op op) throws Exception {
+        return count(new Join(new JoinPredicate(1, op, 1),
+                new SeqScan(tid, outer.getId()), new SeqScan(tid, inner.getId())));
+    }
+
+    private int indexJoinCount(IndexFile index, Predicate.Op op) throws Exception {
+        return count(new IndexNestedLoopJoin(new JoinPredicate(1, op, 1),
+                new SeqScan(tid, outer.getId()), new IndexScan(tid, index.getId(), null, null)));
+    }
+
+    /**
+     * Probing a B+ tree or a hash index finds the same matches as a nested
+     * loop join.
+     */
+    @Test
+    public void matchesNestedLoops() throws Exception {
+        IndexFile tree = addIndex(new BTreeFile(indexFile(), inner, 1));
+        IndexFile hash = addIndex(new HashFile(indexFile(), inner, 1));
+        fill(inner, INNER_ROWS, 100);
+
+        int equal = nestedLoopCount(Predicate.Op.EQUALS);
+        assertEquals(OUTER_ROWS * INNER_ROWS / 100, equal);
+        assertEquals(equal, indexJoinCount(tree, Predicate.Op.EQUALS));
+        assertEquals(equal, indexJoinCount(hash, Predicate.Op.EQUALS));
+
+        assertEquals(nestedLoopCount(Predicate.Op.LESS_THAN),
+                indexJoinCount(tree, Predicate.Op.LESS_THAN));
+        assertEquals(nestedLoopCount(Predicate.Op.GREATER_THAN_OR_EQ),
+                indexJoinCount(tree, Predicate.Op.GREATER_THAN_OR_EQ));
+    }
+
+    /**
+     * A hash index cannot be probed for a range.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void hashRejectsRanges() throws Exception {
+        IndexFile hash = addIndex(new HashFile(indexFile(), inner, 1));
+        fill(inner, INNER_ROWS, 100);
+        indexJoinCount(hash, Predicate.Op.LESS_THAN);
+    }
+
+    /**
+     * The optimizer uses an index on the inner join field, keeps the filters
+     * on the inner table, and estimates the join to be cheaper than without
+     * the index.
+     */
+    @Test
+    public void optimizerUsesIndex() throws Exception {
+        addIndex(new BTreeFile(indexFile(), inner, 1));
+        fill(inner, INNER_ROWS, 100);
+        LogicalJoinNode lj = new LogicalJoinNode("o", "i", "c1", "c1", Predicate.Op.EQUALS);
+        DbIterator plan1 = new SeqScan(tid, outer.getId(), "o");
+        DbIterator plan2 = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(250)),
+                new SeqScan(tid, inner.getId(), "i"));
+
+        DbIterator j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+        assertTrue(j instanceof Filter);
+        assertTrue(((Filter) j).getChildren()[0] instanceof IndexNestedLoopJoin);
+        assertEquals(count(new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 1), plan1, plan2)),
+                count(j));
+
+        // no index on the other field
+        LogicalJoinNode unindexed = new LogicalJoinNode("o", "i", "c1", "c0", Predicate.Op.EQUALS);
+        assertTrue(JoinOptimizer.instantiateJoin(unindexed, plan1, plan2) instanceof HashEquiJoin);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "o");
+        lp.addScan(inner.getId(), "i");
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        assertTrue(jo.estimateJoinCost(lj, OUTER_ROWS, INNER_ROWS, 1000, 3000)
+                < jo.estimateJoinCost(lj, OUTER_ROWS, INNER_ROWS, 1000, 3000, false));
+    }
+
+    /**
+     * An index join is estimated to produce as many tuples as the nested
+     * loop join it replaces.
+     */
+    @Test
+    public void estimatesCardinality() throws Exception {
+        IndexFile tree = addIndex(new BTreeFile(indexFile(), inner, 1));
+        fill(inner, INNER_ROWS, 100);
+        //TableStats scans without a transaction, so release the fill's locks
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        HashMap<String, Integer> aliases = new HashMap<String, Integer>();
+        aliases.put("o", outer.getId());
+        aliases.put("i", inner.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (int id : aliases.values())
+            stats.put(Database.getCatalog().getTableName(id), new TableStats(id, 1000));
+
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        Join nested = new Join(p, new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i"));
+        IndexNestedLoopJoin probed = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "o"),
+                new IndexScan(tid, tree.getId(), "i", null, null));
+        OperatorCardinality.updateOperatorCardinality(nested, aliases, stats);
+        OperatorCardinality.updateOperatorCardinality(probed, aliases, stats);
+        assertEquals(nested.getEstimatedCardinality(), probed.getEstimatedCardinality());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
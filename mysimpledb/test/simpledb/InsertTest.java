@@ -60,6 +60,25 @@ public class InsertTest extends TestUtil.CreateHeapFile {
         assertEquals(1, empty.numPages());
     }
 
+    /**
+     * Unit test for Insert.getNext() in bulk-load mode
+     */
+    @Test
+    public void getNextBulk() throws Exception {
+        Insert op = new Insert(tid, scan1, empty.getId(), true);
+        op.open();
+        assertTrue(TestUtil.compareTuples(
+                Utility.getHeapTuple(7, 1), // the length of scan1
+                op.next()));
+
+        // the tuples go on a new page appended after the empty one
+        assertEquals(2, empty.numPages());
+        scan1.rewind();
+        SeqScan scan = new SeqScan(tid, empty.getId(), "");
+        scan.open();
+        TestUtil.matchAllTuples(scan1, scan);
+    }
+
     /**
      * JUnit suite target
      */
@@ -87,6 +87,25 @@ public class JoinTest extends SimpleDbTestBase {
         assertTrue(TestUtil.compareTuples(expected, actual));
     }
 
+    /**
+     * A join rewound partway through an outer tuple's matches starts over
+     * from the first outer tuple.
+     */
+    @Test
+    public void rewindMidway() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        Join op = new Join(pred, scan1, scan2);
+        op.open();
+        gtJoin.open();
+        assertTrue(TestUtil.compareTuples(gtJoin.next(), op.next()));
+        op.rewind();
+
+        gtJoin.rewind();
+        while (gtJoin.hasNext())
+            assertTrue(TestUtil.compareTuples(gtJoin.next(), op.next()));
+        assertTrue(TestUtil.checkExhausted(op));
+    }
+
     /**
      * Unit test for Join.getNext() using a &gt; predicate
      */
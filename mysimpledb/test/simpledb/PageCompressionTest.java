@@ -0,0 +1,209 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageCompressionTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private File file;
+    private HeapFile table;
+    private TransactionId tid;
+
+    private HeapFile openTable() {
+        HeapFile rv = new HeapFile(file, Utility.getTupleDesc(3), null, true);
+        Database.getCatalog().addTable(rv, "compressed");
+        return rv;
+    }
+
+    @Before
+    public void createTable() throws Exception {
+        file = File.createTempFile("compressed", ".dat");
+        file.deleteOnExit();
+        HeapFile.freeSpaceMapFile(file).deleteOnExit();
+        HeapFile.zoneMapFile(file).deleteOnExit();
+        HeapFile.pageTableFile(file).deleteOnExit();
+        table = openTable();
+        tid = new TransactionId();
+    }
+
+    private static Tuple row(int i) {
+        return Utility.getHeapTuple(new int[]{i, i % 10, 7});
+    }
+
+    private void insert(int from, int to) throws Exception {
+        for (int i = from; i < to; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(), row(i));
+    }
+
+    /**
+     * Commit, write every page out and empty the BufferPool.
+     */
+    private void flush() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    private ArrayList<Tuple> scan() throws Exception {
+        ArrayList<Tuple> rv = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            rv.add(it.next());
+        it.close();
+        return rv;
+    }
+
+    private void checkRows(int n) throws Exception {
+        ArrayList<Tuple> tuples = scan();
+        assertEquals(n, tuples.size());
+        for (int i = 0; i < n; i++)
+            assertEquals(new IntField(i), tuples.get(i).getField(0));
+    }
+
+    /**
+     * Pages read back as they were written, and take a fraction of their
+     * size on disk.
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        //the first page is written nearly empty, and outgrows its slot
+        insert(0, 10);
+        flush();
+        insert(10, ROWS);
+        flush();
+        checkRows(ROWS);
+        assertTrue(table.numPages() > 1);
+        assertTrue(file.length() * 3 < (long) table.numPages() * BufferPool.getPageSize());
+
+        //a new HeapFile finds the pages through the page table
+        Database.reset();
+        table = openTable();
+        checkRows(ROWS);
+    }
+
+    /**
+     * Deleted tuples stay deleted, and their slots are filled again.
+     */
+    @Test
+    public void deleteAndReinsert() throws Exception {
+        insert(0, ROWS);
+        flush();
+        for (Tuple t : scan()) {
+            if (((IntField) t.getField(0)).getValue() % 2 == 1)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        flush();
+        int pages = table.numPages();
+        assertEquals(ROWS / 2, scan().size());
+
+        insert(ROWS, ROWS + ROWS / 2);
+        flush();
+        assertEquals(ROWS, scan().size());
+        assertEquals(pages, table.numPages());
+    }
+
+    /**
+     * Bulk-loaded pages are compressed too.
+     */
+    @Test
+    public void appendTuples() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(row(i));
+        table.appendTuples(tid, tuples);
+        flush();
+        checkRows(ROWS);
+        assertTrue(file.length() * 3 < (long) table.numPages() * BufferPool.getPageSize());
+    }
+
+    /**
+     * Misses in a small pool are served from the compressed tier rather
+     * than the file, and the tier stays within its size.
+     */
+    @Test
+    public void compressedTier() throws Exception {
+        insert(0, ROWS);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(3);
+        tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+        pool.setCompressedTierSize(1 << 20);
+
+        checkRows(ROWS);
+        assertEquals(0, pool.getCompressedTierHits());
+        assertTrue(pool.getCompressedTierBytes() > 0);
+        checkRows(ROWS);
+        assertTrue(pool.getCompressedTierHits() >= table.numPages() - 3);
+
+        //a page changed in the pool and then rolled back leaves the tier
+        Tuple first = scan().get(0);
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        checkRows(ROWS);
+
+        pool.setCompressedTierSize(200);
+        assertTrue(pool.getCompressedTierBytes() <= 200);
+        pool.setCompressedTierSize(0);
+        assertEquals(0, pool.getCompressedTierBytes());
+    }
+
+    /**
+     * The codec round-trips any bytes, whether given an array or a
+     * read-only buffer, and rejects images of the wrong length or damaged
+     * ones.
+     */
+    @Test
+    public void codec() throws Exception {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        new Random(1).nextBytes(page);
+        byte[] image = PageCompressor.compress(page);
+        byte[] out = new byte[page.length];
+        PageCompressor.decompress(image, 0, image.length, out);
+        assertArrayEquals(page, out);
+
+        //a read-only buffer, as pages lend out their data, compresses alike
+        assertArrayEquals(image, PageCompressor.compress(ByteBuffer.wrap(page).asReadOnlyBuffer()));
+
+        try {
+            PageCompressor.decompress(image, 0, image.length, new byte[page.length - 1]);
+            fail("decompressed into a short page");
+        } catch (IOException e) {
+            // expected
+        }
+        image[image.length / 2] ^= 1;
+        try {
+            PageCompressor.decompress(image, 0, image.length, out);
+            fail("decompressed a damaged image");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCompressionTest.class);
+    }
+}
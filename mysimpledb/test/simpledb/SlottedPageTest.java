@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc VARCHAR_DESC = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.VARCHAR_TYPE}, new String[]{"id", "name"});
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, VARCHAR_DESC), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple row(int id, String name) {
+        Tuple t = new Tuple(VARCHAR_DESC);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN, Type.VARCHAR_TYPE));
+        return t;
+    }
+
+    /**
+     * Short strings take only the space they need, and survive a round
+     * trip through getPageData.
+     */
+    @Test
+    public void insertAndReread() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int count = 0;
+        while (page.hasRoomFor(row(count, "name" + count))) {
+            page.insertTuple(row(count, "name" + count));
+            count++;
+        }
+        // a fixed-length page only holds 30 of these tuples
+        assertTrue(count > 150);
+        assertEquals(0, page.getNumEmptySlots());
+
+        SlottedPage reread = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = reread.iterator();
+        for (int i = 0; i < count; i++) {
+            Tuple t = it.next();
+            assertEquals(i, t.getRecordId().tupleno());
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals("name" + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(Type.VARCHAR_TYPE, t.getField(1).getType());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted slots are reused, and tuples keep their slot numbers.
+     */
+    @Test
+    public void deleteAndReuse() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        Tuple a = row(1, "a");
+        Tuple b = row(2, "bb");
+        Tuple c = row(3, "ccc");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        int free = page.getNumEmptySlots();
+
+        page.deleteTuple(b);
+        assertFalse(page.isSlotUsed(1));
+        assertTrue(page.getNumEmptySlots() >= free);
+
+        Tuple d = row(4, "a much longer string than the one it replaces");
+        page.insertTuple(d);
+        assertEquals(1, d.getRecordId().tupleno());
+
+        SlottedPage reread = new SlottedPage(pid, page.getPageData());
+        assertTrue(reread.isSlotUsed(0));
+        assertTrue(reread.isSlotUsed(1));
+        assertTrue(reread.isSlotUsed(2));
+        Iterator<Tuple> it = reread.iterator();
+        it.next();
+        assertEquals("a much longer string than the one it replaces",
+                ((StringField) it.next().getField(1)).getValue());
+    }
+
+    /**
+     * A HeapFile with a varchar field uses SlottedPages.
+     */
+    @Test
+    public void varcharHeapFile() throws Exception {
+        File f = File.createTempFile("varchar", ".dat");
+        f.deleteOnExit();
+        HeapFile.freeSpaceMapFile(f).deleteOnExit();
+        HeapFile.zoneMapFile(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, VARCHAR_DESC);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), row(i, "n" + i));
+        }
+        // 1000 fixed-length tuples would need 34 pages
+        assertTrue(hf.numPages() <= 6);
+        assertTrue(hf.readPage(new HeapPageId(hf.getId(), 0)) instanceof SlottedPage);
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
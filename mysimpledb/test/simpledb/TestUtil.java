@@ -408,6 +408,8 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            HeapFile.freeSpaceMapFile(emptyFile).deleteOnExit();
+            HeapFile.zoneMapFile(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
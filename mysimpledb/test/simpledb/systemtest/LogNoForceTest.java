@@ -6,6 +6,7 @@ import simpledb.*;
 import java.io.IOException;
 import java.util.Arrays;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -55,4 +56,139 @@ public class LogNoForceTest extends LogTestBase {
                 Arrays.equals(before.getPageData(), after.getPageData()));
     }
 
+    @Test
+    public void testRedoUnflushedCommit() throws TransactionAbortedException, IOException, DbException {
+        setup();
+
+        // commit without flushing, then checkpoint: the page is still dirty,
+        // so recovery has to redo T1 from before the checkpoint
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 10, 0);
+        t1.commit();
+        Database.getLogFile().logCheckpoint();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf2, t2, 20, 0);
+        t2.commit();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 10, true);
+        look(hf2, t, 20, true);
+        t.commit();
+    }
+
+    @Test
+    public void testAbortKeepsUnflushedCommit() throws TransactionAbortedException, IOException, DbException {
+        setup();
+
+        // T1 commits without flushing, then T2 changes the same page and
+        // aborts: only T2's change may go
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 10, 0);
+        t1.commit();
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 11, 0);
+        t2.transactionComplete(true);
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        look(hf1, t3, 10, true);
+        look(hf1, t3, 11, false);
+        t3.commit();
+
+        // the page is still dirty, so a checkpoint keeps T1 recoverable
+        Database.getLogFile().logCheckpoint();
+        Database.getLogFile().logTruncate();
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 10, true);
+        look(hf1, t, 11, false);
+        t.commit();
+    }
+
+    @Test
+    public void testCleanerSkipsLockedPages() throws TransactionAbortedException, IOException, DbException {
+        setup();
+
+        HeapPage before1 = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        HeapPage before2 = (HeapPage) hf2.readPage(new HeapPageId(hf2.getId(), 0));
+
+        // T1's page is committed but dirty; T2's page is write-locked
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 10, 0);
+        t1.commit();
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf2, t2, 20, 0);
+
+        Database.getBufferPool().setTargetCleanRatio(1.0);
+        assertEquals(1, Database.getBufferPool().cleanPages(10));
+
+        HeapPage after1 = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        HeapPage after2 = (HeapPage) hf2.readPage(new HeapPageId(hf2.getId(), 0));
+        assertEquals(before1.getNumEmptySlots() - 1, after1.getNumEmptySlots());
+        assertTrue("Cleaner should not write a page locked by a live transaction",
+                Arrays.equals(before2.getPageData(), after2.getPageData()));
+        t2.commit();
+    }
+
+    @Test
+    public void testWriterFailureIsReported() throws Exception {
+        setup();
+
+        // the first write of hf1's pages fails
+        final int[] failures = {0};
+        hf1 = new HeapFile(file1, Utility.getTupleDesc(2)) {
+            public void writePage(Page page) throws IOException {
+                synchronized (failures) {
+                    if (failures[0]++ == 0)
+                        throw new IOException("disk full");
+                }
+                super.writePage(page);
+            }
+        };
+        Database.getCatalog().addTable(hf1, "failing");
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 10, 0);
+        t1.commit();
+
+        Database.getBufferPool().setTargetCleanRatio(1.0);
+        Database.getBufferPool().startBackgroundWriter(10, 10);
+        for (int i = 0; i < 200; i++) {
+            synchronized (failures) {
+                if (failures[0] > 0)
+                    break;
+            }
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+
+        // the writer stopped, and the next flush reports why, once
+        try {
+            Database.getBufferPool().flushAllPages();
+            fail("the background writer's failure was lost");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("disk full"));
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().stopBackgroundWriter();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        look(hf1, t2, 10, true);
+        t2.commit();
+    }
+
 }
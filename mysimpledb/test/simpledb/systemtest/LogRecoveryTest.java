@@ -9,6 +9,9 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
 /**
  * User: mhay
  * Date: 11/14/14 4:17 PM
@@ -35,6 +38,34 @@ public class LogRecoveryTest extends LogTestBase {
         t.commit();
     }
 
+    @Test
+    public void TestBulkLoadCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // a committed bulk load survives a crash; an open one is undone
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        bulkInsertRows(hf1, t1, 1000, 600);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        bulkInsertRows(hf1, t2, 5000, 600);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1000, true);
+        look(hf1, t, 1599, true);
+        look(hf1, t, 5000, false);
+        look(hf1, t, 5599, false);
+        t.commit();
+    }
+
     @Test
     public void TestAbortCrash()
             throws IOException, DbException, TransactionAbortedException {
@@ -393,4 +424,112 @@ public class LogRecoveryTest extends LogTestBase {
         t.commit();
 
     }
+
+    @Test
+    public void TestFuzzyCheckpointDoesNotFlush()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // T1 inserts but does not flush, log check point: the page on disk
+        // should be untouched, and rollback should still remove the tuple
+        HeapPage before = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 5, 0);
+        Database.getLogFile().logCheckpoint();
+
+        HeapPage after = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        if (!Arrays.equals(before.getPageData(), after.getPageData())) {
+            fail("LogTest: checkpoint should not flush dirty pages");
+        }
+
+        abort(t1);
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 5, false);
+        t.commit();
+    }
+
+    @Test
+    public void TestTruncateAfterCheckpoint()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // fill several log segments, then checkpoint: every segment before
+        // the checkpoint should be reclaimed, and recovery should still work
+        for (int i = 0; i < 300; i++) {
+            doInsert(hf1, 100 + i, -1);
+        }
+        if (Database.getLogFile().numSegments() < 2) {
+            fail("LogTest: expected the log to span several segments");
+        }
+        Database.getLogFile().logCheckpoint();
+        assertEquals(1, Database.getLogFile().numSegments());
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 100, true);
+        look(hf1, t, 399, true);
+        t.commit();
+    }
+
+    @Test
+    public void TestTruncateKeepsLiveTransaction()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // T1 starts and flushes an update, other txns fill several log
+        // segments, checkpoint: T1's records must survive truncation so
+        // that it can still be rolled back
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf2, t1, 5, 0);
+        Database.getBufferPool().flushAllPages();
+
+        for (int i = 0; i < 300; i++) {
+            doInsert(hf1, 100 + i, -1);
+        }
+        int segments = Database.getLogFile().numSegments();
+        Database.getLogFile().logCheckpoint();
+        assertEquals(segments, Database.getLogFile().numSegments());
+
+        abort(t1);
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf2, t, 5, false);
+        look(hf1, t, 399, true);
+        t.commit();
+    }
+
+    @Test
+    public void TestCheckpointAfterBareCommit()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // a bare TransactionId, never started, inserts and commits through
+        // the BufferPool, then checkpoint, crash: it logged no BEGIN or
+        // COMMIT, and must not be rolled back as a live transaction
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf1.getId(),
+                Utility.getHeapTuple(new int[]{5, 0}));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getLogFile().logCheckpoint();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 5, true);
+        t.commit();
+    }
 }
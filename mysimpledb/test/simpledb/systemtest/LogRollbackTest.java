@@ -33,6 +33,32 @@ public class LogRollbackTest extends LogTestBase {
         }
     }
 
+    @Test
+    public void TestRollbackDuringReadAhead()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // T1's uncommitted insert is stolen to disk
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3, 0);
+        Database.getBufferPool().flushAllPages();
+
+        // a read-ahead reads the stolen image, then T1 rolls back before
+        // the read-ahead gets to install it
+        HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+        long writes = Database.getBufferPool().getPageWriteCount();
+        Page stale = hf1.readPage(pid);
+        t1.transactionComplete(true);
+        Assert.assertFalse("a page read before a rollback was installed after it",
+                Database.getBufferPool().installPrefetchedPage(stale, writes));
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        look(hf1, t2, 3, false);
+        t2.commit();
+    }
+
     @Test
     public void TestRollback()
             throws IOException, DbException, TransactionAbortedException {
@@ -57,6 +83,30 @@ public class LogRollbackTest extends LogTestBase {
         t3.commit();
     }
 
+    @Test
+    public void TestRollbackBulkLoad()
+            throws IOException, DbException, TransactionAbortedException {
+
+        setup();
+
+        // *** Test:
+        // rollback a bulk load, which appended pages outside the BufferPool
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        bulkInsertRows(hf1, t1, 1000, 600);
+        look(hf1, t1, 1000, true);
+        look(hf1, t1, 1599, true);
+
+        abort(t1);
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        look(hf1, t3, 1000, false);
+        look(hf1, t3, 1599, false);
+        t3.commit();
+    }
+
     @Test
     public void TestNoRollback()
             throws IOException, DbException, TransactionAbortedException {
@@ -86,6 +136,28 @@ public class LogRollbackTest extends LogTestBase {
     }
 
 
+    @Test
+    public void TestRollbackBareTransaction()
+            throws IOException, DbException, TransactionAbortedException {
+
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // abort a txn that never logged BEGIN, after its page was stolen
+        Transaction t1 = new Transaction();          // not started
+        Database.getLogFile().logAbort(t1.getId());  // nothing to undo yet
+        insertRow(hf1, t1, 3, 0);
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(t1.getId(), false);
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        look(hf1, t2, 1, true);
+        look(hf1, t2, 3, false);                  // this should have been rolled back
+        t2.commit();
+    }
+
     @Test
     public void TestRollbackWithOthers()
             throws IOException, DbException, TransactionAbortedException {
@@ -38,6 +38,26 @@ public class LogTestBase extends SimpleDbTestBase {
         insert.close();
     }
 
+    // bulk-load rows (first, 0) .. (first + n - 1, 0)
+    void bulkInsertRows(HeapFile hf, Transaction t, int first, int n)
+            throws DbException, TransactionAbortedException {
+        TupleDesc twoIntColumns = Utility.getTupleDesc(2);
+        java.util.ArrayList<Tuple> rows = new java.util.ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple value = new Tuple(twoIntColumns);
+            value.setField(0, new IntField(first + i));
+            value.setField(1, new IntField(0));
+            rows.add(value);
+        }
+
+        Insert insert = new Insert(t.getId(), new TupleIterator(twoIntColumns, rows), hf.getId(), true);
+        insert.open();
+        Tuple result = insert.next();
+        assertEquals(n, ((IntField) result.getField(0)).getValue());
+        assertFalse(insert.hasNext());
+        insert.close();
+    }
+
     // check that the specified tuple is, or is not, present
     void look(HeapFile hf, Transaction t, int v1, boolean present)
             throws DbException, TransactionAbortedException {